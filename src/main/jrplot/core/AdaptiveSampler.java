@@ -0,0 +1,323 @@
+package jrplot.core;
+
+import java.util.Arrays;
+
+import jrplot.core.expression.CompiledFunction;
+
+/**
+ * Samples a function at the density required by its size on screen, instead of a fixed step.
+ *
+ * <br /><br />
+ * A coarse pass takes one sample every {@link #COARSE_STEP_PIXELS} pixels. Then each interval
+ * between two samples is split in half while the curve bends (the sample at the middle is
+ * off the straight line between the ends by more than {@link #TOLERANCE_PIXELS}) or enters
+ * or leaves the domain of the function, down to intervals of {@link #MIN_STEP_PIXELS}.
+ * Straight parts of the curve keep the coarse samples, while sharp features are resolved
+ * below the size of a pixel.
+ *
+ * <br /><br />
+ * Where the curve still jumps by more than {@link #JUMP_PIXELS} over the smallest interval,
+ * mostly on one of its halves, it is taken as a discontinuity (such as the pole of 1/x), and a NaN sample is inserted,
+ * so that the two sides are not connected.
+ *
+ * <br /><br />
+ * The vertical size of a pixel is estimated from the values of the coarse pass.
+ * Given the coarse pass (a {@link Grid}), each interval is refined on its own, so ranges
+ * of intervals may be refined by different threads (each one with its own sampler) and
+ * concatenated, with the same result as a single sampler.
+ *
+ * <br /><br />
+ * Thread safety: instances must be confined to one thread, like the function they evaluate.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+final class AdaptiveSampler {
+
+	static final int COARSE_STEP_PIXELS = 4;
+	static final double TOLERANCE_PIXELS = 0.25;
+	static final double MIN_STEP_PIXELS = 1.0 / 16;
+	static final double JUMP_PIXELS = 8.0;
+
+	/**
+	 * Number of times a coarse interval may be halved: COARSE_STEP_PIXELS / 2^MAX_DEPTH = MIN_STEP_PIXELS.
+	 */
+	private static final int MAX_DEPTH = 6;
+
+	private final CompiledFunction function;
+	private final double maxAbsY;
+	
+	/**
+	 * The plot the samples are taken for, or null. Its cancellation is checked, and its progress 
+	 * advanced, after each interval of the coarse pass.
+	 */
+	private final PlotRequest request;
+
+	private double[] xs = new double[1024];
+	private double[] ys = new double[1024];
+	private int size;
+	private int evaluations;
+
+	/**
+	 * Pending intervals of the refinement: the right end of each one (the left end being
+	 * the last sample taken), and how many times it was halved.
+	 */
+	private final double[] rightX = new double[MAX_DEPTH + 1];
+	private final double[] rightY = new double[MAX_DEPTH + 1];
+	private final int[] depth = new int[MAX_DEPTH + 1];
+
+	/**
+	 *
+	 * @param function
+	 * @param maxAbsY Finite values are clamped to [-maxAbsY, maxAbsY].
+	 */
+	AdaptiveSampler(CompiledFunction function, double maxAbsY) {
+		this(function, maxAbsY, null);
+	}
+
+	/**
+	 *
+	 * @param function
+	 * @param maxAbsY Finite values are clamped to [-maxAbsY, maxAbsY].
+	 * @param request The plot the samples are taken for, or null.
+	 */
+	AdaptiveSampler(CompiledFunction function, double maxAbsY, PlotRequest request) {
+		this.function = function;
+		this.maxAbsY = maxAbsY;
+		this.request = request;
+	}
+
+	/**
+	 * Samples the interval [minX, maxX], replacing the previous samples.
+	 *
+	 * @param minX
+	 * @param maxX
+	 * @param xPerPixel Width of a pixel, in the units of x.
+	 * @param heightPixels Height of the plot, in pixels.
+	 */
+	void sample(double minX, double maxX, double xPerPixel, int heightPixels) {
+		Grid grid = new Grid(minX, maxX, xPerPixel);
+		function.applyAsDouble(grid.xs, grid.ys, grid.size());
+		grid.setScale(heightPixels, maxAbsY);
+
+		refine(grid, 0, grid.size() - 1);
+		evaluations += grid.size();
+	}
+
+	/**
+	 * Refines a range of intervals of the coarse pass, replacing the previous samples.
+	 * The first sample is the point "from" of the grid, and the last one is the point "to".
+	 *
+	 * @param grid Coarse pass, already evaluated and scaled.
+	 * @param from
+	 * @param to
+	 */
+	void refine(Grid grid, int from, int to) {
+		size = 0;
+		evaluations = 0;
+
+		add(grid.xs[from], grid.ys[from]);
+		for (int i = from + 1; i <= to; i++) {
+			if (request != null) {
+				request.checkCancelled();
+			}
+			refineInterval(grid.xs[i], grid.ys[i], grid.tolerance, grid.jump);
+			if (request != null) {
+				request.advance(1);
+			}
+		}
+	}
+
+	/**
+	 * Samples the interval between the last sample and (endX, endY), ending with it.
+	 * The intervals are split depth-first, left half first, so samples come out in order.
+	 */
+	private void refineInterval(double endX, double endY, double tolerance, double jump) {
+		int top = 0;
+		rightX[0] = endX;
+		rightY[0] = endY;
+		depth[0] = 0;
+
+		while (top >= 0) {
+			double x0 = xs[size - 1];
+			double y0 = ys[size - 1];
+			double xm = 0.5 * (x0 + rightX[top]);
+			double ym = clamp(function.applyAsDouble(xm), maxAbsY);
+			evaluations++;
+
+			double x1 = rightX[top];
+			double y1 = rightY[top];
+			if (!needsSplit(y0, ym, y1, tolerance)) {
+				add(xm, ym);
+				add(x1, y1);
+				top--;
+			} else if (depth[top] < MAX_DEPTH) {
+				// Both halves are one level deeper; the left one is taken first
+				int d = ++depth[top];
+				top++;
+				rightX[top] = xm;
+				rightY[top] = ym;
+				depth[top] = d;
+			} else {
+				// Smallest interval; the gap goes on the half with the largest jump
+				boolean discontinuous = isJump(y0, ym, y1, jump);
+				boolean leftJump = Math.abs(ym - y0) > Math.abs(y1 - ym);
+				if (discontinuous && leftJump) {
+					add(0.5 * (x0 + xm), Double.NaN);
+				}
+				add(xm, ym);
+				if (discontinuous && !leftJump) {
+					add(0.5 * (xm + x1), Double.NaN);
+				}
+				add(x1, y1);
+				top--;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param y0
+	 * @param ym Value at the middle of the interval.
+	 * @param y1
+	 * @param tolerance
+	 * @return True if the interval does not look like a straight line on screen.
+	 */
+	private static boolean needsSplit(double y0, double ym, double y1, double tolerance) {
+		boolean finite0 = isFinite(y0);
+		boolean finiteM = isFinite(ym);
+		boolean finite1 = isFinite(y1);
+		if (!finite0 || !finiteM || !finite1) {
+			// Looking for where the function becomes (un)defined
+			return finite0 || finiteM || finite1;
+		}
+		return Math.abs(ym - 0.5 * (y0 + y1)) > tolerance;
+	}
+
+	/**
+	 * A steep but continuous curve changes by about the same amount on both halves of a small
+	 * interval, in the same direction. Over a discontinuity, one half has most of the change,
+	 * or the curve turns back (as around the pole of 1/x^2).
+	 *
+	 * @return True if the interval looks like a discontinuity of at least the given jump.
+	 */
+	private static boolean isJump(double y0, double ym, double y1, double jump) {
+		double left = ym - y0;
+		double right = y1 - ym;
+		double big = Math.max(Math.abs(left), Math.abs(right));
+		double small = Math.min(Math.abs(left), Math.abs(right));
+		return big > jump && (big > 4 * small || left * right < 0);
+	}
+
+	private static boolean isFinite(double y) {
+		return !Double.isNaN(y) && !Double.isInfinite(y);
+	}
+
+	private static double clamp(double y, double maxAbsY) {
+		if (y < -maxAbsY && !Double.isInfinite(y)) return -maxAbsY;
+		if (y > maxAbsY && !Double.isInfinite(y)) return maxAbsY;
+		return y;
+	}
+
+	private void add(double x, double y) {
+		if (size == xs.length) {
+			xs = Arrays.copyOf(xs, size * 2);
+			ys = Arrays.copyOf(ys, size * 2);
+		}
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	/**
+	 *
+	 * @return Number of samples taken by the last call to sample or refine.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return The x of the samples, in increasing order, on the positions 0 to size() - 1.
+	 * Not copied.
+	 */
+	double[] xs() {
+		return xs;
+	}
+
+	/**
+	 *
+	 * @return The values of the samples: NaN or infinite outside of the domain of the function,
+	 * and NaN on discontinuities.
+	 * Not copied.
+	 */
+	double[] ys() {
+		return ys;
+	}
+
+	/**
+	 *
+	 * @return Number of times the function was evaluated by the last call to sample or refine.
+	 */
+	int evaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * The coarse pass: one sample every {@link AdaptiveSampler#COARSE_STEP_PIXELS} pixels,
+	 * and the tolerances derived from its values.
+	 */
+	static final class Grid {
+		final double[] xs;
+
+		/**
+		 * Filled by the caller, before calling setScale.
+		 */
+		final double[] ys;
+
+		private double tolerance;
+		private double jump;
+
+		/**
+		 *
+		 * @param minX
+		 * @param maxX
+		 * @param xPerPixel Width of a pixel, in the units of x.
+		 */
+		Grid(double minX, double maxX, double xPerPixel) {
+			double step = COARSE_STEP_PIXELS * xPerPixel;
+			int count = (int) Math.ceil((maxX - minX) / step) + 1;
+			xs = new double[count];
+			ys = new double[count];
+			for (int i = 0; i < count - 1; i++) {
+				xs[i] = minX + i * step;
+			}
+			xs[count - 1] = maxX;
+		}
+
+		int size() {
+			return xs.length;
+		}
+
+		/**
+		 * Clamps the values, and estimates the vertical size of a pixel from them.
+		 * @param heightPixels Height of the plot, in pixels.
+		 * @param maxAbsY Finite values are clamped to [-maxAbsY, maxAbsY].
+		 */
+		void setScale(int heightPixels, double maxAbsY) {
+			double minY = 0.0;
+			double maxY = 0.0;
+			for (int i = 0; i < ys.length; i++) {
+				double y = clamp(ys[i], maxAbsY);
+				ys[i] = y;
+				if (y < minY) minY = y;
+				if (y > maxY) maxY = y;
+			}
+			// A flat line has no scale of its own; any nonzero one will do
+			double yPerPixel = (maxY > minY ? maxY - minY : 1.0) / heightPixels;
+			tolerance = TOLERANCE_PIXELS * yPerPixel;
+			jump = JUMP_PIXELS * yPerPixel;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package jrplot.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently finished plots of a {@link PlotEngine}, so that going back to
+ * a function and interval already plotted (undo, redo, a previous view) skips the sampling.
+ *
+ * <br /><br />
+ * Entries are keyed by the canonical form of the expressions (see
+ * {@link jrplot.core.expression.Expression#getCanonicalForm()}), the x interval and the
+ * sampling resolution, so equivalent texts such as "2x" and "2 * x" share a single entry.
+ * The cache is bounded by the memory taken by the samples: when it is full, the least
+ * recently used entries are evicted. With soft references enabled, the evicted entries are
+ * only demoted: the garbage collector may reclaim them under heap pressure, and until then
+ * they are still found (and promoted back).
+ *
+ * <br /><br />
+ * Thread safety: instances may be used by several threads at the same time.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class PlotCache {
+
+	/**
+	 * Guarded by this.
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<String, DemotedEntry> demoted = new HashMap<String, DemotedEntry>();
+	private final ReferenceQueue<PlotSnapshot> reclaimed = new ReferenceQueue<PlotSnapshot>();
+	private long maxBytes;
+	private long bytes;
+	private final boolean softReferences;
+	private long hits;
+	private long misses;
+
+	/**
+	 *
+	 * @param maxBytes Memory the cached plots may take. Must not be negative.
+	 * @param softReferences Whether the evicted plots are kept through soft references.
+	 */
+	public PlotCache(long maxBytes, boolean softReferences) {
+		checkMaxBytes(maxBytes);
+		this.maxBytes = maxBytes;
+		this.softReferences = softReferences;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return The plot cached with the key, or null if there is none.
+	 */
+	synchronized PlotSnapshot get(String key) {
+		purgeReclaimed();
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			hits++;
+			return entry.plot;
+		}
+
+		DemotedEntry demotedEntry = demoted.remove(key);
+		PlotSnapshot plot = demotedEntry == null ? null : demotedEntry.get();
+		if (plot == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		store(key, plot);
+		return plot;
+	}
+
+	/**
+	 * Caches a finished plot, replacing the one cached with the same key.
+	 * Plots larger than the cache are not kept (or only through a soft reference).
+	 * @param key
+	 * @param plot
+	 */
+	synchronized void put(String key, PlotSnapshot plot) {
+		purgeReclaimed();
+		demoted.remove(key);
+		store(key, plot);
+	}
+
+	private void store(String key, PlotSnapshot plot) {
+		Entry old = entries.remove(key);
+		if (old != null) {
+			bytes -= old.bytes;
+		}
+		Entry entry = new Entry(plot);
+		entries.put(key, entry);
+		bytes += entry.bytes;
+		evict();
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache fits in its memory.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Entry> eldest = it.next();
+			it.remove();
+			bytes -= eldest.getValue().bytes;
+			if (softReferences) {
+				demoted.put(eldest.getKey(), new DemotedEntry(eldest.getKey(), eldest.getValue().plot, reclaimed));
+			}
+		}
+	}
+
+	/**
+	 * Forgets the demoted entries whose plots were reclaimed by the garbage collector.
+	 */
+	private void purgeReclaimed() {
+		DemotedEntry ref;
+		while ((ref = (DemotedEntry) reclaimed.poll()) != null) {
+			if (demoted.get(ref.key) == ref) {
+				demoted.remove(ref.key);
+			}
+		}
+	}
+
+	/**
+	 * Changes the memory the cached plots may take, evicting the least recently used ones if needed.
+	 * @param maxBytes Must not be negative.
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		checkMaxBytes(maxBytes);
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	private static void checkMaxBytes(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+		}
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 *
+	 * @return Memory taken by the plots currently in the cache, not counting the demoted ones.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return Number of plots currently in the cache, not counting the demoted ones.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 *
+	 * @return Number of demoted plots not reclaimed yet.
+	 */
+	public synchronized int demotedSize() {
+		purgeReclaimed();
+		return demoted.size();
+	}
+
+	/**
+	 *
+	 * @return Number of plots found in the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 *
+	 * @return Number of plots that had to be sampled.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 *
+	 * @return Fraction of the plots found in the cache, from 0.0 to 1.0 (0.0 before the first plot).
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	/**
+	 * Removes all the entries, including the demoted ones. The hit and miss counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		demoted.clear();
+		bytes = 0;
+	}
+
+	private static final class Entry {
+		final PlotSnapshot plot;
+		final long bytes;
+
+		Entry(PlotSnapshot plot) {
+			this.plot = plot;
+			this.bytes = plot.estimateBytes();
+		}
+	}
+
+	/**
+	 * A plot evicted from the cache, that the garbage collector may reclaim.
+	 */
+	private static final class DemotedEntry extends SoftReference<PlotSnapshot> {
+		final String key;
+
+		DemotedEntry(String key, PlotSnapshot plot, ReferenceQueue<PlotSnapshot> queue) {
+			super(plot, queue);
+			this.key = key;
+		}
+	}
+}
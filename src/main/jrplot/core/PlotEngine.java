@@ -1,10 +1,20 @@
 package jrplot.core;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import jrplot.core.expression.CompiledFunctionSet;
 import jrplot.core.expression.Expression;
+import jrplot.core.expression.ExpressionCache;
 import jrplot.core.expression.ExpressionException;
 
 /**
@@ -13,8 +23,24 @@ import jrplot.core.expression.ExpressionException;
  * by the view components.
  * <br />
  * 
- * Thread safety: This class is not threa-safe, if clients are working with different functions.
- * Some values from the last plotted function are stored in each instance.
+ * Thread safety: instances may be used by several threads at the same time. The last plot is
+ * kept as an immutable {@link PlotSnapshot}, replaced through a single volatile reference when
+ * a new one is finished, so readers never lock nor see a plot half updated. Starting a plot 
+ * cancels the one in progress, which then throws a CancellationException (see {@link #cancel()}).
+ * <br />
+ * 
+ * When created with an executor, the samples are evaluated in parallel: the interval is split
+ * in chunks, each one evaluated by its own function instance, and the results are merged in
+ * x order. The plotted points are the same as the ones of the sequential evaluation.
+ * <br />
+ * 
+ * Several functions may be plotted together, over the same x values (see 
+ * {@link #updateFunctions(String[], double, double)}): they are evaluated in a single pass,
+ * sharing their common subexpressions, and the bounds of the plot include all of them.
+ * <br />
+ * 
+ * The finished plots are kept on a {@link PlotCache}, so that plotting again the same
+ * functions over the same interval, at the same resolution, takes no sampling.
  * 
  * @author Rodrigo Gomes
  *
@@ -27,122 +53,1139 @@ public class PlotEngine {
 	 */
 	private final static double MAX_ALLOWED_VALUE = 100000.0;
 	
-	private String currentFunctionText;
-	private Expression currentFunction;
-	private PrecisionLevel currentPrecisionX;
-	private PrecisionLevel currentPrecisionY;
+	/**
+	 * Number of x values handed to the function at each evaluation call.
+	 */
+	private final static int SAMPLE_BLOCK_SIZE = 1024;
+	
+	/**
+	 * Tolerance, in steps, when placing the bounds of a viewport on the lattice of the samples.
+	 */
+	private final static double LATTICE_TOLERANCE = 1e-6;
+	
+	/**
+	 * Number of parsed expressions kept in memory. Users usually go back and forth 
+	 * between a few functions, and the values typed on the interval fields.
+	 */
+	private final static int EXPRESSION_CACHE_SIZE = 32;
+	
+	private final static PlotSnapshot EMPTY_PLOT = new PlotSnapshot(new String[0], new Expression[0], 
+			0.0, new PlotSeries[0], 0.0, 0.0, true);
+	
+	private final static ExpressionCache expressionCache = new ExpressionCache(EXPRESSION_CACHE_SIZE);
+	
+	/**
+	 * Chunks per thread of the parallel evaluation. More chunks than threads balance the
+	 * load when some parts of the interval are more expensive than others.
+	 */
+	private final static int CHUNKS_PER_THREAD = 4;
+	
+	/**
+	 * Smallest chunk of the parallel evaluation, in samples of the fixed step and in 
+	 * intervals of the adaptive sampling. Smaller ones would cost more to schedule than to evaluate.
+	 */
+	private final static int MIN_CHUNK_SAMPLES = 4096;
+	private final static int MIN_CHUNK_INTERVALS = 8;
+	
+	/**
+	 * Samples of the first pass of a progressive plot (see {@link #setPlotListener(PlotListener)}):
+	 * about one per pixel, so that it can be shown right away.
+	 */
+	private final static int PREVIEW_SAMPLES = 512;
+	
+	/**
+	 * Memory of the default plot cache: about a hundred plots of the larger intervals.
+	 */
+	private final static long PLOT_CACHE_BYTES = 32L << 20;
+	
+	/**
+	 * Samples per block of a streaming sampling (see {@link SampleSink}).
+	 */
+	private final static int STREAM_BLOCK_SAMPLES = 4096;
+	
+	/**
+	 * Blocks evaluated ahead of the sink, per thread, by the parallel streaming. Bounds the
+	 * memory taken, and makes a slow sink slow down the evaluation.
+	 */
+	private final static int STREAM_BLOCKS_AHEAD = 2;
+	
+	/**
+	 * Runs the evaluation chunks, or null for sequential evaluation.
+	 */
+	private final ExecutorService executor;
+	private final int parallelism;
+	
+	/**
+	 * The last plotted functions. Replaced as a whole, so that readers never see parts 
+	 * of two different plots.
+	 */
+	private volatile PlotSnapshot current = EMPTY_PLOT;
+	
+	/**
+	 * The plot being computed, if any. Guarded by this.
+	 */
+	private PlotRequest pendingRequest;
+	
+	/**
+	 * The request whose preview is the current plot, if any, and the plot it replaced. 
+	 * Guarded by this.
+	 */
+	private PlotRequest previewRequest;
+	private PlotSnapshot beforePreview;
+	
+	private volatile PlotListener listener;
+	
+	private volatile PlotCache plotCache = new PlotCache(PLOT_CACHE_BYTES, true);
+	
+	/**
+	 * Creates an engine that evaluates the samples on the calling thread.
+	 */
+	public PlotEngine() {
+		this(null, 1);
+	}
 	
 	/**
-	 * Keeps a cache of the plotted points, so that the function don't need to be re-evaluated
-	 * on each repaint.
+	 * Creates an engine that evaluates the samples in parallel.
+	 * 
+	 * @param executor Runs the evaluation of the chunks of the interval. 
+	 * Not shut down by the engine.
+	 * @param parallelism Number of threads of the executor.
 	 */
-	private List<Pair> currentFunctionPairs;
+	public PlotEngine(ExecutorService executor, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		}
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
 	
-	private double minX;
-	private double maxX;
-	private double minY;
-	private double maxY;
+	/**
+	 * 
+	 * @return The last plotted function, or an empty plot if there is none. Renderers should 
+	 * read everything from a single snapshot.
+	 */
+	public PlotSnapshot getSnapshot() {
+		return current;
+	}
 	
 	/**
 	 * Retrieve the last plotted function.
-	 * @return The (x,y) pairs corresponding to the results of the plotting.
+	 * @return The samples corresponding to the results of the plotting (a read-only view),
+	 * or an empty series if there is no function. 
 	 */
-	public List<Pair> getCurrentFunctionPairs() {
-		if (currentFunctionPairs != null) {
-			return Collections.unmodifiableList(currentFunctionPairs);
-		} else {
-			return Collections.emptyList();
+	public PlotSeries getCurrentSeries() {
+		return current.getSeries();
+	}
+	
+	/**
+	 * 
+	 * @return The levels of detail of the last plotted function (see {@link #getCurrentSeries()}).
+	 */
+	public SeriesPyramid getCurrentPyramid() {
+		return current.getPyramid();
+	}
+	
+	/**
+	 * Cancels the plot in progress, if any. The thread computing it gives up soon after,
+	 * throwing a CancellationException, and the last plotted function is kept.
+	 */
+	public synchronized void cancel() {
+		if (pendingRequest != null) {
+			pendingRequest.cancel();
+		}
+	}
+	
+	/**
+	 * 
+	 * @return Percentage of the plot in progress already computed, or 100 if there is none.
+	 */
+	public synchronized int getProgress() {
+		return pendingRequest == null ? 100 : pendingRequest.getProgress();
+	}
+	
+	/**
+	 * Starts a new plot, cancelling the one in progress.
+	 */
+	private synchronized PlotRequest begin() {
+		cancel();
+		pendingRequest = new PlotRequest();
+		return pendingRequest;
+	}
+	
+	/**
+	 * Makes a plot the current one, unless its request was cancelled meanwhile, 
+	 * and notifies the listener.
+	 */
+	private void publish(PlotRequest request, PlotSnapshot plot) {
+		boolean complete = plot.isComplete();
+		synchronized (this) {
+			request.checkCancelled();
+			if (!complete && previewRequest == null) {
+				beforePreview = current;
+			}
+			previewRequest = complete ? null : request;
+			if (complete) {
+				beforePreview = null;
+			}
+			current = plot;
+		}
+		notifyListener(complete);
+	}
+	
+	/**
+	 * Finishes a request. If it was cancelled after publishing a preview, the plot 
+	 * before the preview is restored.
+	 */
+	private void end(PlotRequest request) {
+		synchronized (this) {
+			if (pendingRequest == request) {
+				pendingRequest = null;
+			}
+			if (previewRequest != request) {
+				return;
+			}
+			current = beforePreview;
+			previewRequest = null;
+			beforePreview = null;
+		}
+		notifyListener(true);
+	}
+	
+	private void notifyListener(boolean complete) {
+		PlotListener l = listener;
+		if (l != null) {
+			l.plotUpdated(complete);
+		}
+	}
+	
+	/**
+	 * Sets the listener notified of the new plots. With a listener, the plots are
+	 * computed progressively: a coarse preview is published first, and then refined.
+	 * The final plot is the same.
+	 * 
+	 * @param listener Null for none (then only finished plots are published).
+	 */
+	public void setPlotListener(PlotListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Sets the cache of the finished plots. By default, each engine has its own cache,
+	 * keeping the evicted plots through soft references.
+	 * 
+	 * @param plotCache Null for none.
+	 */
+	public void setPlotCache(PlotCache plotCache) {
+		this.plotCache = plotCache;
+	}
+	
+	/**
+	 * 
+	 * @return The cache of the finished plots (with its statistics), or null if there is none.
+	 */
+	public PlotCache getPlotCache() {
+		return plotCache;
+	}
+	
+	/**
+	 * 
+	 * @param functions
+	 * @param minX
+	 * @param maxX
+	 * @param resolution Describes how the interval is sampled.
+	 * @return The key of the plot on the cache.
+	 */
+	private static String plotKey(Expression[] functions, double minX, double maxX, String resolution) {
+		StringBuilder sb = new StringBuilder(resolution);
+		sb.append(" [").append(minX).append(", ").append(maxX).append("]");
+		for (Expression function : functions) {
+			sb.append(" | ").append(function.getCanonicalForm());
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * 
+	 * @return Describes the sampling of an interval at fixed steps, starting at minX.
+	 */
+	private static String fixedStepResolution(double minX, double maxX) {
+		return "step " + new PrecisionLevel(minX, maxX).xStep;
+	}
+	
+	/**
+	 * 
+	 * @return The cached plot, for the given texts of its functions, or null if there is none.
+	 */
+	private PlotSnapshot cachedPlot(String key, String[] texts, Expression[] functions) {
+		PlotCache cache = plotCache;
+		PlotSnapshot plot = cache == null ? null : cache.get(key);
+		return plot == null ? null : plot.withFunctions(texts, functions);
+	}
+	
+	private void cachePlot(String key, PlotSnapshot plot) {
+		PlotCache cache = plotCache;
+		if (cache != null) {
+			cache.put(key, plot);
 		}
 	}
 
 	/**
-	 * Plots a new Function.
+	 * Plots a new Function, sampling the interval at fixed steps, according to its length.
 	 * 
 	 * @param expression
 	 * @param minX
 	 * @param maxX
 	 * @throws ExpressionException
+	 * @throws java.util.concurrent.CancellationException If the plot was cancelled.
 	 */
 	public void updateFunction(String expression, double minX, double maxX) throws ExpressionException {
+		updateFunctions(new String[] {expression}, minX, maxX);
+	}
+	
+	/**
+	 * Plots several functions together, sampling the interval at fixed steps 
+	 * (like {@link #updateFunction(String, double, double)}). The functions are evaluated 
+	 * over the same x values, in a single pass that computes their common subexpressions 
+	 * only once.
+	 * 
+	 * @param expressions
+	 * @param minX
+	 * @param maxX
+	 * @throws ExpressionException
+	 * @throws java.util.concurrent.CancellationException If the plot was cancelled.
+	 */
+	public void updateFunctions(String[] expressions, double minX, double maxX) throws ExpressionException {
+		if (expressions.length == 0) {
+			throw new IllegalArgumentException("No expressions to plot");
+		}
+		PlotRequest request = begin();
+		try {
+			String[] texts = expressions.clone();
+			Expression[] functions = new Expression[texts.length];
+			for (int f = 0; f < functions.length; f++) {
+				functions[f] = parse(texts[f], minX, maxX);
+			}
+			String key = plotKey(functions, minX, maxX, fixedStepResolution(minX, maxX));
+			PlotSnapshot plot = cachedPlot(key, texts, functions);
+			if (plot == null) {
+				plot = sampleUniform(request, texts, functions, minX, maxX);
+				cachePlot(key, plot);
+			}
+			publish(request, plot);
+		} finally {
+			end(request);
+		}
+	}
+	
+	/**
+	 * Samples the interval [minX, maxX] at fixed steps, from minX.
+	 */
+	private PlotSnapshot sampleUniform(PlotRequest request, String[] texts, Expression[] functions, 
+			double minX, double maxX) throws ExpressionException {
+		CompiledFunctionSet set = CompiledFunctionSet.of(functions);
+		double xStep = new PrecisionLevel(minX, maxX).xStep;
+		int sampleCount = sampleCount(minX, maxX, xStep);
+		double[] xs = new double[sampleCount];
+		double[][] ys = new double[functions.length][sampleCount];
+		request.addWork(sampleCount);
+		if (listener == null) {
+			for (int i = 0; i < sampleCount; i++) {
+				xs[i] = minX + i * xStep;
+			}
+			evaluateAll(request, set, xs, ys, sampleCount);
+		} else {
+			samplePasses(request, texts, functions, set, minX, maxX, xStep, ys, sampleCount);
+		}
+		
+		return new PlotSnapshot(texts, functions, xStep, uniformSeries(minX, xStep, ys, sampleCount, 1), 
+				minX, maxX, true);
+	}
+	
+	/**
+	 * 
+	 * @param minX
+	 * @param xStep
+	 * @param ys The values of the samples of each function.
+	 * @param count Number of samples.
+	 * @param stride Takes only one sample every stride.
+	 * @return A series for each function, with the samples 0, stride, 2 * stride...
+	 */
+	private static PlotSeries[] uniformSeries(double minX, double xStep, double[][] ys, int count, int stride) {
+		PlotSeries[] series = new PlotSeries[ys.length];
+		for (int f = 0; f < ys.length; f++) {
+			// The samples are uniform, and the plot bounds make single precision enough
+			series[f] = PlotSeries.uniform(minX, stride * xStep, (count - 1) / stride + 1, true);
+			for (int i = 0; i < count; i += stride) {
+				series[f].add(ys[f][i]);
+			}
+		}
+		return series;
+	}
+	
+	/**
+	 * Evaluates the samples of the fixed step in passes, publishing a preview after each one
+	 * but the last. The first pass takes one sample every "stride" (about PREVIEW_SAMPLES in total), 
+	 * and each of the next ones halves the stride, evaluating the samples in the middle of 
+	 * the ones already taken.
+	 * 
+	 * @param ys Receives the values of each function for the sample i = 0..count - 1, 
+	 * at the x minX + i * xStep.
+	 */
+	private void samplePasses(PlotRequest request, String[] texts, Expression[] functions, 
+			CompiledFunctionSet set, double minX, double maxX, double xStep, double[][] ys, int count) {
+		int stride = Integer.highestOneBit(Math.max(1, (count - 1) / PREVIEW_SAMPLES));
+		// The largest pass is the first one when there are few samples (stride 1: all of them),
+		// or else the last one (half of them)
+		double[] passXs = new double[Math.max((count - 1) / stride + 1, count / 2 + 1)];
+		double[][] passYs = new double[ys.length][passXs.length];
+		
+		// Samples 0, stride, 2 * stride... and then the odd multiples of each smaller stride
+		int first = 0;
+		int step = stride;
+		while (true) {
+			int n = 0;
+			for (int i = first; i < count; i += step) {
+				passXs[n++] = minX + i * xStep;
+			}
+			evaluateAll(request, set, passXs, passYs, n);
+			for (int f = 0; f < ys.length; f++) {
+				for (int i = first, k = 0; i < count; i += step, k++) {
+					ys[f][i] = passYs[f][k];
+				}
+			}
+			
+			if (stride == 1) {
+				return;
+			}
+			PlotSeries[] preview = uniformSeries(minX, xStep, ys, count, stride);
+			publish(request, new PlotSnapshot(texts, functions, 0.0, preview, minX, maxX, false));
+			
+			stride >>= 1;
+			first = stride;
+			step = 2 * stride;
+		}
+	}
+	
+	/**
+	 * Moves the plot of the current functions to a new interval, sampled at fixed steps
+	 * (like {@link #updateFunction(String, double, double)}).
+	 * <br /><br />
+	 * The new samples are placed on the same lattice as the current ones (with the step
+	 * of the new interval), so the samples still inside the new interval are kept, and only
+	 * the newly exposed ones are evaluated. When the step changes, the current samples are
+	 * decimated (larger step) or refined (smaller step, evaluating only the samples between them).
+	 * If the current plot was not sampled at fixed steps, the whole interval is sampled.
+	 * Nothing is sampled if the plot of the new interval is cached.
+	 * 
+	 * @param minX
+	 * @param maxX
+	 * @return Number of samples evaluated.
+	 * @throws ExpressionException If the interval is not valid.
+	 * @throws IllegalStateException If no function was plotted.
+	 * @throws java.util.concurrent.CancellationException If the plot was cancelled.
+	 */
+	public int updateViewport(double minX, double maxX) throws ExpressionException {
+		PlotRequest request = begin();
+		try {
+			PlotSnapshot old = current;
+			if (old.getFunctionCount() == 0) {
+				throw new IllegalStateException("No function was plotted");
+			}
+			checkInterval(minX, maxX);
+			
+			// The key tells apart the plots whose samples are not placed on the lattice of minX
+			Lattice lattice = new Lattice(old, minX, maxX);
+			String key = plotKey(old.getFunctions(), minX, maxX, lattice.resolution(minX));
+			PlotSnapshot plot = cachedPlot(key, old.getFunctionTexts(), old.getFunctions());
+			if (plot == null) {
+				plot = resample(request, old, lattice, minX, maxX);
+				cachePlot(key, plot);
+			}
+			publish(request, plot);
+			return (int) request.getWork();
+		} finally {
+			end(request);
+		}
+	}
+	
+	/**
+	 * Samples the interval [minX, maxX] at fixed steps, reusing the samples of a plot of
+	 * the same functions (see {@link #updateViewport(double, double)}). All the functions
+	 * are sampled on the same lattice, so the missing samples are the same for all of them.
+	 */
+	private PlotSnapshot resample(PlotRequest request, PlotSnapshot old, Lattice lattice, 
+			double minX, double maxX) throws ExpressionException {
+		if (lattice.ratio == 0) {
+			return sampleUniform(request, old.getFunctionTexts(), old.getFunctions(), minX, maxX);
+		}
+		double xStep = lattice.xStep;
+		int ratio = lattice.ratio;
+		double latticeX = lattice.originX;
+		long first = lattice.first;
+		long last = lattice.last;
+		PlotSeries oldSeries = old.getSeries();
+		int functionCount = old.getFunctionCount();
+		
+		/*
+		 * The sample k of the new lattice is the sample k * ratio of the current one, if the step
+		 * grows, or the sample k / ratio, if the step shrinks and k is a multiple of the ratio.
+		 */
+		int sampleCount = (int) (last - first + 1);
+		double[][] ys = new double[functionCount][sampleCount];
+		int[] missing = new int[sampleCount];
+		double[] missingXs = new double[sampleCount];
+		int missingCount = 0;
+		for (int i = 0; i < sampleCount; i++) {
+			long k = first + i;
+			long j = -1;
+			if (xStep >= old.getXStep()) {
+				j = k * ratio;
+			} else if (k % ratio == 0) {
+				j = k / ratio;
+			}
+			if (j >= 0 && j < oldSeries.size()) {
+				for (int f = 0; f < functionCount; f++) {
+					ys[f][i] = old.getSeries(f).getY((int) j);
+				}
+			} else {
+				missing[missingCount] = i;
+				missingXs[missingCount] = latticeX + k * xStep;
+				missingCount++;
+			}
+		}
+		
+		double[][] missingYs = new double[functionCount][missingCount];
+		request.addWork(missingCount);
+		evaluateAll(request, CompiledFunctionSet.of(old.getFunctions()), missingXs, missingYs, missingCount);
+		for (int f = 0; f < functionCount; f++) {
+			for (int m = 0; m < missingCount; m++) {
+				ys[f][missing[m]] = missingYs[f][m];
+			}
+		}
+		
+		PlotSeries[] series = uniformSeries(lattice.firstX(), xStep, ys, sampleCount, 1);
+		return new PlotSnapshot(old.getFunctionTexts(), old.getFunctions(), xStep, series, minX, maxX, true);
+	}
+	
+	/**
+	 * Where the samples of a new interval are placed by resample: on the
+	 * lattice of the current samples, when one of the steps is a multiple of the other one.
+	 */
+	private static final class Lattice {
+		final double xStep;
+		
+		/**
+		 * How many times one of the steps fits in the other one, or 0 if the current 
+		 * samples cannot be reused.
+		 */
+		final int ratio;
+		
+		/**
+		 * The x of the sample 0 of the lattice.
+		 */
+		final double originX;
+		
+		/**
+		 * The samples of the lattice in the interval.
+		 */
+		final long first;
+		final long last;
+		
+		Lattice(PlotSnapshot old, double minX, double maxX) {
+			xStep = new PrecisionLevel(minX, maxX).xStep;
+			int stepRatio = 0;
+			PlotSeries oldSeries = old.getSeries();
+			if (old.getXStep() > 0.0 && !oldSeries.isEmpty()) {
+				stepRatio = stepRatio(old.getXStep(), xStep);
+			}
+			originX = stepRatio == 0 ? minX : oldSeries.getX(0);
+			first = (long) Math.ceil((minX - originX) / xStep - LATTICE_TOLERANCE);
+			last = (long) Math.floor((maxX - originX) / xStep + LATTICE_TOLERANCE);
+			ratio = last < first ? 0 : stepRatio;
+		}
+		
+		double firstX() {
+			return originX + first * xStep;
+		}
+		
+		/**
+		 * 
+		 * @param minX
+		 * @return Describes the sampling, for the key of the plot on the cache: plots whose
+		 * samples do not start at minX (give or take the tolerance) are told apart by the
+		 * x of their first sample.
+		 */
+		String resolution(double minX) {
+			if (ratio == 0 || Math.abs(firstX() - minX) <= LATTICE_TOLERANCE * xStep) {
+				return "step " + xStep;
+			}
+			return "step " + xStep + " from " + firstX();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param oldStep
+	 * @param newStep
+	 * @return How many times one of the steps fits in the other one, or 0 if that is not 
+	 * an integer (the lattices of the steps do not coincide).
+	 */
+	private static int stepRatio(double oldStep, double newStep) {
+		double ratio = Math.max(oldStep, newStep) / Math.min(oldStep, newStep);
+		long rounded = Math.round(ratio);
+		if (Math.abs(ratio - rounded) > LATTICE_TOLERANCE || rounded > Integer.MAX_VALUE) {
+			return 0;
+		}
+		return (int) rounded;
+	}
+	
+	/**
+	 * Samples a function at fixed steps into a {@link SampleStore}, for intervals sampled
+	 * with far more points than a plot could hold. The samples are streamed to the file
+	 * (see {@link #stream(String, double, double, long, SampleSink)}), so the heap taken 
+	 * does not depend on their number. The values are stored as computed: they are 
+	 * not clamped, and the interval is not limited to the bounds of the plots.
+	 * <br /><br />
+	 * The sampling is independent of the plots: it does not cancel the plot in progress, 
+	 * it is not cancelled by the later ones, and its progress is not part of 
+	 * {@link #getProgress()}. The current plot does not change.
+	 * 
+	 * @param expression
+	 * @param minX The x of the first sample.
+	 * @param maxX The x of the last sample.
+	 * @param sampleCount At least 2.
+	 * @param file Replaced if it exists.
+	 * @param singlePrecision Whether the values are stored as floats.
+	 * @return The finished store, opened read-only.
+	 * @throws ExpressionException
+	 * @throws IOException
+	 * @throws java.util.concurrent.CancellationException If the thread was interrupted.
+	 */
+	public SampleStore sampleToFile(String expression, double minX, double maxX, long sampleCount,
+			File file, boolean singlePrecision) throws ExpressionException, IOException {
+		return sampleToFile(expression, minX, maxX, sampleCount, file, singlePrecision, new PlotRequest());
+	}
+	
+	/**
+	 * Samples a function at fixed steps into a {@link SampleStore}, like 
+	 * {@link #sampleToFile(String, double, double, long, File, boolean)}, tracking the 
+	 * sampling with a request: another thread may follow its progress, or cancel it, 
+	 * in which case the file is deleted.
+	 * 
+	 * @param expression
+	 * @param minX The x of the first sample.
+	 * @param maxX The x of the last sample.
+	 * @param sampleCount At least 2.
+	 * @param file Replaced if it exists.
+	 * @param singlePrecision Whether the values are stored as floats.
+	 * @param request A new request, only used for this sampling.
+	 * @return The finished store, opened read-only.
+	 * @throws ExpressionException
+	 * @throws IOException
+	 * @throws java.util.concurrent.CancellationException If the sampling was cancelled.
+	 */
+	public SampleStore sampleToFile(String expression, double minX, double maxX, long sampleCount,
+			File file, boolean singlePrecision, PlotRequest request) throws ExpressionException, IOException {
+		checkStream(minX, maxX, sampleCount);
+		request.checkCancelled();
+		CompiledFunctionSet function = CompiledFunctionSet.of(parse(expression));
+		double xStep = (maxX - minX) / (sampleCount - 1);
+		
+		final SampleStore store = SampleStore.create(file, minX, xStep, singlePrecision);
+		final IOException[] error = new IOException[1];
+		boolean finished = false;
+		try {
+			stream(request, function, minX, xStep, sampleCount, new SampleSink() {
+				@Override
+				public boolean accept(double[] xs, double[] ys, int length) {
+					try {
+						store.append(ys, 0, length);
+						return true;
+					} catch (IOException e) {
+						error[0] = e;
+						return false;
+					}
+				}
+			});
+			if (error[0] != null) {
+				throw error[0];
+			}
+			finished = true;
+		} finally {
+			if (!finished) {
+				try {
+					store.close();
+				} catch (IOException e) {
+					// The file is deleted anyway, and the exception (or cancellation) 
+					// that stopped the sampling is the one to report
+				}
+				file.delete();
+			}
+		}
+		store.close();
+		return SampleStore.open(file);
+	}
+	
+	/**
+	 * Samples a function at fixed steps, handing the samples to a sink as they are evaluated,
+	 * a block at a time, instead of keeping them: the memory taken does not depend on the
+	 * number of samples. The values are given as computed: they are not clamped, and the
+	 * interval is not limited to the bounds of the plots.
+	 * <br /><br />
+	 * With an executor, the blocks are evaluated in parallel, a few blocks per thread ahead of
+	 * the sink, and handed to it in order, on the calling thread. Otherwise, each block is 
+	 * evaluated after the sink accepted the previous one.
+	 * <br /><br />
+	 * The sampling is independent of the plots: it does not cancel the plot in progress, 
+	 * it is not cancelled by the later ones, and its progress is not part of 
+	 * {@link #getProgress()}. The current plot does not change.
+	 * 
+	 * @param expression
+	 * @param minX The x of the first sample.
+	 * @param maxX The x of the last sample.
+	 * @param sampleCount At least 2.
+	 * @param sink
+	 * @return Number of samples handed to the sink: less than sampleCount if it stopped the sampling.
+	 * @throws ExpressionException
+	 * @throws java.util.concurrent.CancellationException If the thread was interrupted.
+	 */
+	public long stream(String expression, double minX, double maxX, long sampleCount, SampleSink sink)
+			throws ExpressionException {
+		return stream(expression, minX, maxX, sampleCount, sink, new PlotRequest());
+	}
+	
+	/**
+	 * Samples a function at fixed steps, handing the samples to a sink, like 
+	 * {@link #stream(String, double, double, long, SampleSink)}, tracking the sampling 
+	 * with a request: another thread may follow its progress, or cancel it.
+	 * 
+	 * @param expression
+	 * @param minX The x of the first sample.
+	 * @param maxX The x of the last sample.
+	 * @param sampleCount At least 2.
+	 * @param sink
+	 * @param request A new request, only used for this sampling.
+	 * @return Number of samples handed to the sink: less than sampleCount if it stopped the sampling.
+	 * @throws ExpressionException
+	 * @throws java.util.concurrent.CancellationException If the sampling was cancelled.
+	 */
+	public long stream(String expression, double minX, double maxX, long sampleCount, SampleSink sink,
+			PlotRequest request) throws ExpressionException {
+		checkStream(minX, maxX, sampleCount);
+		request.checkCancelled();
+		CompiledFunctionSet function = CompiledFunctionSet.of(parse(expression));
+		return stream(request, function, minX, (maxX - minX) / (sampleCount - 1), sampleCount, sink);
+	}
+	
+	private static void checkStream(double minX, double maxX, long sampleCount) throws ExpressionException {
+		if (sampleCount < 2) {
+			throw new IllegalArgumentException("Invalid number of samples: " + sampleCount);
+		}
+		if (!(minX < maxX)) {
+			throw new ExpressionException("Invalid X interval. Min must be smaller than Max");
+		}
+	}
+	
+	/**
+	 * Streams the samples minX + i * xStep, i = 0..sampleCount - 1.
+	 * @return Number of samples handed to the sink.
+	 */
+	private long stream(PlotRequest request, CompiledFunctionSet function, double minX, double xStep,
+			long sampleCount, SampleSink sink) {
+		request.addWork(sampleCount);
+		long delivered = 0;
+		if (executor == null) {
+			StreamBlock block = new StreamBlock(request, function, minX, xStep);
+			for (long first = 0; first < sampleCount; first += STREAM_BLOCK_SAMPLES) {
+				block.at(first, (int) Math.min(STREAM_BLOCK_SAMPLES, sampleCount - first)).call();
+				delivered += block.length;
+				if (!sink.accept(block.xs, block.ys[0], block.length)) {
+					break;
+				}
+			}
+			return delivered;
+		}
+		
+		// The blocks are handed to the sink in the order they were submitted; each delivered 
+		// block is reused for the next one to be submitted
+		Queue<Future<StreamBlock>> pending = new LinkedList<Future<StreamBlock>>();
+		long next = 0;
+		try {
+			for (int b = 0; b < parallelism * STREAM_BLOCKS_AHEAD && next < sampleCount; b++) {
+				StreamBlock block = new StreamBlock(request, function.copy(), minX, xStep);
+				pending.add(executor.submit(block.at(next, (int) Math.min(STREAM_BLOCK_SAMPLES, sampleCount - next))));
+				next += STREAM_BLOCK_SAMPLES;
+			}
+			while (!pending.isEmpty()) {
+				StreamBlock block = await(pending.remove());
+				delivered += block.length;
+				if (!sink.accept(block.xs, block.ys[0], block.length)) {
+					break;
+				}
+				if (next < sampleCount) {
+					pending.add(executor.submit(block.at(next, (int) Math.min(STREAM_BLOCK_SAMPLES, sampleCount - next))));
+					next += STREAM_BLOCK_SAMPLES;
+				}
+			}
+			return delivered;
+		} finally {
+			for (Future<StreamBlock> future : pending) {
+				future.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * A block of a streaming sampling, with its own function instance and arrays.
+	 */
+	private static final class StreamBlock implements Callable<StreamBlock> {
+		final PlotRequest request;
+		final CompiledFunctionSet function;
+		final double minX;
+		final double xStep;
+		final double[] xs = new double[STREAM_BLOCK_SAMPLES];
+		final double[][] ys = new double[1][STREAM_BLOCK_SAMPLES];
+		long first;
+		int length;
+		
+		StreamBlock(PlotRequest request, CompiledFunctionSet function, double minX, double xStep) {
+			this.request = request;
+			this.function = function;
+			this.minX = minX;
+			this.xStep = xStep;
+		}
+		
+		/**
+		 * Moves the block to the samples [first, first + length).
+		 */
+		StreamBlock at(long first, int length) {
+			this.first = first;
+			this.length = length;
+			return this;
+		}
+		
+		@Override
+		public StreamBlock call() {
+			for (int i = 0; i < length; i++) {
+				xs[i] = minX + (first + i) * xStep;
+			}
+			evaluate(request, function, xs, ys, 0, length);
+			return this;
+		}
+	}
+	
+	/**
+	 * Evaluates the first count samples, in parallel chunks if there is an executor.
+	 * The work must have been added to the request.
+	 * The values are ready to be plotted: clamped, or NaN for the gaps.
+	 * 
+	 * @param ys Receive the values of each function of the set.
+	 */
+	private void evaluateAll(final PlotRequest request, CompiledFunctionSet set, 
+			final double[] xs, final double[][] ys, int count) {
+		int[] bounds = chunkBounds(count, MIN_CHUNK_SAMPLES);
+		List<Callable<Void>> chunks = new ArrayList<Callable<Void>>();
+		for (int c = 0; c < bounds.length - 1; c++) {
+			final int from = bounds[c];
+			final int to = bounds[c + 1];
+			final CompiledFunctionSet chunkFunctions = set.copy();
+			chunks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					evaluate(request, chunkFunctions, xs, ys, from, to);
+					return null;
+				}
+			});
+		}
+		run(chunks);
+		
+		for (double[] values : ys) {
+			for (int i = 0; i < count; i++) {
+				values[i] = isPlottable(values[i]) ? clamp(values[i]) : Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Plots a new Function, sampling the interval according to the size of the plot on screen:
+	 * a few samples per pixel where the curve is straight, more where it bends or jumps.
+	 * 
+	 * @param expression
+	 * @param minX
+	 * @param maxX
+	 * @param widthPixels Size of the plotting area.
+	 * @param heightPixels
+	 * @throws ExpressionException
+	 * @throws java.util.concurrent.CancellationException If the plot was cancelled.
+	 */
+	public void updateFunction(String expression, double minX, double maxX, 
+			int widthPixels, int heightPixels) throws ExpressionException {
+		if (widthPixels < 1 || heightPixels < 1) {
+			throw new IllegalArgumentException("Invalid plot size: " + widthPixels + "x" + heightPixels);
+		}
+		PlotRequest request = begin();
+		try {
+			String[] texts = {expression};
+			Expression[] functions = {parse(expression, minX, maxX)};
+			String key = plotKey(functions, minX, maxX, "pixels " + widthPixels + "x" + heightPixels);
+			PlotSnapshot plot = cachedPlot(key, texts, functions);
+			if (plot == null) {
+				plot = sampleAdaptive(request, texts, functions, minX, maxX, widthPixels, heightPixels);
+				cachePlot(key, plot);
+			}
+			publish(request, plot);
+		} finally {
+			end(request);
+		}
+	}
+	
+	private PlotSnapshot sampleAdaptive(PlotRequest request, String[] texts, Expression[] functions, 
+			double minX, double maxX, int widthPixels, int heightPixels) throws ExpressionException {
+		Expression function = functions[0];
+		// The plot always includes the origin (see PlotSnapshot)
+		double plotWidth = Math.max(maxX, 0.0) - Math.min(minX, 0.0);
+		final AdaptiveSampler.Grid grid = new AdaptiveSampler.Grid(minX, maxX, plotWidth / widthPixels);
+		// Work: the samples of the coarse pass, and then its intervals
+		request.addWork(grid.size() + grid.size() - 1);
+		
+		// The coarse pass is too short to be worth splitting
+		evaluate(request, CompiledFunctionSet.of(function), grid.xs, new double[][] {grid.ys}, 0, grid.size());
+		grid.setScale(heightPixels, MAX_ALLOWED_VALUE);
+		if (listener != null) {
+			PlotSeries preview = new PlotSeries(grid.size());
+			addSamples(preview, grid.xs, grid.ys, 0, grid.size());
+			publish(request, new PlotSnapshot(texts, functions, 0.0, new PlotSeries[] {preview}, 
+					minX, maxX, false));
+		}
+		
+		// Each chunk refines a range of intervals; consecutive chunks share their end point
+		int[] bounds = chunkBounds(grid.size() - 1, MIN_CHUNK_INTERVALS);
+		List<Callable<AdaptiveSampler>> chunks = new ArrayList<Callable<AdaptiveSampler>>();
+		for (int c = 0; c < bounds.length - 1; c++) {
+			final int from = bounds[c];
+			final int to = bounds[c + 1];
+			final AdaptiveSampler sampler = new AdaptiveSampler(function.toFunction(), MAX_ALLOWED_VALUE, request);
+			chunks.add(new Callable<AdaptiveSampler>() {
+				@Override
+				public AdaptiveSampler call() {
+					sampler.refine(grid, from, to);
+					return sampler;
+				}
+			});
+		}
+		
+		PlotSeries series = new PlotSeries();
+		List<AdaptiveSampler> results = run(chunks);
+		for (int c = 0; c < results.size(); c++) {
+			AdaptiveSampler sampler = results.get(c);
+			addSamples(series, sampler.xs(), sampler.ys(), c == 0 ? 0 : 1, sampler.size());
+		}
+		return new PlotSnapshot(texts, functions, 0.0, new PlotSeries[] {series}, minX, maxX, true);
+	}
+	
+	/**
+	 * Splits a number of items in chunks, one per task of the parallel evaluation.
+	 * @param count
+	 * @param minChunk Smallest number of items in a chunk.
+	 * @return The first item of each chunk, followed by count.
+	 */
+	private int[] chunkBounds(int count, int minChunk) {
+		int chunks = executor == null ? 1 : parallelism * CHUNKS_PER_THREAD;
+		chunks = Math.max(1, Math.min(chunks, count / minChunk));
+		int[] bounds = new int[chunks + 1];
+		for (int c = 0; c <= chunks; c++) {
+			bounds[c] = (int) ((long) count * c / chunks);
+		}
+		return bounds;
+	}
+	
+	/**
+	 * Runs the tasks on the executor (or on this thread, if there is none) and waits for them.
+	 * @param tasks
+	 * @return The results of the tasks, in the same order.
+	 */
+	private <T> List<T> run(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if (executor == null || tasks.size() == 1) {
+				for (Callable<T> task : tasks) {
+					results.add(task.call());
+				}
+			} else {
+				for (Future<T> future : executor.invokeAll(tasks)) {
+					results.add(await(future));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while plotting");
+		} catch (Exception e) {
+			throw propagate(e);
+		}
+		return results;
+	}
+	
+	/**
+	 * Waits for a task submitted to the executor.
+	 * @param future
+	 * @return Its result.
+	 */
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while plotting");
+		} catch (ExecutionException e) {
+			throw propagate(e.getCause());
+		}
+	}
+	
+	/**
+	 * Rethrows an unchecked exception raised by a task (for example, by a user function).
+	 */
+	private static RuntimeException propagate(Throwable e) {
+		if (e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		}
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		return new IllegalStateException(e);
+	}
+	
+	/**
+	 * Evaluates a range of samples. They go to the functions in blocks, so that they can process
+	 * several values in a single call. The cancellation of the request is checked between blocks.
+	 * 
+	 * @param ys Receive the values of each function of the set.
+	 */
+	private static void evaluate(PlotRequest request, CompiledFunctionSet functions, 
+			double[] xs, double[][] ys, int from, int to) {
+		request.checkCancelled();
+		if (from == 0 && to - from <= SAMPLE_BLOCK_SIZE) {
+			functions.applyAsDouble(xs, ys, to);
+			request.advance(to);
+			return;
+		}
+		double[] blockXs = new double[SAMPLE_BLOCK_SIZE];
+		double[][] blockYs = new double[ys.length][SAMPLE_BLOCK_SIZE];
+		for (int start = from; start < to; start += SAMPLE_BLOCK_SIZE) {
+			int n = Math.min(SAMPLE_BLOCK_SIZE, to - start);
+			System.arraycopy(xs, start, blockXs, 0, n);
+			functions.applyAsDouble(blockXs, blockYs, n);
+			for (int f = 0; f < ys.length; f++) {
+				System.arraycopy(blockYs[f], 0, ys[f], start, n);
+			}
+			request.advance(n);
+			request.checkCancelled();
+		}
+	}
+
+	/**
+	 * Validates the parameters and parses the expression.
+	 */
+	private static Expression parse(String expression, double minX, double maxX) 
+			throws ExpressionException {
+		Expression parsed = parse(expression);
+		checkInterval(minX, maxX);
+		return parsed;
+	}
+
+	private static Expression parse(String expression) throws ExpressionException {
 		if (expression == null || expression.trim().equals("")) {
 			throw new ExpressionException("Expression cannot be empty");
 		}
+		return expressionCache.parse(expression);
+	}
+
+	private static void checkInterval(double minX, double maxX) throws ExpressionException {
 		if (minX >= maxX) {
 			throw new ExpressionException("Invalid X interval. Min must be smaller than Max");
 		}
 		if (Math.abs(minX) > MAX_ALLOWED_VALUE || Math.abs(maxX) > MAX_ALLOWED_VALUE) {
 			throw new ExpressionException("The absolute value for Min or Max must be less than " + MAX_ALLOWED_VALUE);
 		}
-		
-		this.currentFunction = Expression.parse(expression);
-		this.currentFunctionText = expression;
-		
-		this.currentFunctionPairs = null; // make the old data eligible for GC
+	}
 
-		/*
-		 * Plots the function.
-		 */
-		PrecisionLevel precisionX = new PrecisionLevel(minX, maxX);
-		List<Pair> pairs = new ArrayList<Pair>();
-		double curMinY = 0.0;
-		double curMaxY = 0.0;
-
-		double x = minX;
-		while(x <= maxX) {
-			double y = currentFunction.evaluate(x);
+	/**
+	 * Adds the samples from the positions [from, to) that are part of the function to the plot. 
+	 * Each run of samples that are not is replaced by a single gap.
+	 */
+	private static void addSamples(PlotSeries series, double[] xs, double[] ys, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double y = ys[i];
 			
-			// Infinite is a common result when the operation is not valid
-			// for the current x (For example, 1/x for x=0).
-			// These values should be ignored as they are not part of the function.
-			if (!Double.isNaN(y) && !Double.isInfinite(y)) {
-				
-				if (y < -MAX_ALLOWED_VALUE) y = -MAX_ALLOWED_VALUE;
-				if (y > MAX_ALLOWED_VALUE) y = MAX_ALLOWED_VALUE;
-				
-				if (y < curMinY) curMinY = y;
-				if (y > curMaxY) curMaxY = y;
-				pairs.add(new Pair(x, y));
+			if (isPlottable(y)) {
+				series.add(xs[i], clamp(y));
+			} else {
+				series.addGap(xs[i]);
 			}
-			
-			x = x + precisionX.xStep;
 		}
-		
-		this.currentFunctionPairs = pairs;
-		this.minX = minX <= 0.0 ? minX : 0.0;
-		this.maxX = maxX >= 0.0 ? maxX : 0.0;
-		this.minY = curMinY;
-		this.maxY = curMaxY;
-		
-		this.currentPrecisionX = new PrecisionLevel(this.minX, this.maxX); // Reassign precision after the adjustement above 
-		this.currentPrecisionY = new PrecisionLevel(this.minY, this.maxY);
 	}
 
+	/**
+	 * Infinite is a common result when the operation is not valid
+	 * for the current x (For example, 1/x for x=0).
+	 * These values should be ignored as they are not part of the function.
+	 */
+	private static boolean isPlottable(double y) {
+		return !Double.isNaN(y) && !Double.isInfinite(y);
+	}
+
+	private static double clamp(double y) {
+		if (y < -MAX_ALLOWED_VALUE) return -MAX_ALLOWED_VALUE;
+		if (y > MAX_ALLOWED_VALUE) return MAX_ALLOWED_VALUE;
+		return y;
+	}
+
+	/**
+	 * Number of samples taken from the interval [minX, maxX], at the given step.
+	 * The sample "i" is located at minX + i * xStep.
+	 * @param minX
+	 * @param maxX
+	 * @param xStep
+	 * @return
+	 */
+	private static int sampleCount(double minX, double maxX, double xStep) {
+		int count = (int) Math.floor((maxX - minX) / xStep) + 1;
+		// Rounding errors could place the last sample slightly past the end
+		if (minX + (count - 1) * xStep > maxX) {
+			count--;
+		}
+		return count;
+	}
+
+	/*
+	 * Shortcuts to the current snapshot. Reading several of them may mix two different plots.
+	 */
+	
 	public double currentMinX() {
-		return this.minX;
+		return current.getMinX();
 	}
 	
 	public double currentMaxX() {
-		return this.maxX;
+		return current.getMaxX();
 	}
 	
 	public double currentMinY() {
-		return this.minY;
+		return current.getMinY();
 	}
 	
 	public double currentMaxY() {
-		return this.maxY;
+		return current.getMaxY();
 	}
 	
 	public double scaleIntervalX() {
-		return this.currentPrecisionX.scaleInterval;
+		return current.getScaleIntervalX();
 	}
 	
 	public double scaleIntervalY() {
-		return this.currentPrecisionY.scaleInterval;
+		return current.getScaleIntervalY();
 	}
 	
 	public String getCurrentFunctionText() {
-		return currentFunctionText;
+		return current.getFunctionText();
 	}
 
 
@@ -161,7 +1204,7 @@ public class PlotEngine {
 		}
 		
 		try {
-			Expression exp = Expression.parse(text);
+			Expression exp = expressionCache.parse(text);
 			return exp.evaluate();
 		} catch (ExpressionException e) {
 			// The value is surely an invalid number!
@@ -174,12 +1217,13 @@ public class PlotEngine {
 	 * Holds the data that correspond to the precision level of the reqested function.
 	 * 
 	 * The precision level is determined by the plot interval (axis length). Larger intervals
-	 * require smaller precision.
+	 * require smaller precision. The step is only used by the fixed step sampling; the 
+	 * sampling driven by the plot size is done by the {@link AdaptiveSampler}.
 	 * 
 	 * @author Rodrigo Gomes
 	 *
 	 */
-	private static class PrecisionLevel {
+	static class PrecisionLevel {
 		final double xStep;
 		final double scaleInterval;
 		
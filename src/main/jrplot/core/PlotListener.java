@@ -0,0 +1,18 @@
+package jrplot.core;
+
+/**
+ * Receives the plots published by a {@link PlotEngine}, including the previews of
+ * a plot still in progress.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public interface PlotListener {
+
+	/**
+	 * Called on the thread computing the plot, after the current plot of the engine changed.
+	 *
+	 * @param complete False if the current plot is a preview, to be replaced by a finer one.
+	 */
+	void plotUpdated(boolean complete);
+}
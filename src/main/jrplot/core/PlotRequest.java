@@ -0,0 +1,91 @@
+package jrplot.core;
+
+import java.io.File;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A plot being computed by a {@link PlotEngine}: its progress, and whether it was cancelled.
+ * The plots are tracked by the engine itself; the samplings that are not plotted (see
+ * {@link PlotEngine#stream(String, double, double, long, SampleSink, PlotRequest)} and
+ * {@link PlotEngine#sampleToFile(String, double, double, long, File, boolean, PlotRequest)})
+ * are independent of them, and tracked with an instance created by the application,
+ * for a single sampling.
+ *
+ * The cancellation is cooperative: the threads evaluating the plot check it between blocks
+ * of samples (see {@link #checkCancelled()}), and give up by throwing a CancellationException.
+ * An interrupted thread gives up the same way.
+ *
+ * <br /><br />
+ * Thread safety: instances may be used by several threads at the same time.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class PlotRequest {
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Units of work (samples or intervals) of the plot, and how many of them are done.
+	 */
+	private volatile long total;
+	private final AtomicLong done = new AtomicLong();
+
+	/**
+	 * Makes the threads computing the request give up soon after.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 *
+	 * @throws CancellationException If the request was cancelled, or the thread interrupted.
+	 */
+	void checkCancelled() {
+		if (cancelled) {
+			throw new CancellationException("Plot cancelled");
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Interrupted while plotting");
+		}
+	}
+
+	/**
+	 * Adds work to the plot. Called only by the thread computing it.
+	 * @param units
+	 */
+	void addWork(long units) {
+		total += units;
+	}
+
+	/**
+	 *
+	 * @return Units of work added to the plot so far.
+	 */
+	long getWork() {
+		return total;
+	}
+
+	/**
+	 * Records finished work.
+	 * @param units
+	 */
+	void advance(long units) {
+		done.addAndGet(units);
+	}
+
+	/**
+	 *
+	 * @return Percentage of the work done, from 0 to 100.
+	 */
+	public int getProgress() {
+		long t = total;
+		return t == 0 ? 0 : (int) Math.min(100, done.get() * 100 / t);
+	}
+}
@@ -0,0 +1,281 @@
+package jrplot.core;
+
+import java.util.Arrays;
+
+/**
+ * Sequence of (x,y) samples of a plotted function, in increasing x.
+ *
+ * The coordinates are kept in two primitive arrays (structure of arrays), instead of
+ * one object per sample: 16 bytes per sample, read sequentially when painting.
+ * A sample with a NaN y is a gap: the curve is not defined there, and the samples around
+ * it must not be connected.
+ *
+ * <br /><br />
+ * Series sampled at a fixed step may be created as uniform (see
+ * {@link #uniform(double, double, int, boolean)}): the x of the sample i is computed as
+ * firstX + i * xStep, so only the y values are stored, optionally in single precision.
+ * With the values limited to the plot bounds, the rounding to float is far below the size
+ * of a pixel, and a sample takes 4 bytes.
+ *
+ * <br /><br />
+ * Thread safety: a series must not be modified while other threads read it. Read-only views
+ * (see {@link #readOnlyView()}) of a series that is no longer modified may be shared.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class PlotSeries {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * The x coordinates, or null if the series is uniform.
+	 */
+	private double[] xs;
+
+	/**
+	 * The y coordinates: one of them is null, depending on the precision.
+	 */
+	private double[] ys;
+	private float[] floatYs;
+
+	private int size;
+	private final double firstX;
+	private final double xStep;
+	private final boolean readOnly;
+
+	public PlotSeries() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 * @param capacity Number of samples the series can hold before growing.
+	 */
+	public PlotSeries(int capacity) {
+		this(new double[checkCapacity(capacity)], new double[capacity], null, 0, 0.0, 0.0, false);
+	}
+
+	private PlotSeries(double[] xs, double[] ys, float[] floatYs, int size, 
+			double firstX, double xStep, boolean readOnly) {
+		this.xs = xs;
+		this.ys = ys;
+		this.floatYs = floatYs;
+		this.size = size;
+		this.firstX = firstX;
+		this.xStep = xStep;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Creates a series whose samples are taken at a fixed step. Only the y values are stored.
+	 * 
+	 * @param firstX The x of the first sample.
+	 * @param xStep Distance between two consecutive samples.
+	 * @param capacity Number of samples the series can hold before growing.
+	 * @param singlePrecision Whether the y values are stored as floats.
+	 * @return
+	 */
+	public static PlotSeries uniform(double firstX, double xStep, int capacity, boolean singlePrecision) {
+		checkCapacity(capacity);
+		if (!(xStep > 0.0)) {
+			throw new IllegalArgumentException("Invalid step: " + xStep);
+		}
+		return new PlotSeries(null, singlePrecision ? null : new double[capacity], 
+				singlePrecision ? new float[capacity] : null, 0, firstX, xStep, false);
+	}
+
+	private static int checkCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		return capacity;
+	}
+
+	/**
+	 * Appends a sample.
+	 * @param x
+	 * @param y NaN for a gap.
+	 * @throws IllegalStateException If the series is uniform.
+	 */
+	public void add(double x, double y) {
+		if (xs == null) {
+			throw new IllegalStateException("The x of a uniform series is implicit");
+		}
+		ensureCapacity();
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	/**
+	 * Appends a sample to a uniform series, at the x following the last sample.
+	 * @param y NaN for a gap.
+	 * @throws IllegalStateException If the series is not uniform.
+	 */
+	public void add(double y) {
+		if (xs != null) {
+			throw new IllegalStateException("The series is not uniform");
+		}
+		ensureCapacity();
+		if (ys != null) {
+			ys[size] = y;
+		} else {
+			floatYs[size] = (float) y;
+		}
+		size++;
+	}
+
+	private void ensureCapacity() {
+		checkWritable();
+		if (size == capacity()) {
+			resize(Math.max(DEFAULT_CAPACITY, size + (size >> 1)));
+		}
+	}
+
+	private int capacity() {
+		return ys != null ? ys.length : floatYs.length;
+	}
+
+	/**
+	 *
+	 * @return Memory taken by the arrays of the series, in bytes.
+	 */
+	long estimateBytes() {
+		long perSample = (xs != null ? 8 : 0) + (ys != null ? 8 : 4);
+		return perSample * capacity();
+	}
+
+	private void resize(int capacity) {
+		if (xs != null) xs = Arrays.copyOf(xs, capacity);
+		if (ys != null) ys = Arrays.copyOf(ys, capacity);
+		if (floatYs != null) floatYs = Arrays.copyOf(floatYs, capacity);
+	}
+
+	/**
+	 * Appends a gap, unless the series is empty or already ends with one.
+	 * @param x
+	 * @throws IllegalStateException If the series is uniform.
+	 */
+	public void addGap(double x) {
+		if (size > 0 && !isGap(size - 1)) {
+			add(x, Double.NaN);
+		}
+	}
+
+	/**
+	 * Releases the capacity not used by the samples.
+	 */
+	public void trimToSize() {
+		checkWritable();
+		if (size < capacity()) {
+			resize(size);
+		}
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("Read-only series");
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * 
+	 * @return True if the x of the samples are implicit (see {@link #uniform(double, double, int, boolean)}). 
+	 */
+	public boolean isUniform() {
+		return xs == null;
+	}
+
+	/**
+	 * 
+	 * @return True if the y values are stored as floats.
+	 */
+	public boolean isSinglePrecision() {
+		return floatYs != null;
+	}
+
+	public double getX(int i) {
+		checkIndex(i);
+		return xs != null ? xs[i] : firstX + i * xStep;
+	}
+
+	public double getY(int i) {
+		checkIndex(i);
+		return ys != null ? ys[i] : floatYs[i];
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @return True if the sample i is a gap.
+	 */
+	public boolean isGap(int i) {
+		return Double.isNaN(getY(i));
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+		}
+	}
+
+	/**
+	 * Copies the x coordinates of a range of samples.
+	 * @param from First sample.
+	 * @param dest
+	 * @param destPos
+	 * @param length
+	 */
+	public void getXs(int from, double[] dest, int destPos, int length) {
+		checkRange(from, length);
+		if (xs != null) {
+			System.arraycopy(xs, from, dest, destPos, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				dest[destPos + i] = firstX + (from + i) * xStep;
+			}
+		}
+	}
+
+	/**
+	 * Copies the y coordinates of a range of samples.
+	 * @param from First sample.
+	 * @param dest
+	 * @param destPos
+	 * @param length
+	 */
+	public void getYs(int from, double[] dest, int destPos, int length) {
+		checkRange(from, length);
+		if (ys != null) {
+			System.arraycopy(ys, from, dest, destPos, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				dest[destPos + i] = floatYs[from + i];
+			}
+		}
+	}
+
+	private void checkRange(int from, int length) {
+		if (from < 0 || length < 0 || from + length > size) {
+			throw new IndexOutOfBoundsException("Range: " + from + "+" + length + ", size: " + size);
+		}
+	}
+
+	/**
+	 *
+	 * @return A read-only series with the current samples, sharing the arrays of this one.
+	 * Samples added later are not seen by the view.
+	 */
+	public PlotSeries readOnlyView() {
+		return readOnly ? this : new PlotSeries(xs, ys, floatYs, size, firstX, xStep, true);
+	}
+}
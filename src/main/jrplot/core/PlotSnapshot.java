@@ -0,0 +1,246 @@
+package jrplot.core;
+
+import jrplot.core.expression.Expression;
+
+/**
+ * A plot published by a {@link PlotEngine}: the functions, their samples, and the bounds and
+ * scale of the axes, that include every function and the origin.
+ *
+ * <br /><br />
+ * Thread safety: instances are immutable, and may be read by any thread. Renderers should
+ * take one snapshot (see {@link PlotEngine#getSnapshot()}) and read everything from it,
+ * so that a plot published meanwhile does not mix with the one being drawn.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class PlotSnapshot {
+
+	private final static PlotSeries EMPTY_SERIES = new PlotSeries(0).readOnlyView();
+	private final static SeriesPyramid EMPTY_PYRAMID = new SeriesPyramid(EMPTY_SERIES);
+
+	private final String[] functionTexts;
+	private final Expression[] functions;
+
+	/**
+	 * Step of the series, if it was sampled at fixed steps; 0.0 otherwise.
+	 */
+	private final double xStep;
+
+	/**
+	 * The samples of each function, and their levels of detail, built as they are needed.
+	 */
+	private final PlotSeries[] series;
+	private final SeriesPyramid[] pyramids;
+
+	private final double minX;
+	private final double maxX;
+	private final double minY;
+	private final double maxY;
+	private final double scaleIntervalX;
+	private final double scaleIntervalY;
+	private final boolean complete;
+
+	/**
+	 *
+	 * @param functionTexts
+	 * @param functions Empty for the empty plot.
+	 * @param xStep
+	 * @param series The samples of each function. Trimmed and wrapped in read-only views.
+	 * @param minX
+	 * @param maxX
+	 * @param complete False for a preview of a plot in progress.
+	 */
+	PlotSnapshot(String[] functionTexts, Expression[] functions, double xStep, PlotSeries[] series,
+			double minX, double maxX, boolean complete) {
+		double curMinY = 0.0;
+		double curMaxY = 0.0;
+		this.series = new PlotSeries[series.length];
+		this.pyramids = new SeriesPyramid[series.length];
+		for (int f = 0; f < series.length; f++) {
+			for (int i = 0; i < series[f].size(); i++) {
+				double y = series[f].getY(i);
+				if (y < curMinY) curMinY = y;
+				if (y > curMaxY) curMaxY = y;
+			}
+			series[f].trimToSize();
+			this.series[f] = series[f].readOnlyView();
+			this.pyramids[f] = new SeriesPyramid(this.series[f]);
+		}
+
+		this.functionTexts = functionTexts;
+		this.functions = functions;
+		this.xStep = xStep;
+		this.minX = minX <= 0.0 ? minX : 0.0;
+		this.maxX = maxX >= 0.0 ? maxX : 0.0;
+		this.minY = curMinY;
+		this.maxY = curMaxY;
+		this.complete = complete;
+
+		// The scale follows the bounds adjusted above
+		this.scaleIntervalX = new PlotEngine.PrecisionLevel(this.minX, this.maxX).scaleInterval;
+		this.scaleIntervalY = new PlotEngine.PrecisionLevel(this.minY, this.maxY).scaleInterval;
+	}
+
+	/**
+	 * A snapshot with the samples of another one, for functions equivalent to its ones 
+	 * (such as "2x" for "2 * x").
+	 */
+	private PlotSnapshot(PlotSnapshot plot, String[] functionTexts, Expression[] functions) {
+		this.functionTexts = functionTexts;
+		this.functions = functions;
+		this.xStep = plot.xStep;
+		this.series = plot.series;
+		this.pyramids = plot.pyramids;
+		this.minX = plot.minX;
+		this.maxX = plot.maxX;
+		this.minY = plot.minY;
+		this.maxY = plot.maxY;
+		this.scaleIntervalX = plot.scaleIntervalX;
+		this.scaleIntervalY = plot.scaleIntervalY;
+		this.complete = plot.complete;
+	}
+
+	/**
+	 *
+	 * @param functionTexts
+	 * @param functions Must be equivalent to the functions of this snapshot.
+	 * @return A snapshot of the same plot, with other texts for the functions. 
+	 * The samples and their levels of detail are shared.
+	 */
+	PlotSnapshot withFunctions(String[] functionTexts, Expression[] functions) {
+		return new PlotSnapshot(this, functionTexts, functions);
+	}
+
+	/**
+	 *
+	 * @return Memory taken by the samples, including their levels of detail once all 
+	 * of them are built (about 8 bytes per sample, see {@link SeriesPyramid}).
+	 */
+	long estimateBytes() {
+		long bytes = 0;
+		for (PlotSeries s : series) {
+			bytes += s.estimateBytes() + 8L * s.size();
+		}
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return The text of the plotted expressions, separated by "; ", or null if there is no function.
+	 */
+	public String getFunctionText() {
+		if (functionTexts.length == 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder(functionTexts[0]);
+		for (int f = 1; f < functionTexts.length; f++) {
+			sb.append("; ").append(functionTexts[f]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 *
+	 * @return Number of plotted functions: 0 for the empty plot.
+	 */
+	public int getFunctionCount() {
+		return functionTexts.length;
+	}
+
+	/**
+	 *
+	 * @param function Position of the function, from 0 to getFunctionCount() - 1.
+	 * @return The text of its expression.
+	 */
+	public String getFunctionText(int function) {
+		return functionTexts[function];
+	}
+
+	/**
+	 *
+	 * @return The plotted functions. Not copied.
+	 */
+	Expression[] getFunctions() {
+		return functions;
+	}
+
+	/**
+	 *
+	 * @return The texts of the plotted functions. Not copied.
+	 */
+	String[] getFunctionTexts() {
+		return functionTexts;
+	}
+
+	double getXStep() {
+		return xStep;
+	}
+
+	/**
+	 *
+	 * @return The samples of the first function (a read-only series), or an empty series 
+	 * if there is no function.
+	 */
+	public PlotSeries getSeries() {
+		return series.length == 0 ? EMPTY_SERIES : series[0];
+	}
+
+	/**
+	 *
+	 * @param function Position of the function, from 0 to getFunctionCount() - 1.
+	 * @return The samples of the function (a read-only series).
+	 */
+	public PlotSeries getSeries(int function) {
+		return series[function];
+	}
+
+	/**
+	 *
+	 * @return The levels of detail of the samples of the first function (see {@link #getSeries()}).
+	 */
+	public SeriesPyramid getPyramid() {
+		return series.length == 0 ? EMPTY_PYRAMID : pyramids[0];
+	}
+
+	/**
+	 *
+	 * @param function
+	 * @return The levels of detail of the samples of the function.
+	 */
+	public SeriesPyramid getPyramid(int function) {
+		return pyramids[function];
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	public double getScaleIntervalX() {
+		return scaleIntervalX;
+	}
+
+	public double getScaleIntervalY() {
+		return scaleIntervalY;
+	}
+
+	/**
+	 *
+	 * @return False if this is a preview of a plot still in progress.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+}
@@ -0,0 +1,26 @@
+package jrplot.core;
+
+/**
+ * Receives the samples of a streaming sampling (see 
+ * {@link PlotEngine#stream(String, double, double, long, SampleSink)}), block by block,
+ * in increasing x, as they are evaluated.
+ * 
+ * The sampling waits while the sink processes a block, so a slow sink slows it down 
+ * instead of making the samples pile up in memory.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public interface SampleSink {
+
+	/**
+	 * Called on the thread that started the sampling, once per block.
+	 * 
+	 * @param xs The x of the samples. Reused for the next blocks: must not be kept.
+	 * @param ys Their values, as computed (NaN or infinite where the function is not defined). 
+	 * Reused for the next blocks: must not be kept.
+	 * @param length Number of samples of the block, from position 0.
+	 * @return False to stop the sampling.
+	 */
+	boolean accept(double[] xs, double[] ys, int length);
+}
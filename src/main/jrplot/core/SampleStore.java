@@ -0,0 +1,518 @@
+package jrplot.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Samples taken at a fixed step, stored on a memory-mapped file instead of the heap, for
+ * intervals sampled with far more points than a {@link PlotSeries} could hold.
+ *
+ * <br /><br />
+ * The file has a header of {@link #HEADER_BYTES} bytes, followed by the y values, big-endian,
+ * as doubles or floats (the x of the sample i is firstX + i * xStep, as in a uniform series).
+ * The values are mapped in segments of a fixed size, one at a time as the store grows, so
+ * the heap taken by a store does not depend on its number of samples. The header keeps
+ * the number of samples and a CRC32 checksum of their bytes, checked by {@link #verify()},
+ * and a checksum of its own, checked when the file is opened.
+ *
+ * <br /><br />
+ * A store is created empty (see {@link #create(File, double, double, boolean)}), filled with
+ * {@link #append(double[], int, int)} and finished with {@link #close()}, which writes the header.
+ * Finished files are opened read-only with {@link #open(File)}. The samples may be read
+ * without copying them: through the mapped segments ({@link #segment(int)}), or sent to
+ * a channel by the file system ({@link #transferTo(WritableByteChannel)}).
+ *
+ * <br /><br />
+ * Thread safety: a store being written must be confined to one thread. The read methods of
+ * an opened store may be used by several threads at the same time.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class SampleStore {
+
+	public static final int HEADER_BYTES = 64;
+
+	/**
+	 * Size of the mapped segments of the new stores: a few of them fit in the address space
+	 * of any JVM, and the samples of a whole plot fit in one.
+	 */
+	public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+	private static final int MAGIC = 0x4A525053; // "JRPS"
+	private static final int VERSION = 1;
+	private static final int SINGLE_PRECISION = 1;
+
+	/**
+	 * Size of the blocks the checksums are computed over.
+	 */
+	private static final int CHECKSUM_BLOCK_BYTES = 64 << 10;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final boolean writable;
+
+	private final double firstX;
+	private final double xStep;
+	private final int sampleBytes;
+	private final int segmentBytes;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	private long size;
+	private long checksum;
+
+	/**
+	 * Checksum of the samples appended so far, and the working area of append. Writer only.
+	 */
+	private CRC32 crc;
+	private byte[] buffer;
+
+	private SampleStore(File file, RandomAccessFile raf, boolean writable, double firstX, double xStep,
+			boolean singlePrecision, int segmentBytes) {
+		this.file = file;
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.writable = writable;
+		this.firstX = firstX;
+		this.xStep = xStep;
+		this.sampleBytes = singlePrecision ? 4 : 8;
+		this.segmentBytes = segmentBytes;
+	}
+
+	/**
+	 * Creates an empty store, replacing the file if it exists.
+	 *
+	 * @param file
+	 * @param firstX The x of the first sample.
+	 * @param xStep Distance between two consecutive samples.
+	 * @param singlePrecision Whether the y values are stored as floats.
+	 * @return
+	 * @throws IOException
+	 */
+	public static SampleStore create(File file, double firstX, double xStep, boolean singlePrecision)
+			throws IOException {
+		return create(file, firstX, xStep, singlePrecision, DEFAULT_SEGMENT_BYTES);
+	}
+
+	/**
+	 *
+	 * @param segmentBytes Size of the mapped segments. Must be a positive multiple of 8.
+	 * @see #create(File, double, double, boolean)
+	 */
+	static SampleStore create(File file, double firstX, double xStep, boolean singlePrecision,
+			int segmentBytes) throws IOException {
+		if (!(xStep > 0.0)) {
+			throw new IllegalArgumentException("Invalid step: " + xStep);
+		}
+		if (segmentBytes <= 0 || segmentBytes % 8 != 0) {
+			throw new IllegalArgumentException("Invalid segment size: " + segmentBytes);
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			SampleStore store = new SampleStore(file, raf, true, firstX, xStep, singlePrecision, segmentBytes);
+			store.crc = new CRC32();
+			store.buffer = new byte[CHECKSUM_BLOCK_BYTES];
+			store.writeHeader();
+			return store;
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a finished store, read-only.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException If the file cannot be read, or is not a valid store.
+	 */
+	public static SampleStore open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining()) {
+				if (raf.getChannel().read(header, header.position()) < 0) {
+					throw new IOException("Not a sample store: " + file);
+				}
+			}
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException("Not a sample store: " + file);
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException("Unsupported sample store version: " + header.getInt(4));
+			}
+			CRC32 headerCrc = new CRC32();
+			headerCrc.update(header.array(), 0, 48);
+			if ((int) headerCrc.getValue() != header.getInt(48)) {
+				throw new IOException("Corrupted sample store header: " + file);
+			}
+
+			int segmentBytes = header.getInt(12);
+			if (segmentBytes <= 0 || segmentBytes % 8 != 0) {
+				throw new IOException("Invalid segment size on the sample store: " + segmentBytes);
+			}
+			SampleStore store = new SampleStore(file, raf, false, header.getDouble(16), header.getDouble(24),
+					(header.getInt(8) & SINGLE_PRECISION) != 0, segmentBytes);
+			store.size = header.getLong(32);
+			store.checksum = header.getLong(40);
+			if (raf.length() < HEADER_BYTES + store.size * store.sampleBytes) {
+				throw new IOException("Truncated sample store: " + file);
+			}
+			long dataBytes = store.size * store.sampleBytes;
+			for (long pos = 0; pos < dataBytes; pos += store.segmentBytes) {
+				store.segments.add(store.channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + pos,
+						Math.min(store.segmentBytes, dataBytes - pos)));
+			}
+			return store;
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		} catch (RuntimeException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends samples at the end of the store, mapping new segments as needed.
+	 *
+	 * @param ys The y values. NaN for the gaps.
+	 * @param from Position of the first value on ys.
+	 * @param length Number of values.
+	 * @throws IOException
+	 * @throws IllegalStateException If the store is read-only or closed.
+	 */
+	public void append(double[] ys, int from, int length) throws IOException {
+		if (!writable || buffer == null) {
+			throw new IllegalStateException("The store is not writable: " + file);
+		}
+		ByteBuffer bytes = ByteBuffer.wrap(buffer);
+		int perBlock = buffer.length / sampleBytes;
+		for (int start = 0; start < length; start += perBlock) {
+			int n = Math.min(perBlock, length - start);
+			bytes.clear();
+			if (sampleBytes == 4) {
+				for (int i = 0; i < n; i++) bytes.putFloat((float) ys[from + start + i]);
+			} else {
+				for (int i = 0; i < n; i++) bytes.putDouble(ys[from + start + i]);
+			}
+			crc.update(buffer, 0, n * sampleBytes);
+			write(n * sampleBytes);
+			size += n;
+		}
+	}
+
+	/**
+	 * Copies the first bytes of the buffer after the last sample, across segments.
+	 */
+	private void write(int length) throws IOException {
+		long pos = size * sampleBytes;
+		int done = 0;
+		while (done < length) {
+			int segment = (int) (pos / segmentBytes);
+			int offset = (int) (pos % segmentBytes);
+			int n = Math.min(length - done, segmentBytes - offset);
+			ByteBuffer target = mapForWriting(segment, offset + n).duplicate();
+			target.position(offset);
+			target.put(buffer, done, n);
+			done += n;
+			pos += n;
+		}
+	}
+
+	/**
+	 * Maps a segment with at least the given capacity. The last segment is mapped again,
+	 * twice as large, when it fills up, so the file (which a mapping extends to its end)
+	 * is never much longer than the samples.
+	 *
+	 * @param segment The last segment, or the next one.
+	 * @param capacity
+	 * @return
+	 * @throws IOException
+	 */
+	private MappedByteBuffer mapForWriting(int segment, int capacity) throws IOException {
+		MappedByteBuffer mapped = segment < segments.size() ? segments.get(segment) : null;
+		if (mapped != null && mapped.capacity() >= capacity) {
+			return mapped;
+		}
+		long grown = mapped == null ? CHECKSUM_BLOCK_BYTES : 2L * mapped.capacity();
+		int mappedBytes = (int) Math.min(segmentBytes, Math.max(capacity, grown));
+		mapped = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + (long) segment * segmentBytes,
+				mappedBytes);
+		if (segment == segments.size()) {
+			segments.add(mapped);
+		} else {
+			// Both mappings share the pages of the file, so the samples written are kept
+			segments.set(segment, mapped);
+		}
+		return mapped;
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(0, MAGIC);
+		header.putInt(4, VERSION);
+		header.putInt(8, sampleBytes == 4 ? SINGLE_PRECISION : 0);
+		header.putInt(12, segmentBytes);
+		header.putDouble(16, firstX);
+		header.putDouble(24, xStep);
+		header.putLong(32, size);
+		header.putLong(40, checksum);
+		CRC32 headerCrc = new CRC32();
+		headerCrc.update(header.array(), 0, 48);
+		header.putInt(48, (int) headerCrc.getValue());
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+	}
+
+	/**
+	 * Finishes the store: the file is cut right after the last sample, the header is written
+	 * with the number of samples and their checksum, and the file is closed. The samples stay 
+	 * readable through the store, and the file may be opened again with {@link #open(File)}.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			if (writable) {
+				checksum = crc.getValue();
+				for (MappedByteBuffer segment : segments) {
+					segment.force();
+				}
+				try {
+					raf.setLength(HEADER_BYTES + size * sampleBytes);
+				} catch (IOException e) {
+					// Some systems do not cut a file while it is mapped: the bytes after
+					// the samples are left, and ignored by open
+				}
+				writeHeader();
+				channel.force(true);
+				buffer = null;
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 *
+	 * @return True if the checksum of the samples matches the one of the header.
+	 * @throws IllegalStateException If the store was not finished.
+	 */
+	public boolean verify() {
+		if (writable && buffer != null) {
+			throw new IllegalStateException("The store was not finished: " + file);
+		}
+		CRC32 check = new CRC32();
+		byte[] block = new byte[CHECKSUM_BLOCK_BYTES];
+		for (int s = 0; s < segments.size(); s++) {
+			ByteBuffer segment = segment(s);
+			while (segment.hasRemaining()) {
+				int n = Math.min(block.length, segment.remaining());
+				segment.get(block, 0, n);
+				check.update(block, 0, n);
+			}
+		}
+		return check.getValue() == checksum;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 *
+	 * @return Number of samples.
+	 */
+	public long size() {
+		return size;
+	}
+
+	public double getFirstX() {
+		return firstX;
+	}
+
+	public double getXStep() {
+		return xStep;
+	}
+
+	public boolean isSinglePrecision() {
+		return sampleBytes == 4;
+	}
+
+	public double getX(long i) {
+		checkIndex(i);
+		return firstX + i * xStep;
+	}
+
+	public double getY(long i) {
+		checkIndex(i);
+		long pos = i * sampleBytes;
+		MappedByteBuffer segment = segments.get((int) (pos / segmentBytes));
+		int offset = (int) (pos % segmentBytes);
+		return sampleBytes == 4 ? segment.getFloat(offset) : segment.getDouble(offset);
+	}
+
+	/**
+	 * Copies the y values of a range of samples.
+	 * @param from First sample.
+	 * @param dest
+	 * @param destPos
+	 * @param length
+	 */
+	public void getYs(long from, double[] dest, int destPos, int length) {
+		if (from < 0 || length < 0 || from + length > size) {
+			throw new IndexOutOfBoundsException("Range: " + from + "+" + length + ", size: " + size);
+		}
+		for (int i = 0; i < length; i++) {
+			dest[destPos + i] = getY(from + i);
+		}
+	}
+
+	private void checkIndex(long i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+		}
+	}
+
+	/**
+	 *
+	 * @return Number of mapped segments.
+	 */
+	public int segmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 *
+	 * @param segment
+	 * @return A read-only view of the bytes of the samples of a mapped segment, from the
+	 * first one to the last one written. The sample i is on the segment
+	 * i * sampleBytes / segmentBytes (sampleBytes being 4 or 8, see {@link #isSinglePrecision()}).
+	 */
+	public ByteBuffer segment(int segment) {
+		ByteBuffer view = segments.get(segment).asReadOnlyBuffer();
+		long dataBytes = size * sampleBytes - (long) segment * segmentBytes;
+		view.limit((int) Math.min(view.capacity(), dataBytes));
+		return view;
+	}
+
+	/**
+	 * Sends the bytes of all the samples to a channel, in file order. The file system may
+	 * transfer them directly, without copying them to the JVM.
+	 *
+	 * @param target
+	 * @return Number of bytes transferred.
+	 * @throws IOException
+	 * @throws IllegalStateException If the store is not open.
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException {
+		if (!channel.isOpen()) {
+			throw new IllegalStateException("The store is closed: " + file);
+		}
+		long dataBytes = size * sampleBytes;
+		long done = 0;
+		while (done < dataBytes) {
+			done += channel.transferTo(HEADER_BYTES + done, dataBytes - done, target);
+		}
+		return done;
+	}
+
+	/**
+	 * Selects the samples that are enough to draw the interval [minX, maxX] with pixels of
+	 * the given width, like {@link SeriesPyramid#select(double, double, double)}: for each
+	 * pixel, the first, the minimum, the maximum and the last sample, and the first gap.
+	 * The samples are read straight from the mapped segments.
+	 *
+	 * @param minX
+	 * @param maxX
+	 * @param xPerPixel Width of a pixel, in the units of x.
+	 * @return A read-only series, with about 4 samples per pixel.
+	 */
+	public PlotSeries select(double minX, double maxX, double xPerPixel) {
+		if (size == 0 || maxX < firstX || minX > getX(size - 1)) {
+			return new PlotSeries(0).readOnlyView();
+		}
+		long from = Math.max(0, (long) Math.floor((minX - firstX) / xStep));
+		long to = Math.min(size - 1, (long) Math.ceil((maxX - firstX) / xStep));
+		long bucketSamples = Math.max(1, (long) (xPerPixel / xStep));
+		PlotSeries result = new PlotSeries((int) Math.min(Integer.MAX_VALUE - 8,
+				4 * ((to - from) / bucketSamples + 1)));
+		long[] positions = new long[5];
+		for (long start = from; start <= to; start += bucketSamples) {
+			long end = Math.min(to + 1, start + bucketSamples);
+			long first = -1;
+			long min = -1;
+			long max = -1;
+			long last = -1;
+			long gap = -1;
+			for (long i = start; i < end; i++) {
+				double y = getY(i);
+				if (Double.isNaN(y)) {
+					if (gap < 0) gap = i;
+					continue;
+				}
+				if (first < 0) {
+					first = i;
+					min = i;
+					max = i;
+				} else {
+					if (y < getY(min)) min = i;
+					if (y > getY(max)) max = i;
+				}
+				last = i;
+			}
+			int count = 0;
+			count = append(positions, count, gap);
+			count = append(positions, count, first);
+			count = append(positions, count, min);
+			count = append(positions, count, max);
+			count = append(positions, count, last);
+			for (int k = 0; k < count; k++) {
+				double y = getY(positions[k]);
+				if (Double.isNaN(y)) {
+					result.addGap(getX(positions[k]));
+				} else {
+					result.add(getX(positions[k]), y);
+				}
+			}
+		}
+		result.trimToSize();
+		return result.readOnlyView();
+	}
+
+	/**
+	 * Inserts a position in order, ignoring negative ones and repetitions.
+	 * @return The new count.
+	 */
+	private static int append(long[] positions, int count, long position) {
+		if (position < 0) {
+			return count;
+		}
+		int i = count;
+		while (i > 0 && positions[i - 1] > position) {
+			i--;
+		}
+		if (i > 0 && positions[i - 1] == position) {
+			return count;
+		}
+		System.arraycopy(positions, i, positions, i + 1, count - i);
+		positions[i] = position;
+		return count + 1;
+	}
+}
@@ -0,0 +1,415 @@
+package jrplot.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jrplot.core.geometry.CoordinatesConverter;
+import jrplot.core.geometry.M4Decimator;
+
+/**
+ * Levels of detail of a series, to draw it at any scale without going through all its samples.
+ *
+ * The level L divides the series in buckets of {@link #FANOUT}^L consecutive samples, and keeps
+ * for each bucket the positions of the samples that shape it on screen: the first, the minimum,
+ * the maximum and the last (among the samples that are not gaps), and the first and the last gap.
+ * Each level is built from the previous one, on its first use.
+ *
+ * <br /><br />
+ * For a given width of a pixel, {@link #select(double, double, double)} takes the coarsest
+ * level whose buckets are not wider than a pixel, and returns only the samples kept by the
+ * buckets of the visible interval: the work depends on the number of pixels, not on the
+ * number of samples. Inside a bucket, the curve may differ from the full series (a gap between
+ * the minimum and the maximum is not seen, for example), but not beyond the bucket, so the image
+ * changes by about a pixel at most. Given the mapping to the screen,
+ * {@link #select(double, double, CoordinatesConverter)} splits the buckets that would make a
+ * difference, so that the decimated image is exactly the same.
+ *
+ * <br /><br />
+ * Thread safety: instances may be used by several threads at the same time, as long as
+ * the series is no longer modified.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class SeriesPyramid {
+
+	/**
+	 * Number of buckets of a level combined into one bucket of the next level.
+	 */
+	public static final int FANOUT = 4;
+
+	private static final int NONE = -1;
+
+	private final PlotSeries series;
+
+	/**
+	 * Width of a sample (in the units of x), on average.
+	 */
+	private final double sampleWidth;
+
+	/**
+	 * The levels built so far, from level 1 (level 0 being the series itself). Guarded by this.
+	 */
+	private final List<Level> levels = new ArrayList<Level>();
+
+	/*
+	 * The last selection, returned again while the same buckets are selected. Guarded by this.
+	 */
+	private int selectedLevel = NONE;
+	private int selectedFirst;
+	private int selectedLast;
+	private CoordinatesConverter selectedMapping;
+	private PlotSeries selection;
+
+	/**
+	 *
+	 * @param series Must not be modified after this call.
+	 */
+	public SeriesPyramid(PlotSeries series) {
+		this.series = series;
+		int size = series.size();
+		this.sampleWidth = size > 1 ? (series.getX(size - 1) - series.getX(0)) / (size - 1) : 0.0;
+	}
+
+	public PlotSeries getSeries() {
+		return series;
+	}
+
+	/**
+	 *
+	 * @param xPerPixel Width of a pixel, in the units of x.
+	 * @return The coarsest level whose buckets are not wider than a pixel, or 0 (the series).
+	 */
+	public int levelFor(double xPerPixel) {
+		int level = 0;
+		long bucketSamples = FANOUT;
+		while (bucketSamples < series.size() && bucketSamples * sampleWidth <= xPerPixel) {
+			level++;
+			bucketSamples *= FANOUT;
+		}
+		return level;
+	}
+
+	/**
+	 * Selects the samples that are enough to draw the interval [minX, maxX] of the series
+	 * with pixels of the given width. The samples just outside of the interval are included,
+	 * so that the lines leaving it are kept.
+	 *
+	 * @param minX
+	 * @param maxX
+	 * @param xPerPixel Width of a pixel, in the units of x.
+	 * @return The series itself, if no level is coarse enough, or a read-only series with
+	 * the selected samples. The same series is returned while the selection does not change.
+	 */
+	public synchronized PlotSeries select(double minX, double maxX, double xPerPixel) {
+		return select(minX, maxX, xPerPixel, null);
+	}
+
+	/**
+	 * Selects the samples that are enough to draw the interval [minX, maxX] of the series
+	 * on the screen mapped by the converter, so that the {@link M4Decimator} gives the same
+	 * points for the selection as for the series, on the pixel columns from the one of the
+	 * sample just before minX to the one of the sample just after maxX.
+	 *
+	 * <br /><br />
+	 * For that, the buckets are only taken as a whole when their samples fall on a single
+	 * pixel column and are either all gaps or all defined; the other ones are split into the
+	 * buckets of the previous level. Those are a few per column, so the work still depends
+	 * on the number of pixels.
+	 *
+	 * @param minX
+	 * @param maxX
+	 * @param converter Its mapping is copied.
+	 * @return The series itself, if no level is coarse enough, or a read-only series with
+	 * the selected samples. The same series is returned while the selection does not change.
+	 */
+	public synchronized PlotSeries select(double minX, double maxX, CoordinatesConverter converter) {
+		double width = converter.toScreenX(maxX) - converter.toScreenX(minX);
+		return select(minX, maxX, (maxX - minX) / Math.max(1.0, width), converter);
+	}
+
+	private PlotSeries select(double minX, double maxX, double xPerPixel, CoordinatesConverter columns) {
+		int level = levelFor(xPerPixel);
+		if (level == 0) {
+			return series;
+		}
+		Level buckets = level(level);
+		int first = Math.max(0, indexOf(minX) - 1);
+		int last = Math.min(series.size() - 1, indexOf(maxX) + 1);
+		if (columns != null) {
+			// Whole columns, so that the decimator finds their extremes
+			first = firstOfColumn(first, columns);
+			last = lastOfColumn(last, columns);
+		}
+		int from = first / buckets.bucketSamples;
+		int to = last / buckets.bucketSamples;
+		if (level == selectedLevel && first == selectedFirst && last == selectedLast
+				&& (columns == null ? selectedMapping == null : columns.hasSameMapping(selectedMapping))) {
+			return selection;
+		}
+
+		PlotSeries result = new PlotSeries(4 * (to - from + 1));
+		int[] positions = new int[6];
+		for (int b = from; b <= to; b++) {
+			append(result, level, b, first, last, columns, positions);
+		}
+		result.trimToSize();
+
+		selectedLevel = level;
+		selectedFirst = first;
+		selectedLast = last;
+		selectedMapping = columns == null ? null : columns.copy();
+		selection = result.readOnlyView();
+		return selection;
+	}
+
+	/**
+	 * Appends the samples kept by a bucket, or by its sub-buckets if it cannot be taken
+	 * as a whole.
+	 *
+	 * @param result
+	 * @param level Level of the bucket (0 for a single sample).
+	 * @param b The bucket.
+	 * @param first First sample to be selected.
+	 * @param last Last sample to be selected.
+	 * @param columns The mapping to the screen, or null if the buckets are taken as a whole.
+	 * @param positions Working area.
+	 */
+	private void append(PlotSeries result, int level, int b, int first, int last,
+			CoordinatesConverter columns, int[] positions) {
+		if (level == 0) {
+			append(result, b);
+			return;
+		}
+		Level buckets = levels.get(level - 1);
+		int start = b * buckets.bucketSamples;
+		int end = Math.min(series.size(), start + buckets.bucketSamples) - 1;
+		if (columns != null && (start < first || end > last
+				|| (buckets.first[b] != NONE && buckets.firstGap[b] != NONE)
+				|| column(start, columns) != column(end, columns))) {
+			int childSamples = buckets.bucketSamples / FANOUT;
+			int fromChild = Math.max(start, first) / childSamples;
+			int toChild = Math.min(end, last) / childSamples;
+			for (int c = fromChild; c <= toChild; c++) {
+				append(result, level - 1, c, first, last, columns, positions);
+			}
+			return;
+		}
+
+		int count = 0;
+		count = append(positions, count, buckets.firstGap[b]);
+		count = append(positions, count, buckets.first[b]);
+		count = append(positions, count, buckets.min[b]);
+		count = append(positions, count, buckets.max[b]);
+		count = append(positions, count, buckets.last[b]);
+		count = append(positions, count, buckets.lastGap[b]);
+		for (int i = 0; i < count; i++) {
+			append(result, positions[i]);
+		}
+	}
+
+	private void append(PlotSeries result, int p) {
+		if (series.isGap(p)) {
+			result.addGap(series.getX(p));
+		} else {
+			result.add(series.getX(p), series.getY(p));
+		}
+	}
+
+	/**
+	 *
+	 * @param p
+	 * @param columns
+	 * @return The pixel column of a sample, as found by the {@link M4Decimator}.
+	 */
+	private int column(int p, CoordinatesConverter columns) {
+		return (int) columns.toScreenX(series.getX(p));
+	}
+
+	/**
+	 * 
+	 * @return The first sample on the same column as the sample p.
+	 */
+	private int firstOfColumn(int p, CoordinatesConverter columns) {
+		int column = column(p, columns);
+		int low = 0;
+		int high = p;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (column(mid, columns) < column) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * 
+	 * @return The last sample on the same column as the sample p.
+	 */
+	private int lastOfColumn(int p, CoordinatesConverter columns) {
+		int column = column(p, columns);
+		int low = p;
+		int high = series.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (column(mid, columns) > column) {
+				high = mid - 1;
+			} else {
+				low = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Inserts a position in order, ignoring NONE and repetitions.
+	 * @return The new count.
+	 */
+	private static int append(int[] positions, int count, int position) {
+		if (position == NONE) {
+			return count;
+		}
+		int i = count;
+		while (i > 0 && positions[i - 1] > position) {
+			i--;
+		}
+		if (i > 0 && positions[i - 1] == position) {
+			return count;
+		}
+		System.arraycopy(positions, i, positions, i + 1, count - i);
+		positions[i] = position;
+		return count + 1;
+	}
+
+	/**
+	 *
+	 * @param x
+	 * @return Position of the last sample not after x, or 0.
+	 */
+	private int indexOf(double x) {
+		int low = 0;
+		int high = series.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (series.getX(mid) <= x) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Builds the levels up to the given one, if not built yet.
+	 */
+	private Level level(int level) {
+		while (levels.size() < level) {
+			levels.add(levels.isEmpty() ? new Level(series) : new Level(series, levels.get(levels.size() - 1)));
+		}
+		return levels.get(level - 1);
+	}
+
+	/**
+	 *
+	 * @return Number of levels built so far, not counting the series.
+	 */
+	public synchronized int builtLevels() {
+		return levels.size();
+	}
+
+	/**
+	 * The buckets of a level: positions of samples of the series, or NONE.
+	 */
+	private static final class Level {
+		final int bucketSamples;
+		final int[] first;
+		final int[] min;
+		final int[] max;
+		final int[] last;
+		final int[] firstGap;
+		final int[] lastGap;
+
+		private Level(int bucketSamples, int seriesSize) {
+			this.bucketSamples = bucketSamples;
+			int count = (seriesSize + bucketSamples - 1) / bucketSamples;
+			first = new int[count];
+			min = new int[count];
+			max = new int[count];
+			last = new int[count];
+			firstGap = new int[count];
+			lastGap = new int[count];
+		}
+
+		/**
+		 * The first level, built from the samples.
+		 */
+		Level(PlotSeries series) {
+			this(FANOUT, series.size());
+			for (int b = 0; b < first.length; b++) {
+				clear(b);
+				int end = Math.min(series.size(), (b + 1) * FANOUT);
+				for (int p = b * FANOUT; p < end; p++) {
+					if (series.isGap(p)) {
+						addGap(b, p, p);
+					} else {
+						addSample(series, b, p, p, p, p);
+					}
+				}
+			}
+		}
+
+		/**
+		 * The level following another one, combining its buckets.
+		 */
+		Level(PlotSeries series, Level finer) {
+			this(finer.bucketSamples * FANOUT, series.size());
+			for (int b = 0; b < first.length; b++) {
+				clear(b);
+				int end = Math.min(finer.first.length, (b + 1) * FANOUT);
+				for (int c = b * FANOUT; c < end; c++) {
+					if (finer.firstGap[c] != NONE) {
+						addGap(b, finer.firstGap[c], finer.lastGap[c]);
+					}
+					if (finer.first[c] != NONE) {
+						addSample(series, b, finer.first[c], finer.min[c], finer.max[c], finer.last[c]);
+					}
+				}
+			}
+		}
+
+		private void clear(int b) {
+			first[b] = NONE;
+			min[b] = NONE;
+			max[b] = NONE;
+			last[b] = NONE;
+			firstGap[b] = NONE;
+			lastGap[b] = NONE;
+		}
+
+		/**
+		 * Adds samples that come after the ones already in the bucket.
+		 */
+		private void addSample(PlotSeries series, int b, int firstP, int minP, int maxP, int lastP) {
+			if (first[b] == NONE) {
+				first[b] = firstP;
+				min[b] = minP;
+				max[b] = maxP;
+			} else {
+				if (series.getY(minP) < series.getY(min[b])) min[b] = minP;
+				if (series.getY(maxP) > series.getY(max[b])) max[b] = maxP;
+			}
+			last[b] = lastP;
+		}
+
+		private void addGap(int b, int firstP, int lastP) {
+			if (firstGap[b] == NONE) {
+				firstGap[b] = firstP;
+			}
+			lastGap[b] = lastP;
+		}
+	}
+}
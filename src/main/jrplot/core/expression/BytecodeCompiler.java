@@ -0,0 +1,645 @@
+package jrplot.core.expression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates a {@link Program} into JVM bytecode.
+ *
+ * Each program becomes a small class implementing {@link CompiledFunction}, whose
+ * applyAsDouble method is the straight-line equivalent of the program: constants are
+ * loaded with ldc2_w, operators map to the double arithmetic instructions and functions
+ * are invokestatic calls to java.lang.Math. HotSpot can then compile and inline the whole
+ * formula as if it had been written by hand. User functions are called through a field 
+ * holding their instances; as each call site only sees one implementation, they
+ * are inlined too. Variables other than "x" are read from a field holding the bindings
+ * of the instance, so a single class serves every binding of a parameterized expression. The batch version of applyAsDouble is a
+ * plain loop calling the scalar one; being generated in every class, its call site
+ * never sees more than one implementation.
+ *
+ * <br /><br />
+ * Every class is defined by its own class loader, so it can be unloaded as soon as the
+ * function is no longer referenced.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+final class BytecodeCompiler {
+
+	/**
+	 * HotSpot does not JIT-compile methods larger than 8000 bytes of bytecode, so bigger
+	 * expressions run faster on our own interpreter.
+	 */
+	private static final int MAX_CODE_LENGTH = 8000;
+
+	/**
+	 * Local variable slot of the first register. Each register takes two slots.
+	 */
+	private static final int FIRST_REGISTER_LOCAL = 5;
+
+	private static final String PACKAGE_PREFIX = "jrplot/core/expression/generated/Function";
+	private static final String INTERFACE_NAME = "jrplot/core/expression/CompiledFunction";
+	private static final String USER_FUNCTION_NAME = "jrplot/core/expression/UserFunction";
+	private static final String FUNCTIONS_FIELD = "functions";
+	private static final String FUNCTIONS_DESC = "[L" + USER_FUNCTION_NAME + ";";
+	private static final String BINDINGS_FIELD = "bindings";
+	private static final String BINDINGS_DESC = "[D";
+
+	private static final AtomicInteger classCounter = new AtomicInteger();
+
+	/*
+	 * JVM opcodes used by the generator.
+	 */
+	private static final int ICONST_0 = 0x03;
+	private static final int ILOAD = 0x15;
+	private static final int ILOAD_3 = 0x1d;
+	private static final int ISTORE = 0x36;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int ALOAD_2 = 0x2c;
+	private static final int AALOAD = 0x32;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int DUP = 0x59;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int NEWARRAY = 0xbc;
+	private static final int T_DOUBLE = 7;
+	private static final int DALOAD = 0x31;
+	private static final int DASTORE = 0x52;
+	private static final int IINC = 0x84;
+	private static final int IF_ICMPGE = 0xa2;
+	private static final int GOTO = 0xa7;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int DCONST_0 = 0x0e;
+	private static final int DCONST_1 = 0x0f;
+	private static final int LDC2_W = 0x14;
+	private static final int DLOAD_1 = 0x27;
+	private static final int DLOAD_3 = 0x29;
+	private static final int DSTORE_3 = 0x4a;
+	private static final int DLOAD = 0x18;
+	private static final int DSTORE = 0x39;
+	private static final int DUP2 = 0x5c;
+	private static final int WIDE = 0xc4;
+	private static final int DADD = 0x63;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6b;
+	private static final int DDIV = 0x6f;
+	private static final int DNEG = 0x77;
+	private static final int DRETURN = 0xaf;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+
+	/*
+	 * Constant pool tags
+	 */
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private BytecodeCompiler() {
+
+	}
+
+	/**
+	 * Generates and loads the class for the given program.
+	 *
+	 * @param program
+	 * @return The constructor of the generated class, taking the user functions and the 
+	 * bindings (see {@link #newInstance(Constructor, Program, double[])}), or null if the program 
+	 * cannot be translated (for example, when it is too large).
+	 */
+	static Constructor<?> compile(Program program) {
+		String className = PACKAGE_PREFIX + classCounter.incrementAndGet();
+		byte[] classFile;
+		try {
+			classFile = new ClassFileBuilder(className).build(program);
+		} catch (IOException e) {
+			// Writing to memory, not supposed to happen
+			throw new RuntimeException("Unexpected exception generating class " + className);
+		}
+		if (classFile == null) {
+			return null;
+		}
+
+		try {
+			GeneratedClassLoader loader = new GeneratedClassLoader(CompiledFunction.class.getClassLoader());
+			Class<?> cls = loader.define(className.replace('/', '.'), classFile);
+			Constructor<?> constructor = cls.getConstructor(UserFunction[].class, double[].class);
+			// The class is only verified when first instantiated
+			constructor.newInstance(program.functions, new double[0]);
+			return constructor;
+		} catch (LinkageError e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			return null;
+		} catch (InstantiationException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 
+	 * @param constructor As returned by {@link #compile(Program)}.
+	 * @param program
+	 * @param bindings Values of the variables other than "x", by slot. Not copied.
+	 * @return A new instance of the generated class.
+	 */
+	static CompiledFunction newInstance(Constructor<?> constructor, Program program, double[] bindings) {
+		try {
+			return (CompiledFunction) constructor.newInstance(program.functions, bindings);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Generated class cannot be instantiated", e);
+		} catch (InstantiationException e) {
+			throw new IllegalStateException("Generated class cannot be instantiated", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Generated class cannot be instantiated", e);
+		}
+	}
+
+	/**
+	 * Class loader holding a single generated class.
+	 */
+	private static class GeneratedClassLoader extends ClassLoader {
+
+		GeneratedClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] classFile) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+
+	/**
+	 * Writes the class file of a generated function.
+	 */
+	private static class ClassFileBuilder {
+
+		private final String className;
+
+		private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		private final DataOutputStream pool = new DataOutputStream(poolBytes);
+		private final Map<String, Integer> poolIndexes = new HashMap<String, Integer>();
+		private int poolCount = 1;
+
+		/**
+		 * Local variable slots used to pass the arguments of user functions.
+		 */
+		private int argumentLocals;
+
+		ClassFileBuilder(String className) {
+			this.className = className;
+		}
+
+		/**
+		 *
+		 * @param program
+		 * @return The class file bytes, or null if the program is too large.
+		 * @throws IOException
+		 */
+		byte[] build(Program program) throws IOException {
+			byte[] applyCode = generateApplyCode(program);
+			if (applyCode == null) {
+				return null;
+			}
+
+			int thisClass = classEntry(className);
+			int superClass = classEntry("java/lang/Object");
+			int iface = classEntry(INTERFACE_NAME);
+			int codeName = utf8Entry("Code");
+			int initName = utf8Entry("<init>");
+			int initDesc = utf8Entry("(" + FUNCTIONS_DESC + BINDINGS_DESC + ")V");
+			int superInit = methodEntry("java/lang/Object", "<init>", "()V");
+			int fieldName = utf8Entry(FUNCTIONS_FIELD);
+			int fieldDesc = utf8Entry(FUNCTIONS_DESC);
+			int fieldRef = fieldEntry(className, FUNCTIONS_FIELD, FUNCTIONS_DESC);
+			int bindingsName = utf8Entry(BINDINGS_FIELD);
+			int bindingsDesc = utf8Entry(BINDINGS_DESC);
+			int bindingsRef = fieldEntry(className, BINDINGS_FIELD, BINDINGS_DESC);
+			int applyName = utf8Entry("applyAsDouble");
+			int applyDesc = utf8Entry("(D)D");
+			int applyBatchDesc = utf8Entry("([D[DI)V");
+			int applyRef = methodEntry(className, "applyAsDouble", "(D)D");
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);  // minor version
+			out.writeShort(50); // major version: Java 6
+
+			pool.flush();
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+
+			out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(iface);
+			// private final UserFunction[] functions;
+			// private final double[] bindings;
+			out.writeShort(2);
+			out.writeShort(0x0002 | 0x0010);
+			out.writeShort(fieldName);
+			out.writeShort(fieldDesc);
+			out.writeShort(0);
+			out.writeShort(0x0002 | 0x0010);
+			out.writeShort(bindingsName);
+			out.writeShort(bindingsDesc);
+			out.writeShort(0);
+			
+			out.writeShort(3); // methods
+
+			// public <init>(UserFunction[] functions, double[] bindings) { 
+			//     super(); this.functions = functions; this.bindings = bindings; 
+			// }
+			byte[] initCode = new byte[] {
+					(byte) ALOAD_0,
+					(byte) INVOKESPECIAL, (byte) (superInit >> 8), (byte) superInit,
+					(byte) ALOAD_0,
+					(byte) ALOAD_1,
+					(byte) PUTFIELD, (byte) (fieldRef >> 8), (byte) fieldRef,
+					(byte) ALOAD_0,
+					(byte) ALOAD_2,
+					(byte) PUTFIELD, (byte) (bindingsRef >> 8), (byte) bindingsRef,
+					(byte) RETURN };
+			writeMethod(out, initName, initDesc, codeName, 2, 3, initCode);
+
+			// public double applyAsDouble(double x)
+			// Each value on the program stack takes two words on the JVM stack, plus the
+			// words used by the POWI, HORNER and CALL expansions. The local 3 is a temporary, the 
+			// registers are stored from the local 5 on, followed by the arguments of calls.
+			writeMethod(out, applyName, applyDesc, codeName, 2 * program.maxStackDepth + 6, 
+					FIRST_REGISTER_LOCAL + 2 * program.registerCount + argumentLocals, applyCode);
+
+			// public void applyAsDouble(double[] xs, double[] out, int length) {
+			//     for (int i = 0; i < length; i++) out[i] = applyAsDouble(xs[i]);
+			// }
+			byte[] batchCode = new byte[] {
+					/*  0 */ (byte) ICONST_0,
+					/*  1 */ (byte) ISTORE, 4,
+					/*  3 */ (byte) ILOAD, 4,
+					/*  5 */ (byte) ILOAD_3,
+					/*  6 */ (byte) IF_ICMPGE, 0, 21,
+					/*  9 */ (byte) ALOAD_2,
+					/* 10 */ (byte) ILOAD, 4,
+					/* 12 */ (byte) ALOAD_0,
+					/* 13 */ (byte) ALOAD_1,
+					/* 14 */ (byte) ILOAD, 4,
+					/* 16 */ (byte) DALOAD,
+					/* 17 */ (byte) INVOKEVIRTUAL, (byte) (applyRef >> 8), (byte) applyRef,
+					/* 20 */ (byte) DASTORE,
+					/* 21 */ (byte) IINC, 4, 1,
+					/* 24 */ (byte) GOTO, (byte) 0xff, (byte) (3 - 24),
+					/* 27 */ (byte) RETURN };
+			writeMethod(out, applyName, applyBatchDesc, codeName, 5, 5, batchCode);
+
+			out.writeShort(0); // attributes
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		/**
+		 *
+		 * @param program
+		 * @return The method body, or null if it exceeds MAX_CODE_LENGTH.
+		 * @throws IOException
+		 */
+		private byte[] generateApplyCode(Program program) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream code = new DataOutputStream(bytes);
+
+			int[] prog = program.code;
+			for (int pc = 0; pc < prog.length; pc++) {
+				switch (prog[pc]) {
+				case Program.CONST:
+					loadConstant(code, program.constants[prog[++pc]]);
+					break;
+				case Program.LOAD_X: code.writeByte(DLOAD_1); break;
+				case Program.LOAD_VAR:
+					// this.bindings[slot]
+					code.writeByte(ALOAD_0);
+					code.writeByte(GETFIELD);
+					code.writeShort(fieldEntry(className, BINDINGS_FIELD, BINDINGS_DESC));
+					pushInt(code, prog[++pc]);
+					code.writeByte(DALOAD);
+					break;
+				case Program.ADD: code.writeByte(DADD); break;
+				case Program.SUB: code.writeByte(DSUB); break;
+				case Program.MUL: code.writeByte(DMUL); break;
+				case Program.DIV: code.writeByte(DDIV); break;
+				case Program.POW: invokeMath(code, "pow", 2); break;
+				case Program.ABS: invokeMath(code, "abs", 1); break;
+				case Program.ACOS: invokeMath(code, "acos", 1); break;
+				case Program.ASIN: invokeMath(code, "asin", 1); break;
+				case Program.ATAN: invokeMath(code, "atan", 1); break;
+				case Program.COS: invokeMath(code, "cos", 1); break;
+				case Program.EXP: invokeMath(code, "exp", 1); break;
+				case Program.LOG: invokeMath(code, "log", 1); break;
+				case Program.LOGTEN: invokeMath(code, "log10", 1); break;
+				case Program.MIN: invokeMath(code, "min", 2); break;
+				case Program.MAX: invokeMath(code, "max", 2); break;
+				case Program.SIN: invokeMath(code, "sin", 1); break;
+				case Program.SQRT: invokeMath(code, "sqrt", 1); break;
+				case Program.TAN: invokeMath(code, "tan", 1); break;
+				case Program.ADD_C:
+					loadConstant(code, program.constants[prog[++pc]]);
+					code.writeByte(DADD);
+					break;
+				case Program.SUB_C:
+					loadConstant(code, program.constants[prog[++pc]]);
+					code.writeByte(DSUB);
+					break;
+				case Program.RSUB_C:
+					code.writeByte(DSTORE_3);
+					loadConstant(code, program.constants[prog[++pc]]);
+					code.writeByte(DLOAD_3);
+					code.writeByte(DSUB);
+					break;
+				case Program.MUL_C:
+					loadConstant(code, program.constants[prog[++pc]]);
+					code.writeByte(DMUL);
+					break;
+				case Program.DIV_C:
+					loadConstant(code, program.constants[prog[++pc]]);
+					code.writeByte(DDIV);
+					break;
+				case Program.RDIV_C:
+					code.writeByte(DSTORE_3);
+					loadConstant(code, program.constants[prog[++pc]]);
+					code.writeByte(DLOAD_3);
+					code.writeByte(DDIV);
+					break;
+				case Program.POWI:
+					power(code, prog[++pc]);
+					break;
+				case Program.NEG: code.writeByte(DNEG); break;
+				case Program.STORE:
+					code.writeByte(DUP2);
+					localInstruction(code, DSTORE, FIRST_REGISTER_LOCAL + 2 * prog[++pc]);
+					break;
+				case Program.LOAD:
+					localInstruction(code, DLOAD, FIRST_REGISTER_LOCAL + 2 * prog[++pc]);
+					break;
+				case Program.HORNER:
+					int first = prog[++pc];
+					int degree = prog[++pc];
+					code.writeByte(DSTORE_3);
+					loadConstant(code, program.constants[first + degree]);
+					for (int i = first + degree - 1; i >= first; i--) {
+						code.writeByte(DLOAD_3);
+						code.writeByte(DMUL);
+						loadConstant(code, program.constants[i]);
+						code.writeByte(DADD);
+					}
+					break;
+				case Program.CALL:
+					call(code, program, prog[++pc]);
+					break;
+				default:
+					return null;
+				}
+
+				if (code.size() > MAX_CODE_LENGTH || poolCount > 0xFFFF) {
+					return null;
+				}
+			}
+			code.writeByte(DRETURN);
+			code.flush();
+			return bytes.toByteArray();
+		}
+
+		private void loadConstant(DataOutputStream code, double value) throws IOException {
+			if (Double.doubleToRawLongBits(value) == 0L) {
+				code.writeByte(DCONST_0);
+			} else if (value == 1.0) {
+				code.writeByte(DCONST_1);
+			} else {
+				code.writeByte(LDC2_W);
+				code.writeShort(doubleEntry(value));
+			}
+		}
+
+		/**
+		 * Unrolled binary exponentiation, performing the same multiplications as
+		 * {@link Kernels#power(double, int)}. The base is kept in the local 3.
+		 */
+		private void power(DataOutputStream code, int k) throws IOException {
+			code.writeByte(DSTORE_3);
+			code.writeByte(DCONST_1);
+			if (k < 0) {
+				code.writeByte(DCONST_1);
+			}
+
+			int e = Math.abs(k);
+			while (e != 0) {
+				if ((e & 1) != 0) {
+					code.writeByte(DLOAD_3);
+					code.writeByte(DMUL);
+				}
+				e >>= 1;
+				if (e != 0) {
+					code.writeByte(DLOAD_3);
+					code.writeByte(DLOAD_3);
+					code.writeByte(DMUL);
+					code.writeByte(DSTORE_3);
+				}
+			}
+
+			if (k < 0) {
+				code.writeByte(DDIV);
+			}
+		}
+
+		/**
+		 * Calls a user function. The arguments are moved from the stack to locals, so that
+		 * the function instance can be pushed before them.
+		 */
+		private void call(DataOutputStream code, Program program, int index) throws IOException {
+			int arity = program.functions[index].getArity();
+			int firstLocal = FIRST_REGISTER_LOCAL + 2 * program.registerCount;
+			argumentLocals = Math.max(argumentLocals, 2 * arity);
+			
+			for (int i = arity - 1; i >= 0; i--) {
+				localInstruction(code, DSTORE, firstLocal + 2 * i);
+			}
+			
+			// this.functions[index]
+			code.writeByte(ALOAD_0);
+			code.writeByte(GETFIELD);
+			code.writeShort(fieldEntry(className, FUNCTIONS_FIELD, FUNCTIONS_DESC));
+			pushInt(code, index);
+			code.writeByte(AALOAD);
+			
+			if (arity <= 2) {
+				for (int i = 0; i < arity; i++) {
+					localInstruction(code, DLOAD, firstLocal + 2 * i);
+				}
+				code.writeByte(INVOKEVIRTUAL);
+				code.writeShort(methodEntry(USER_FUNCTION_NAME, "apply", arity == 1 ? "(D)D" : "(DD)D"));
+				
+			} else {
+				// apply(new double[] {a0, a1, ...}, 0)
+				pushInt(code, arity);
+				code.writeByte(NEWARRAY);
+				code.writeByte(T_DOUBLE);
+				for (int i = 0; i < arity; i++) {
+					code.writeByte(DUP);
+					pushInt(code, i);
+					localInstruction(code, DLOAD, firstLocal + 2 * i);
+					code.writeByte(DASTORE);
+				}
+				code.writeByte(ICONST_0);
+				code.writeByte(INVOKEVIRTUAL);
+				code.writeShort(methodEntry(USER_FUNCTION_NAME, "apply", "([DI)D"));
+			}
+		}
+
+		private void pushInt(DataOutputStream code, int value) throws IOException {
+			if (value >= -1 && value <= 5) {
+				code.writeByte(ICONST_0 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				code.writeByte(BIPUSH);
+				code.writeByte(value);
+			} else {
+				code.writeByte(SIPUSH);
+				code.writeShort(value);
+			}
+		}
+
+		private void localInstruction(DataOutputStream code, int opcode, int local) throws IOException {
+			if (local <= 0xFF) {
+				code.writeByte(opcode);
+				code.writeByte(local);
+			} else {
+				code.writeByte(WIDE);
+				code.writeByte(opcode);
+				code.writeShort(local);
+			}
+		}
+
+		private void invokeMath(DataOutputStream code, String method, int arity) throws IOException {
+			code.writeByte(INVOKESTATIC);
+			code.writeShort(methodEntry("java/lang/Math", method, arity == 1 ? "(D)D" : "(DD)D"));
+		}
+
+		private void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+				int maxStack, int maxLocals, byte[] code) throws IOException {
+			out.writeShort(0x0001); // public
+			out.writeShort(name);
+			out.writeShort(descriptor);
+			out.writeShort(1); // attributes: Code
+
+			out.writeShort(codeName);
+			out.writeInt(12 + code.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.length);
+			out.write(code);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+		}
+
+		private int utf8Entry(String text) throws IOException {
+			String key = "U" + text;
+			Integer idx = poolIndexes.get(key);
+			if (idx == null) {
+				pool.writeByte(CONSTANT_UTF8);
+				pool.writeUTF(text);
+				idx = newEntry(key, 1);
+			}
+			return idx;
+		}
+
+		private int classEntry(String internalName) throws IOException {
+			String key = "C" + internalName;
+			Integer idx = poolIndexes.get(key);
+			if (idx == null) {
+				int name = utf8Entry(internalName);
+				pool.writeByte(CONSTANT_CLASS);
+				pool.writeShort(name);
+				idx = newEntry(key, 1);
+			}
+			return idx;
+		}
+
+		private int methodEntry(String owner, String name, String descriptor) throws IOException {
+			String key = "M" + owner + "." + name + descriptor;
+			Integer idx = poolIndexes.get(key);
+			if (idx == null) {
+				int cls = classEntry(owner);
+				int nameAndType = nameAndTypeEntry(name, descriptor);
+				pool.writeByte(CONSTANT_METHODREF);
+				pool.writeShort(cls);
+				pool.writeShort(nameAndType);
+				idx = newEntry(key, 1);
+			}
+			return idx;
+		}
+
+		private int fieldEntry(String owner, String name, String descriptor) throws IOException {
+			String key = "F" + owner + "." + name + descriptor;
+			Integer idx = poolIndexes.get(key);
+			if (idx == null) {
+				int cls = classEntry(owner);
+				int nameAndType = nameAndTypeEntry(name, descriptor);
+				pool.writeByte(CONSTANT_FIELDREF);
+				pool.writeShort(cls);
+				pool.writeShort(nameAndType);
+				idx = newEntry(key, 1);
+			}
+			return idx;
+		}
+
+		private int nameAndTypeEntry(String name, String descriptor) throws IOException {
+			String key = "N" + name + descriptor;
+			Integer idx = poolIndexes.get(key);
+			if (idx == null) {
+				int nameIdx = utf8Entry(name);
+				int descIdx = utf8Entry(descriptor);
+				pool.writeByte(CONSTANT_NAME_AND_TYPE);
+				pool.writeShort(nameIdx);
+				pool.writeShort(descIdx);
+				idx = newEntry(key, 1);
+			}
+			return idx;
+		}
+
+		private int doubleEntry(double value) throws IOException {
+			long bits = Double.doubleToRawLongBits(value);
+			String key = "D" + bits;
+			Integer idx = poolIndexes.get(key);
+			if (idx == null) {
+				pool.writeByte(CONSTANT_DOUBLE);
+				pool.writeLong(bits);
+				idx = newEntry(key, 2); // doubles take two pool slots
+			}
+			return idx;
+		}
+
+		private int newEntry(String key, int slots) {
+			int idx = poolCount;
+			poolCount += slots;
+			poolIndexes.put(key, idx);
+			return idx;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package jrplot.core.expression;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Everything that results from parsing and compiling an expression text: the RPN queue,
+ * the {@link Program} and the generated bytecode.
+ *
+ * <br /><br />
+ * Instances are immutable (the generated function is created once, under a lock), so they
+ * may be shared by several {@link Expression} instances; each one of them keeps its own
+ * working areas. This is what the {@link ExpressionCache} stores.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+final class CompiledExpression {
+
+	/**
+	 * Represents the function tokens, in Reverse Polish Notation. Never modified.
+	 */
+	final Queue<ExpressionElement> expressionElements;
+
+	/**
+	 * Variables used by the expression.
+	 */
+	final Set<String> neededVariables;
+
+	/**
+	 * Names of the variables (in lower case, as they are case insensitive), sorted.
+	 * The position of each name is the slot holding its value on a bindings array.
+	 */
+	final String[] variables;
+
+	/**
+	 * The optimized tree, in Horner form, before the common subexpressions are shared.
+	 * Compiled again with other trees by {@link CompiledFunctionSet}.
+	 */
+	final Node tree;
+
+	final Program program;
+
+	/**
+	 * Version of the {@link SymbolRegistry} when the expression was compiled: the same 
+	 * text may name other functions after a change on the registry.
+	 */
+	final int symbolsGeneration;
+
+	/**
+	 * Coefficients of the expression, if it is a polynomial or a rational function of "x".
+	 */
+	final double[] numeratorCoefficients;
+	final double[] denominatorCoefficients;
+
+	/**
+	 * Lazily generated bytecode version of the program (see Expression.toFunction), and
+	 * its instance without bindings. Guarded by this.
+	 */
+	private Constructor<?> generatedConstructor;
+	private CompiledFunction generatedFunction;
+	private boolean generationAttempted;
+
+	/**
+	 * Optimizes and compiles the output of the parser.
+	 *
+	 * @param expressionElements
+	 * @param neededVariables
+	 * @throws ExpressionException If the expression is malformed.
+	 */
+	CompiledExpression(Queue<ExpressionElement> expressionElements, Set<String> neededVariables)
+			throws ExpressionException {
+		this.symbolsGeneration = SymbolRegistry.generation();
+		this.expressionElements = expressionElements;
+		this.neededVariables = neededVariables;
+		this.variables = slots(neededVariables);
+
+		Node tree = Optimizer.optimize(Node.fromRpn(expressionElements));
+
+		// Checks whether the expression is a polynomial (p) or a rational function (p/q) in "x"
+		double[] p = Polynomials.coefficients(tree);
+		double[] q = p == null ? null : new double[] {1.0};
+		if (p == null && tree.opcode == Program.DIV) {
+			p = Polynomials.coefficients(tree.children[0]);
+			q = p == null ? null : Polynomials.coefficients(tree.children[1]);
+		}
+		this.numeratorCoefficients = q == null ? null : p;
+		this.denominatorCoefficients = q;
+
+		this.tree = Polynomials.toHornerForm(tree);
+		this.program = Program.compile(Optimizer.shareCommonSubexpressions(this.tree), variables);
+	}
+
+	private static String[] slots(Set<String> neededVariables) {
+		Set<String> names = new TreeSet<String>();
+		for (String name : neededVariables) {
+			names.add(name.toLowerCase(Locale.ENGLISH));
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 *
+	 * @param name
+	 * @return The slot of a variable, or -1 if the expression does not contain it.
+	 */
+	int slotOf(String name) {
+		return Math.max(-1, Arrays.binarySearch(variables, name.toLowerCase(Locale.ENGLISH)));
+	}
+
+	/**
+	 *
+	 * @return The bytecode version of the program, or null if it could not be generated.
+	 */
+	synchronized CompiledFunction generatedFunction() {
+		generate();
+		return generatedFunction;
+	}
+
+	/**
+	 * 
+	 * @param bindings Values of the variables, by slot. Not copied.
+	 * @return A new instance of the bytecode version of the program, reading the variables 
+	 * other than "x" from the bindings, or null if it could not be generated.
+	 */
+	CompiledFunction generatedFunction(double[] bindings) {
+		Constructor<?> constructor;
+		synchronized (this) {
+			generate();
+			constructor = generatedConstructor;
+		}
+		return constructor == null ? null : BytecodeCompiler.newInstance(constructor, program, bindings);
+	}
+
+	private void generate() {
+		if (!generationAttempted) {
+			generatedConstructor = BytecodeCompiler.compile(program);
+			if (generatedConstructor != null) {
+				generatedFunction = BytecodeCompiler.newInstance(generatedConstructor, program, null);
+			}
+			generationAttempted = true;
+		}
+	}
+
+	/**
+	 *
+	 * @param expressionElements
+	 * @return The RPN queue as text, with the tokens separated by spaces.
+	 * Equivalent texts (such as "2X" and "2 * x") give the same result: names of
+	 * variables, like the ones of functions and constants, are not case sensitive.
+	 */
+	static String toRpnText(Queue<ExpressionElement> expressionElements) {
+		StringBuilder sb = new StringBuilder();
+		for (ExpressionElement el : expressionElements) {
+			if (el instanceof Variable) {
+				sb.append(((Variable)el).name.toLowerCase(Locale.ENGLISH)).append(" ");
+			} else {
+				sb.append(el).append(" ");
+			}
+		}
+		return sb.toString();
+	}
+}
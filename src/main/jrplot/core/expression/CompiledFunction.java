@@ -0,0 +1,31 @@
+package jrplot.core.expression;
+
+/**
+ * An expression in the variable "x", ready to be sampled.
+ * 
+ * Instances are obtained with {@link Expression#toFunction()}. Depending on the 
+ * expression, they are backed either by a class generated at runtime or by the 
+ * expression interpreter.
+ * 
+ * @author Rodrigo Gomes
+ *
+ */
+public interface CompiledFunction {
+
+	/**
+	 * Evaluates the function for the given value of "x".
+	 * @param x
+	 * @return
+	 */
+	double applyAsDouble(double x);
+	
+	/**
+	 * Evaluates the function for a sequence of values of "x".
+	 * 
+	 * @param xs The input values.
+	 * @param out Receives the results, in the same positions as the inputs. May be the
+	 * same array as xs.
+	 * @param length Number of values to be evaluated, starting at position 0.
+	 */
+	void applyAsDouble(double[] xs, double[] out, int length);
+}
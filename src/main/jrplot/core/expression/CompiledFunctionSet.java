@@ -0,0 +1,132 @@
+package jrplot.core.expression;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Several expressions in the variable "x", sampled together over the same x values.
+ *
+ * The expressions are compiled into a single {@link Program}, which computes all of them
+ * in one pass over each block of x values: the input column is loaded once per use, and
+ * the subexpressions common to several expressions (such as "sin(x)" in "sin(x)" and
+ * "sin(x) - x") are evaluated only once. A set of a single expression is evaluated by
+ * its {@link CompiledFunction} instead.
+ *
+ * <br /><br />
+ * Each instance has its own working area, so it must be confined to one thread;
+ * {@link #copy()} gives another instance for another thread.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class CompiledFunctionSet {
+
+	private final Expression[] expressions;
+
+	/**
+	 * The fused program, or null for a single expression.
+	 */
+	private final Program program;
+	private final CompiledFunction function;
+
+	private final double[] stack;
+	private double[][] columns;
+
+	private CompiledFunctionSet(Expression[] expressions, Program program) throws ExpressionException {
+		this.expressions = expressions;
+		this.program = program;
+		if (program == null) {
+			this.function = expressions[0].toFunction();
+			this.stack = null;
+		} else {
+			this.function = null;
+			this.stack = program.newStack();
+		}
+	}
+
+	/**
+	 * Compiles several expressions to be evaluated together.
+	 *
+	 * @param expressions
+	 * @return
+	 * @throws ExpressionException If an expression contains variables other than "x".
+	 */
+	public static CompiledFunctionSet of(Expression... expressions) throws ExpressionException {
+		if (expressions.length == 0) {
+			throw new IllegalArgumentException("No expressions");
+		}
+		Expression[] copy = expressions.clone();
+		if (copy.length == 1) {
+			return new CompiledFunctionSet(copy, null);
+		}
+
+		Set<String> names = new TreeSet<String>();
+		Node[] roots = new Node[copy.length];
+		for (int i = 0; i < copy.length; i++) {
+			CompiledExpression compiled = copy[i].compiled();
+			for (String name : compiled.variables) {
+				names.add(name);
+			}
+			roots[i] = compiled.tree;
+		}
+		Program program = Program.compile(Optimizer.shareCommonSubexpressions(roots),
+				names.toArray(new String[names.size()]));
+		if (program.unboundVariable != null) {
+			throw new ExpressionException("Unrecognized variable: " + program.unboundVariable);
+		}
+		return new CompiledFunctionSet(copy, program);
+	}
+
+	/**
+	 *
+	 * @return A new instance of the same set, with its own working area.
+	 */
+	public CompiledFunctionSet copy() {
+		try {
+			return new CompiledFunctionSet(expressions, program);
+		} catch (ExpressionException e) {
+			// The expressions were already checked by "of"
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 *
+	 * @return Number of expressions.
+	 */
+	public int size() {
+		return expressions.length;
+	}
+
+	/**
+	 * Evaluates all the expressions for the given value of "x".
+	 * @param x
+	 * @param out Receives the result of each expression, in the order they were given.
+	 */
+	public void applyAsDouble(double x, double[] out) {
+		if (program == null) {
+			out[0] = function.applyAsDouble(x);
+		} else {
+			program.execute(x, null, stack, out);
+		}
+	}
+
+	/**
+	 * Evaluates all the expressions for a sequence of values of "x".
+	 *
+	 * @param xs The input values.
+	 * @param outs Receive the results of each expression (outs[i] for the expression i),
+	 * in the same positions as the inputs. Must not include the xs array.
+	 * @param length Number of values to be evaluated, starting at position 0.
+	 */
+	public void applyAsDouble(double[] xs, double[][] outs, int length) {
+		if (program == null) {
+			function.applyAsDouble(xs, outs[0], length);
+			return;
+		}
+		if (columns == null) {
+			columns = program.newColumns();
+		}
+		program.execute(xs, null, outs, length, columns);
+	}
+}
@@ -11,26 +11,8 @@ public interface Evaluable extends ExpressionElement {
 	 * Returns true if this operation is unary. Otherwise returns false, meaning that the
 	 * operation is binary.
 	 * 
-	 * The client code must use this method in order
-	 * to correctly determine when to call evaluate(double a) or evaluate(double a, double b)  
+	 * The operation itself is computed by the program the expression is compiled to.
 	 * @return
 	 */
 	boolean isUnary();
-	
-	/**
-	 * Evaluates the operation using the given value as input. 
-	 * If the implementor represents a binary function, it must throw an exception.
-	 * @param a
-	 * @return
-	 */
-	double evaluate(double a) throws ExpressionException;
-	
-	/**
-	 * Evaluates the operation using the given values as input. 
-	 * If the implementor represents a unary function, it must throw an exception.
-	 * @param a
-	 * @param b
-	 * @return
-	 */
-	double evaluate(double a, double b) throws ExpressionException;
 }
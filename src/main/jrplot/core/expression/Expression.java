@@ -12,7 +12,9 @@ import java.util.Stack;
 /**
  * Representation of an evaluable math expression.
  * It internally stores the expression components as objects in a Queue,
- * according to the Reverse Polish Notation.
+ * according to the Reverse Polish Notation. When the expression is parsed, the queue is
+ * turned into a tree, simplified by the {@link Optimizer} and compiled into a 
+ * {@link Program}, which is what actually gets evaluated.
  * 
  * <br /><br />
  * Usage:
@@ -28,64 +30,94 @@ import java.util.Stack;
  * Expression exp = Expression.parse("2x + 1");
  * double result = exp.evaluate(3.0); // x will be replaced with 3.0
  * </code>
+ * <br />
+ * Or binding several variables, by slot (see {@link #getVariables()}):
+ * <br />
+ * <code>
+ * Expression exp = Expression.parse("a*sin(b*x)");  // variables: [a, b, x]
+ * double result = exp.evaluate(new double[] {2.0, 0.5, 3.0});
+ * </code>
  * 
  * <br /><br />
  * A complete reference for supported syntax and functions is available on the
  * application help file.
  * 
+ * <br /><br />
+ * Thread safety: the evaluation reuses a working stack stored in the instance, so an
+ * Expression must not be evaluated by several threads at the same time. The compiled form
+ * is immutable, and may be shared by several instances.
+ * 
  * @author Rodrigo Gomes
  *
  */
 public class Expression {
 
 	/**
-	 * Represents the function tokens, in Reverse Polish Notation.
+	 * The parsed and compiled expression, possibly shared with other instances.
 	 */
-	private Queue<ExpressionElement> expressionElements;
+	private final CompiledExpression compiled;
 	
 	/**
-	 * Used for validation when evaluating the expression. The method will
-	 * check if all the needed variables were supplied.
+	 * Preallocated working area for the program evaluation.
 	 */
-	private Set<String> neededVariables;
+	private final double[] stack;
 	
 	/**
-	 * Forbid direct instantiation. The parse method must be used.
+	 * Preallocated working area for the evaluation over blocks of values.
 	 */
-	private Expression() {
-		
+	private double[][] columns;
+	
+	/**
+	 * Forbid direct instantiation. The parse method (or an {@link ExpressionCache}) must be used.
+	 */
+	Expression(CompiledExpression compiled) {
+		this.compiled = compiled;
+		this.stack = compiled.program.newStack();
 	}
 	
 	/**
 	 * Parses an expression by implementing the Shunting-yard algorithm.
+	 * 
+	 * Applications that parse the same texts repeatedly may use an {@link ExpressionCache}.
+	 * 
 	 * @param expressionText
 	 * @return
 	 * @throws ExpressionException 
 	 */
-	public static Expression parse(String expressionText) throws ExpressionException {
+	public static Expression parse(CharSequence expressionText) throws ExpressionException {
+		Set<String> vars = new HashSet<String>();
+		Queue<ExpressionElement> outputQueue = toRpn(expressionText, vars);
+		return new Expression(new CompiledExpression(outputQueue, vars));
+	}
+	
+	/**
+	 * Translates the expression to RPN, with the Shunting-yard algorithm.
+	 * 
+	 * @param expressionText
+	 * @param vars Receives the names of the variables found.
+	 * @return The RPN queue.
+	 * @throws ExpressionException
+	 */
+	static Queue<ExpressionElement> toRpn(CharSequence expressionText, Set<String> vars) 
+			throws ExpressionException {
 		Queue<ExpressionElement> outputQueue = new LinkedList<ExpressionElement>();
 		Stack<ExpressionElement> auxStack = new Stack<ExpressionElement>();
-		Set<String> vars = new HashSet<String>();
 		
-		String[] tokens = splitInTokens(expressionText);
+		Lexer lexer = new Lexer(expressionText);
 		ExpressionElement previousToken = null;
 		
-		for (String tok : tokens) {
-			boolean skip = false;
-			ExpressionElement evaluatedTok = null;
+		while (lexer.next() != Lexer.END) {
+			ExpressionElement evaluatedTok;
 			
-			if (shouldAddImplicitMultiplication(previousToken, tok)) {
-				handleToken(outputQueue, auxStack, "*");
+			if (shouldAddImplicitMultiplication(previousToken, lexer)) {
+				handleOperator(outputQueue, auxStack, Operator.MULTIPLICATION);
 			}
 
-			if (isNegatingNextToken(previousToken, tok)) {
-				handleToken(outputQueue, auxStack, "-1.0");
-				evaluatedTok = handleToken(outputQueue, auxStack, "*");
-				skip = true;
-			}
-			
-			if (!skip) {
-				evaluatedTok = handleToken(outputQueue, auxStack, tok);
+			if (isNegatingNextToken(previousToken, lexer)) {
+				outputQueue.offer(new Value(-1.0));
+				evaluatedTok = handleOperator(outputQueue, auxStack, Operator.MULTIPLICATION);
+			} else {
+				evaluatedTok = handleToken(outputQueue, auxStack, lexer);
 			}
 			
 			if (evaluatedTok instanceof Variable) {
@@ -108,10 +140,7 @@ public class Expression {
 			outputQueue.offer(aux);
 		}
 		
-		Expression exp = new Expression();
-		exp.expressionElements = outputQueue;
-		exp.neededVariables = vars;
-		return exp;
+		return outputQueue;
 	}
 
 	/**
@@ -121,10 +150,10 @@ public class Expression {
 	 * @return
 	 */
 	private static boolean isNegatingNextToken(
-			ExpressionElement previousToken, String tok) {
+			ExpressionElement previousToken, Lexer tok) {
 		
 		boolean shouldNeg = (previousToken == null || previousToken == Parenthesis.LEFT) 
-							&& "-".equals(tok);
+							&& tok.type() == Lexer.SYMBOL && tok.firstChar() == '-';
 		return shouldNeg;
 	}
 
@@ -135,20 +164,19 @@ public class Expression {
 	 * @return
 	 */
 	private static boolean shouldAddImplicitMultiplication(
-			ExpressionElement previousToken, String tok) {
+			ExpressionElement previousToken, Lexer tok) {
 		boolean isValue = previousToken instanceof Value 
 						|| previousToken instanceof Variable 
-						|| previousToken instanceof MathConstants;
-		
-		char first = tok.charAt(0);
+						|| previousToken instanceof MathConstants
+						|| previousToken instanceof NamedConstant;
 		
 		// Case 1: value followed by alpha token. Ex: 5x, 10sin(...)
-		if (isValue && Character.isLetter(first)) {
+		if (isValue && tok.type() == Lexer.WORD) {
 			return true;
 		}
 		
 		// Case 2: value followed by parenthesis. Ex: 3(x^2), x(7+x)
-		if (isValue && first == '(') {
+		if (isValue && tok.type() == Lexer.SYMBOL && tok.firstChar() == '(') {
 			return true;
 		}
 		
@@ -162,7 +190,7 @@ public class Expression {
 	 * 
 	 * @param outputQueue
 	 * @param auxStack
-	 * @param tok
+	 * @param tok The lexer, positioned on the token.
 	 * 
 	 * @return The parsed token, represented by an ExpressionElement instance.
 	 * For "throw-away" tokens, such as comma (","), this method returns null.
@@ -170,37 +198,46 @@ public class Expression {
 	 * @throws ExpressionException
 	 */
 	private static ExpressionElement handleToken(Queue<ExpressionElement> outputQueue,
-			Stack<ExpressionElement> auxStack, String tok) throws ExpressionException {
+			Stack<ExpressionElement> auxStack, Lexer tok) throws ExpressionException {
 		/*
 		 * ## If the token is a number, then add it to the output queue.
 		 */
-		if (isNumber(tok)) {
-			double val = Double.parseDouble(tok);
-			ExpressionElement evaluatedTok = new Value(val);
-			outputQueue.offer(evaluatedTok);
-			return evaluatedTok;
-		}
-		// Variables and constants are also numbers
-		if (MathConstants.isValid(tok)) {
-			MathConstants evaluatedTok = MathConstants.findByName(tok);
-			outputQueue.offer(evaluatedTok);
-			return evaluatedTok;
-		}
-		if (tok.length() == 1 && Character.isLetter(tok.charAt(0))) {
-			Variable evaluatedTok = new Variable(tok);
+		if (tok.type() == Lexer.NUMBER) {
+			if (tok.firstChar() == '.') {
+				throw new ExpressionException("Unrecognized token: " + tok.text());
+			}
+			ExpressionElement evaluatedTok = new Value(tok.numberValue());
 			outputQueue.offer(evaluatedTok);
 			return evaluatedTok;
 		}
 		
-		/*
-		 * ## If the token is a function token, then push it onto the stack.
-		 */
-		if (Function.isValidFunction(tok)) {
-			Function evaluatedTok = Function.findByName(tok);
-			auxStack.push(evaluatedTok);
-			return evaluatedTok;
+		if (tok.type() == Lexer.WORD) {
+			ExpressionElement symbol = SymbolRegistry.lookup(tok);
+			
+			// Variables and constants are also numbers
+			if (symbol instanceof MathConstants || symbol instanceof NamedConstant) {
+				outputQueue.offer(symbol);
+				return symbol;
+			}
+			if (tok.length() == 1) {
+				Variable evaluatedTok = new Variable(String.valueOf(tok.firstChar()));
+				outputQueue.offer(evaluatedTok);
+				return evaluatedTok;
+			}
+			
+			/*
+			 * ## If the token is a function token, then push it onto the stack.
+			 */
+			if (symbol instanceof Function || symbol instanceof FunctionCall) {
+				auxStack.push(symbol);
+				return symbol;
+			}
+			
+			throw new ExpressionException("Unrecognized token: " + tok.text());
 		}
 		
+		char symbol = tok.firstChar();
+		
 		/*
 		 * ## If the token is a function argument separator (e.g., a comma):
 		 * - Until the token at the top of the stack is a left parenthesis, 
@@ -208,7 +245,7 @@ public class Expression {
 		 * parentheses are encountered, either the separator was misplaced 
 		 * or parentheses were mismatched.
 		 */
-		if (",".equals(tok)) {
+		if (symbol == ',') {
 			try {
 				while (auxStack.peek() != Parenthesis.LEFT) {
 					ExpressionElement aux = auxStack.pop();
@@ -225,38 +262,15 @@ public class Expression {
 			return null;
 		}
 		
-		/*
-		 * ## If the token is an operator, o1, then:
-		 * - while there is an operator token, o2, at the top of the stack, and
-		 *   either o1 is left-associative and its precedence is less than or equal to that of o2,
-		 *   or o1 is right-associative and its precedence is less than that of o2,
-		 * --- pop o2 off the stack, onto the output queue;
-		 * - push o1 onto the stack.
-		 * 
-		 * note: In our code, smaller precedence values mean HIGHER precedence, or higher priority.
-		 */
-		if (Operator.isValid(tok)) {
-			Operator o1 = Operator.findBySymbol(tok);
-			
-			while (!auxStack.isEmpty() && (auxStack.peek() instanceof Operator)) {
-				Operator o2 = (Operator) auxStack.peek();
-				if ((!o1.isRightAssociative() && o1.getPrecedence() >= o2.getPrecedence())
-						|| (o1.isRightAssociative() && o1.getPrecedence() > o2.getPrecedence())) {
-					auxStack.pop();
-					outputQueue.offer(o2);
-				} else {
-					break;
-				}
-			}
-			
-			auxStack.push(o1);
-			return o1;
+		Operator operator = Operator.find(symbol);
+		if (operator != null) {
+			return handleOperator(outputQueue, auxStack, operator);
 		}
 			
 		/*
 		 * ## If the token is a left parenthesis, then push it onto the stack.
 		 */
-		if (tok.equals("(")) {
+		if (symbol == '(') {
 			auxStack.push(Parenthesis.LEFT);
 			return Parenthesis.LEFT;
 		}
@@ -270,7 +284,7 @@ public class Expression {
 		 * - If the stack runs out without finding a left parenthesis, then there are mismatched parentheses.
 		 * 
 		 */
-		if (tok.equals(")")) {
+		if (symbol == ')') {
 			try {
 				while (auxStack.peek() != Parenthesis.LEFT) {
 					ExpressionElement aux = auxStack.pop();
@@ -286,7 +300,8 @@ public class Expression {
 			
 			auxStack.pop();
 
-			if (!auxStack.isEmpty() && (auxStack.peek() instanceof Function)) {
+			if (!auxStack.isEmpty() && (auxStack.peek() instanceof Function 
+					|| auxStack.peek() instanceof FunctionCall)) {
 				outputQueue.add(auxStack.pop());
 			}
 			
@@ -294,7 +309,39 @@ public class Expression {
 		}
 
 		// Did not fit in any rule above...
-		throw new ExpressionException("Unrecognized token: " + tok);
+		throw new ExpressionException("Unrecognized token: " + tok.text());
+	}
+
+	/**
+	 * ## If the token is an operator, o1, then:
+	 * - while there is an operator token, o2, at the top of the stack, and
+	 *   either o1 is left-associative and its precedence is less than or equal to that of o2,
+	 *   or o1 is right-associative and its precedence is less than that of o2,
+	 * --- pop o2 off the stack, onto the output queue;
+	 * - push o1 onto the stack.
+	 * 
+	 * note: In our code, smaller precedence values mean HIGHER precedence, or higher priority.
+	 * 
+	 * @param outputQueue
+	 * @param auxStack
+	 * @param o1
+	 * @return
+	 */
+	private static ExpressionElement handleOperator(Queue<ExpressionElement> outputQueue,
+			Stack<ExpressionElement> auxStack, Operator o1) {
+		while (!auxStack.isEmpty() && (auxStack.peek() instanceof Operator)) {
+			Operator o2 = (Operator) auxStack.peek();
+			if ((!o1.isRightAssociative() && o1.getPrecedence() >= o2.getPrecedence())
+					|| (o1.isRightAssociative() && o1.getPrecedence() > o2.getPrecedence())) {
+				auxStack.pop();
+				outputQueue.offer(o2);
+			} else {
+				break;
+			}
+		}
+		
+		auxStack.push(o1);
+		return o1;
 	}
 
 	/**
@@ -308,54 +355,123 @@ public class Expression {
 	 * @throws ExpressionException 
 	 */
 	public double evaluate(double x) throws ExpressionException {
-		Stack<Double> valStack = new Stack<Double>();
-		
-		Queue<ExpressionElement> workingQueue = new LinkedList<ExpressionElement>(this.expressionElements);
-		while(!workingQueue.isEmpty()) {
-			ExpressionElement el = workingQueue.poll();
-			
-			if (el instanceof Value) {
-				valStack.add(((Value)el).innerValue);
-				
-			} else if (el instanceof Variable) {
-				Variable var = (Variable) el;				
-				if ("x".equalsIgnoreCase(var.name)) {
-					valStack.add(x);
-				} else {
-					throw new ExpressionException("Unrecognized variable: " + var.name);
-				}
-				
-			} else if (el instanceof MathConstants) {
-				valStack.add(((MathConstants)el).value);
-				
-			} else if (el instanceof Evaluable) {
-				Evaluable eval = (Evaluable) el;
-				double res;
-				
-				try {
-					if (eval.isUnary()) {
-						res = eval.evaluate(valStack.pop());
-					} else {
-						double b = valStack.pop();
-						double a = valStack.pop();
-						res = eval.evaluate(a, b);
-					}
-				} catch (EmptyStackException e) {
-					throw new ExpressionException("Malformed expression");
-				}
-				
-				valStack.push(res);
-			}
+		Program program = compiled.program;
+		if (program.unboundVariable != null) {
+			throw new ExpressionException("Unrecognized variable: " + program.unboundVariable);
 		}
-		
-		double finalResult = valStack.pop();
-		
-		if (!valStack.isEmpty()) {
-			throw new ExpressionException("Malformed expression");
+		return program.execute(x, null, stack);
+	}
+	
+	/**
+	 * Evaluates the current expression, replacing each variable with the value on its slot.
+	 * 
+	 * @param bindings Values of the variables, in the order given by {@link #getVariables()}.
+	 * Must be at least as long as the number of variables. 
+	 * @return
+	 */
+	public double evaluate(double[] bindings) {
+		checkBindings(bindings);
+		int xSlot = compiled.slotOf("x");
+		return compiled.program.execute(xSlot < 0 ? 0.0 : bindings[xSlot], bindings, stack);
+	}
+	
+	private void checkBindings(double[] bindings) {
+		if (bindings.length < compiled.variables.length) {
+			throw new IllegalArgumentException("Expected " + compiled.variables.length 
+					+ " bindings, got " + bindings.length);
+		}
+	}
+	
+	/**
+	 * 
+	 * @return The names of the variables of the expression, in lower case. The position of each
+	 * name is its slot on the bindings passed to {@link #evaluate(double[])}. 
+	 * Names are sorted, so that equivalent expressions have the same slots.
+	 */
+	public String[] getVariables() {
+		return compiled.variables.clone();
+	}
+	
+	/**
+	 * 
+	 * @param name Name of a variable, in any case.
+	 * @return The slot of the variable on the bindings, or -1 if the expression does not contain it.
+	 */
+	public int getVariableSlot(String name) {
+		return compiled.slotOf(name);
+	}
+	
+	/**
+	 * Evaluates the current expression for each one of the supplied values of "x".
+	 * 
+	 * This is faster than calling {@link #evaluate(double)} repeatedly, as each
+	 * instruction of the expression is applied once to a whole block of values.
+	 * 
+	 * @param xs Values of the "x" variable.
+	 * @param out Receives the results, in the same positions as the inputs. Must be at least
+	 * as long as xs; may be the same array.
+	 * @throws ExpressionException
+	 */
+	public void evaluate(double[] xs, double[] out) throws ExpressionException {
+		Program program = compiled.program;
+		if (program.unboundVariable != null) {
+			throw new ExpressionException("Unrecognized variable: " + program.unboundVariable);
+		}
+		if (out.length < xs.length) {
+			throw new IllegalArgumentException("Output array is smaller than the input");
+		}
+		if (columns == null) {
+			columns = program.newColumns();
+		}
+		program.execute(xs, null, out, xs.length, columns);
+	}
+	
+	/**
+	 * Returns the expression as a function of "x", optimized for repeated evaluation.
+	 * 
+	 * The first call translates the expression to JVM bytecode, so that HotSpot
+	 * can compile it as regular Java code; the generated function is stateless and is
+	 * returned by the subsequent calls (also on other instances sharing the same compiled
+	 * form, see {@link ExpressionCache}). Expressions too large for the generator fall back to
+	 * the interpreter, and in this case each call returns a new instance, that must be
+	 * used by a single thread.
+	 * 
+	 * @return
+	 * @throws ExpressionException If the expression contains variables other than "x"
+	 * (see {@link #toFunction(double[])}).
+	 */
+	public CompiledFunction toFunction() throws ExpressionException {
+		Program program = compiled.program;
+		if (program.unboundVariable != null) {
+			throw new ExpressionException("Unrecognized variable: " + program.unboundVariable);
 		}
 		
-		return finalResult;
-		
+		CompiledFunction generatedFunction = compiled.generatedFunction();
+		if (generatedFunction != null) {
+			return generatedFunction;
+		}
+		return new InterpretedFunction(program);
+	}
+	
+	/**
+	 * Returns the expression as a function of "x", with the other variables fixed.
+	 * This is how a member of a parameterized family, such as "a*sin(b*x)", gets sampled:
+	 * the bytecode is generated once for the whole family, and each call only creates 
+	 * an instance holding the bindings. 
+	 * 
+	 * @param bindings Values of the variables, as in {@link #evaluate(double[])}.
+	 * The value on the slot of "x", if any, is ignored. The array is copied.
+	 * @return
+	 * @see #toFunction()
+	 */
+	public CompiledFunction toFunction(double[] bindings) {
+		checkBindings(bindings);
+		double[] copy = bindings.clone();
+		CompiledFunction generatedFunction = compiled.generatedFunction(copy);
+		if (generatedFunction != null) {
+			return generatedFunction;
+		}
+		return new InterpretedFunction(compiled.program, copy);
 	}
 	
 	/**
@@ -366,80 +482,91 @@ public class Expression {
 	 * @throws ExpressionException
 	 */
 	public double evaluate() throws ExpressionException {
-		if (!this.neededVariables.isEmpty()) {
+		if (!compiled.neededVariables.isEmpty()) {
 			throw new ExpressionException("The expression contains variables");
 		}
 		return evaluate(0.0); // The expression does not contain variables, so this value will be ignored. 
 	}
 	
-	private static boolean isNumber(String tok) throws ExpressionException {
-		char firstChar = tok.charAt(0);
-		if (!Character.isDigit(firstChar) && (firstChar != '-' || tok.length() == 1)) {
-			return false;
-		}
-		try {
-			Double.parseDouble(tok); // Just to ensure the consistency
-			return true;
-		} catch (NumberFormatException e) {
-			throw new ExpressionException("Invalid number: " + tok);
-		}
-	}
-
 	/**
 	 * Transforms the string expression to an array of tokes.
 	 * ex: (x^2)+25 - abs(9)   =>  [ (, x, ^, 2, ), +, 25, -, abs, (, 9, ) ]
+	 * 
+	 * The parser works directly on the {@link Lexer}; this copy of the tokens is
+	 * meant for inspection.
+	 * 
 	 * @param expressionText
 	 * @return
 	 */
-	static String[] splitInTokens(String expressionText) {
+	static String[] splitInTokens(CharSequence expressionText) {
 		List<String> tokens = new ArrayList<String>();
-		
-		String curToken = "";
-		char lastChar = '\0';
-		for(int i = 0, len = expressionText.toCharArray().length; i < len; i++) {
-			char c = expressionText.toCharArray()[i];
-			
-			if (Character.isWhitespace(c)) {
-				continue;
-			}
-			
-			// convention for "char types": 1=letter, 2=digit, 3=other(symbols)
-			// This are valid only in the scope of the function, no need to create constants.
-			int curCharType = Character.isLetter(c) ? 1 : 
-								(Character.isDigit(c) || c == '.') ? 2 
-								: 3; 
-			int lastCharType = Character.isLetter(lastChar) ? 1 : 
-								(Character.isDigit(lastChar) || lastChar == '.') ? 2 
-								: 3; 
+		Lexer lexer = new Lexer(expressionText);
+		while (lexer.next() != Lexer.END) {
+			tokens.add(lexer.text());
+		}
+		return tokens.toArray(new String[tokens.size()]);
+	}
 
-			lastChar = c;
-			
-			if (curCharType == 2
-					&& ("-".equals(curToken))
-					&& (i == 1 || expressionText.toCharArray()[i-2] == '(')) {
-				// A number following a minus sign is a negative, not an operation.
-				// Only when beginning a expression, or after a left parenthesis.
-				curToken = curToken + c;
-				
-			} else if (curCharType == lastCharType && curCharType != 3) {
-				// If the char is of the same type as the previous one (letter or digit),
-				// then they are part of the same token. Ex:  sin [function], 1234, pi [constant]
-				curToken = curToken + c; 
-				
-			} else {
-				if (!"".equals(curToken)) {
-					tokens.add(curToken);
-				}
-				curToken = String.valueOf(c);
-			}
-			
+	/**
+	 * Returns the coefficients of the expression, if it is a polynomial in "x".
+	 * The polynomial is in its expanded form, as written by the user; products and powers
+	 * of sums (such as (x+1)^2) are not expanded. 
+	 * 
+	 * Ex: 3x^4 - 2x^3 + x - 7  =>  [-7.0, 1.0, 0.0, -2.0, 3.0]
+	 * 
+	 * @return The coefficient of x^i at the position i, or null if the expression is not a
+	 * polynomial.
+	 */
+	public double[] getPolynomialCoefficients() {
+		double[] denominator = compiled.denominatorCoefficients;
+		if (denominator == null || denominator.length != 1 || denominator[0] != 1.0) {
+			return null;
 		}
-		
-		if (!"".equals(curToken)) {
-			tokens.add(curToken);
+		return compiled.numeratorCoefficients.clone();
+	}
+	
+	/**
+	 * Returns the coefficients of the expression, if it is a rational function of "x", that is,
+	 * a division of two polynomials (see {@link #getPolynomialCoefficients()}).
+	 * Polynomials are also rational functions, with the denominator [1.0].
+	 * 
+	 * Ex: (x^2 + 1)/(2x - 3)  =>  [[1.0, 0.0, 1.0], [-3.0, 2.0]]
+	 * 
+	 * @return An array with the coefficients of the numerator and of the denominator, 
+	 * or null if the expression is not a rational function.
+	 */
+	public double[][] getRationalCoefficients() {
+		if (compiled.numeratorCoefficients == null) {
+			return null;
 		}
-		
-		return tokens.toArray(new String[0]);
+		return new double[][] {
+				compiled.numeratorCoefficients.clone(), compiled.denominatorCoefficients.clone()};
+	}
+	
+	/**
+	 * 
+	 * @return The compiled form of this expression.
+	 */
+	Program program() {
+		return compiled.program;
+	}
+	
+	/**
+	 * 
+	 * @return The parsed and compiled form of this expression, that may be shared.
+	 */
+	CompiledExpression compiled() {
+		return compiled;
+	}
+
+	/**
+	 * 
+	 * @return A text identifying the function computed by this expression: the expression 
+	 * in RPN, tagged with the version of the registered names it was parsed with. Equivalent
+	 * texts (such as "2x" and "2 * x") give the same result, while the same names are registered.
+	 */
+	public String getCanonicalForm() {
+		return compiled.symbolsGeneration + ":" + toString();
 	}
 
 	/*
@@ -451,11 +578,6 @@ public class Expression {
 	 */
 	@Override
 	public String toString() {
-		Queue<ExpressionElement> copy = new LinkedList<ExpressionElement>(expressionElements);
-		StringBuilder sb = new StringBuilder();
-		while (!copy.isEmpty()) {
-			sb.append(copy.poll()).append(" ");
-		}
-		return sb.toString();
+		return CompiledExpression.toRpnText(compiled.expressionElements);
 	}
 }
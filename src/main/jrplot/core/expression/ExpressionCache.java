@@ -0,0 +1,151 @@
+package jrplot.core.expression;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Keeps the compiled form of the most recently parsed expressions, so that parsing them
+ * again skips the optimization, compilation and bytecode generation.
+ *
+ * <br /><br />
+ * Entries are keyed by the canonical form of the token stream, i.e. the expression in RPN
+ * with the names in a single case, so equivalent texts such as "2x", "2*X" and "2 * x"
+ * share a single entry. For a cached
+ * expression, only the translation to RPN runs. When the cache is full, the least recently
+ * used entry is evicted.
+ *
+ * <br /><br />
+ * Each call to {@link #parse(CharSequence)} returns a new {@link Expression} (with its own
+ * working areas), sharing the immutable compiled form held by the cache.
+ *
+ * <br /><br />
+ * Thread safety: instances may be used by several threads at the same time.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class ExpressionCache {
+
+	/**
+	 * Guarded by this.
+	 */
+	private final Map<String, CompiledExpression> entries;
+	private int maxEntries;
+	private long hits;
+	private long misses;
+
+	/**
+	 *
+	 * @param maxEntries Number of expressions kept by the cache. Must be at least one.
+	 */
+	public ExpressionCache(int maxEntries) {
+		checkMaxEntries(maxEntries);
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+				return size() > ExpressionCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Parses an expression, reusing the compiled form of an equivalent expression
+	 * if there is one in the cache.
+	 *
+	 * @param expressionText
+	 * @return
+	 * @throws ExpressionException If the expression is not valid. Errors are not cached.
+	 * @see Expression#parse(CharSequence)
+	 */
+	public Expression parse(CharSequence expressionText) throws ExpressionException {
+		Set<String> vars = new HashSet<String>();
+		Queue<ExpressionElement> rpn = Expression.toRpn(expressionText, vars);
+		// Names may be bound to other functions after a change on the registry
+		String key = SymbolRegistry.generation() + ":" + CompiledExpression.toRpnText(rpn);
+
+		CompiledExpression compiled;
+		synchronized (this) {
+			compiled = entries.get(key);
+			if (compiled != null) {
+				hits++;
+				return new Expression(compiled);
+			}
+			misses++;
+		}
+
+		// Compiled out of the lock; if another thread does the same meanwhile, the first
+		// one to finish wins
+		compiled = new CompiledExpression(rpn, vars);
+		synchronized (this) {
+			CompiledExpression existing = entries.get(key);
+			if (existing != null) {
+				compiled = existing;
+			} else {
+				entries.put(key, compiled);
+			}
+		}
+		return new Expression(compiled);
+	}
+
+	/**
+	 * Changes the capacity of the cache, evicting the least recently used entries if needed.
+	 * @param maxEntries Must be at least one.
+	 */
+	public synchronized void setMaxEntries(int maxEntries) {
+		checkMaxEntries(maxEntries);
+		this.maxEntries = maxEntries;
+		Iterator<String> it = entries.keySet().iterator();
+		while (entries.size() > maxEntries) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	private static void checkMaxEntries(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("The cache must have at least one entry: " + maxEntries);
+		}
+	}
+
+	public synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 *
+	 * @return Number of expressions currently in the cache.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 *
+	 * @return Number of calls to parse that found the expression in the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 *
+	 * @return Number of calls to parse that had to compile the expression.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Removes all the entries. The hit and miss counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+}
@@ -9,84 +9,19 @@ package jrplot.core.expression;
  */
 enum Function implements Evaluable {
 
-	ABS(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.abs(a);
-		}
-	},
-	ACOS(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.acos(a);
-		}
-	},
-	ASIN(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.asin(a);
-		}
-	},
-	ATAN(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.atan(a);
-		}
-	},
-	COS(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.cos(a);
-		}
-	},
-	EXP(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.exp(a);
-		}
-	},
-	LOG(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.log(a);
-		}
-	},
-	LOGTEN(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.log10(a);
-		}
-	},
-	MIN(false) {
-		@Override
-		public double evaluate(double a, double b) throws ExpressionException {
-			return Math.min(a, b);
-		}
-	},
-	MAX(false) {
-		@Override
-		public double evaluate(double a, double b) throws ExpressionException {
-			return Math.max(a, b);
-		}
-	},
-	SIN(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.sin(a);
-		}
-	},
-	SQRT(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.sqrt(a);
-		}
-	},
-	TAN(true) {
-		@Override
-		public double evaluate(double a) throws ExpressionException {
-			return Math.tan(a);
-		}
-	}
+	ABS(true),
+	ACOS(true),
+	ASIN(true),
+	ATAN(true),
+	COS(true),
+	EXP(true),
+	LOG(true),
+	LOGTEN(true),
+	MIN(false),
+	MAX(false),
+	SIN(true),
+	SQRT(true),
+	TAN(true)
 	;
 	
 	private boolean unary;
@@ -99,35 +34,6 @@ enum Function implements Evaluable {
 		this.unary = isUnary;
 	}
 	
-	/**
-	 * 
-	 * @param name
-	 * @return
-	 * @throws ExpressionException
-	 */
-	static Function findByName(String name) throws ExpressionException {
-		for (Function fn : values()) {
-			if (name.equalsIgnoreCase(fn.name())) {
-				return fn;
-			}
-		}
-		throw new ExpressionException("Invalid function: " + name);
-	}
-	
-	/**
-	 * 
-	 * @param name
-	 * @return
-	 */
-	static boolean isValidFunction(String name) {
-		for (Function fn : values()) {
-			if (name.equalsIgnoreCase(fn.name())) {
-				return true;
-			}
-		}
-		return false;
-	}
-	
 	/*
 	 * (non-Javadoc)
 	 * @see jrplot.core.expression.Evaluable#isUnary()
@@ -135,24 +41,4 @@ enum Function implements Evaluable {
 	public boolean isUnary() {
 		return unary;
 	}
-	
-	/*
-	 * (non-Javadoc)
-	 * Must be ovewriten by instances that represent unary operations.
-	 * 
-	 * @see jrplot.core.expression.Evaluable#evaluate(double)
-	 */
-	public double evaluate(double a) throws ExpressionException {
-		throw new ExpressionException("Function body not implemented");
-	}
-	
-	/*
-	 * (non-Javadoc)
-	 * Must be ovewriten by instances that represent binary operations.
-	 *  
-	 * @see jrplot.core.expression.Evaluable#evaluate(double, double)
-	 */
-	public double evaluate(double a, double b) throws ExpressionException {
-		throw new ExpressionException("Function body not implemented");
-	}
 }
@@ -0,0 +1,24 @@
+package jrplot.core.expression;
+
+import java.util.Locale;
+
+/**
+ * Represents a call to a {@link UserFunction} in an expression.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+class FunctionCall implements ExpressionElement {
+	final String name;
+	final UserFunction function;
+
+	public FunctionCall(String name, UserFunction function) {
+		this.name = name;
+		this.function = function;
+	}
+
+	@Override
+	public String toString() {
+		return name.toUpperCase(Locale.ENGLISH);
+	}
+}
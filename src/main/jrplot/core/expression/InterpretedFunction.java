@@ -0,0 +1,42 @@
+package jrplot.core.expression;
+
+/**
+ * Fallback {@link CompiledFunction} that runs the program on the expression interpreter.
+ * Each instance has its own working area, so it must be confined to one thread.
+ * 
+ * @author Rodrigo Gomes
+ *
+ */
+final class InterpretedFunction implements CompiledFunction {
+
+	private final Program program;
+	private final double[] bindings;
+	private final double[] stack;
+	private double[][] columns;
+
+	InterpretedFunction(Program program) {
+		this(program, null);
+	}
+
+	/**
+	 * 
+	 * @param program
+	 * @param bindings Values of the variables other than "x", by slot. Not copied.
+	 */
+	InterpretedFunction(Program program, double[] bindings) {
+		this.program = program;
+		this.bindings = bindings;
+		this.stack = program.newStack();
+	}
+
+	public double applyAsDouble(double x) {
+		return program.execute(x, bindings, stack);
+	}
+
+	public void applyAsDouble(double[] xs, double[] out, int length) {
+		if (columns == null) {
+			columns = program.newColumns();
+		}
+		program.execute(xs, bindings, out, length, columns);
+	}
+}
@@ -0,0 +1,156 @@
+package jrplot.core.expression;
+
+/**
+ * Arithmetic kernels used by the column evaluation of a {@link Program}.
+ *
+ * Every kernel is a single counted loop over plain arrays, with no calls or
+ * branches in its body. This is the shape recognized by the HotSpot C2 superword
+ * optimization, that translates the loops to the widest SIMD instructions
+ * supported by the running CPU (SSE, AVX2, AVX-512...), falling back to scalar code elsewhere.
+ *
+ * <br /><br />
+ * Operations with a constant operand have their own kernels, so that the constant does
+ * not need to be expanded to a whole column.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+final class Kernels {
+
+	/**
+	 * Largest integer exponent handled by repeated multiplication.
+	 * Greater exponents are evaluated with Math.pow.
+	 */
+	static final int MAX_INTEGER_EXPONENT = 64;
+
+	private Kernels() {
+
+	}
+
+	static void fill(double[] a, double c, int n) {
+		for (int i = 0; i < n; i++) a[i] = c;
+	}
+
+	static void negate(double[] a, int n) {
+		for (int i = 0; i < n; i++) a[i] = -a[i];
+	}
+
+	static void add(double[] a, double[] b, int n) {
+		for (int i = 0; i < n; i++) a[i] = a[i] + b[i];
+	}
+
+	static void subtract(double[] a, double[] b, int n) {
+		for (int i = 0; i < n; i++) a[i] = a[i] - b[i];
+	}
+
+	static void multiply(double[] a, double[] b, int n) {
+		for (int i = 0; i < n; i++) a[i] = a[i] * b[i];
+	}
+
+	static void divide(double[] a, double[] b, int n) {
+		for (int i = 0; i < n; i++) a[i] = a[i] / b[i];
+	}
+
+	static void add(double[] a, double c, int n) {
+		for (int i = 0; i < n; i++) a[i] = a[i] + c;
+	}
+
+	static void subtract(double[] a, double c, int n) {
+		for (int i = 0; i < n; i++) a[i] = a[i] - c;
+	}
+
+	/**
+	 * a = c - a
+	 */
+	static void subtractFrom(double c, double[] a, int n) {
+		for (int i = 0; i < n; i++) a[i] = c - a[i];
+	}
+
+	static void multiply(double[] a, double c, int n) {
+		for (int i = 0; i < n; i++) a[i] = a[i] * c;
+	}
+
+	static void divide(double[] a, double c, int n) {
+		for (int i = 0; i < n; i++) a[i] = a[i] / c;
+	}
+
+	/**
+	 * a = c / a
+	 */
+	static void divideFrom(double c, double[] a, int n) {
+		for (int i = 0; i < n; i++) a[i] = c / a[i];
+	}
+
+	/**
+	 * Raises the elements of a to an integer power, by binary exponentiation.
+	 * Each step is a whole-column multiplication, so it remains vectorizable.
+	 *
+	 * @param a Input values, replaced by the results.
+	 * @param tmp Scratch column.
+	 * @param k Exponent. Its absolute value must not exceed {@link #MAX_INTEGER_EXPONENT}.
+	 * @param n
+	 */
+	static void power(double[] a, double[] tmp, int k, int n) {
+		System.arraycopy(a, 0, tmp, 0, n);
+		fill(a, 1.0, n);
+
+		int e = Math.abs(k);
+		while (e != 0) {
+			if ((e & 1) != 0) multiply(a, tmp, n);
+			e >>= 1;
+			if (e != 0) multiply(tmp, tmp, n);
+		}
+
+		if (k < 0) divideFrom(1.0, a, n);
+	}
+
+	/**
+	 * Scalar version of {@link #power(double[], double[], int, int)}, performing exactly
+	 * the same multiplications, so that both produce the same results.
+	 * @param a
+	 * @param k
+	 * @return
+	 */
+	static double power(double a, int k) {
+		double result = 1.0;
+		double base = a;
+
+		int e = Math.abs(k);
+		while (e != 0) {
+			if ((e & 1) != 0) result = result * base;
+			e >>= 1;
+			if (e != 0) base = base * base;
+		}
+
+		return k < 0 ? 1.0 / result : result;
+	}
+
+	/**
+	 * Evaluates a polynomial on the elements of a, with Horner's scheme.
+	 * The loop over the elements is the inner one, so that it can be vectorized.
+	 * 
+	 * @param a Input values, replaced by the results.
+	 * @param acc Scratch column.
+	 * @param coefficients Array holding the coefficients, in increasing degree.
+	 * @param first Position of the coefficient of degree 0.
+	 * @param degree
+	 * @param n
+	 */
+	static void polynomial(double[] a, double[] acc, double[] coefficients, int first, int degree, int n) {
+		fill(acc, coefficients[first + degree], n);
+		for (int d = first + degree - 1; d >= first; d--) {
+			double c = coefficients[d];
+			for (int i = 0; i < n; i++) acc[i] = acc[i] * a[i] + c;
+		}
+		System.arraycopy(acc, 0, a, 0, n);
+	}
+
+	/**
+	 *
+	 * @param exponent
+	 * @return True if the exponent can be handled by the power kernels.
+	 */
+	static boolean isIntegerExponent(double exponent) {
+		return exponent == Math.rint(exponent) && Math.abs(exponent) <= MAX_INTEGER_EXPONENT;
+	}
+}
@@ -0,0 +1,256 @@
+package jrplot.core.expression;
+
+/**
+ * Splits the text of an expression in tokens, in a single pass.
+ *
+ * Tokens are not copied: the lexer only keeps the type and the bounds (start, end)
+ * of the current token, and numbers are parsed straight from the text.
+ *
+ * <br /><br />
+ * Token types:
+ * <ul>
+ * <li>NUMBER: a sequence of digits and dots, such as 25 or 1.5. A minus sign followed by
+ * a number is part of it (a negative number) when it begins the expression or follows
+ * a left parenthesis.</li>
+ * <li>WORD: a sequence of letters (function names, constants and variables).</li>
+ * <li>SYMBOL: any other single character.</li>
+ * </ul>
+ * Whitespace separates tokens, and is otherwise ignored.
+ *
+ * <br /><br />
+ * Usage:
+ * <br />
+ * <code>
+ * Lexer lexer = new Lexer(text);
+ * while (lexer.next() != Lexer.END) { ... }
+ * </code>
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+final class Lexer {
+
+	static final int END = 0;
+	static final int NUMBER = 1;
+	static final int WORD = 2;
+	static final int SYMBOL = 3;
+
+	/**
+	 * Numbers with more digits than this go through Double.parseDouble, as they
+	 * may not fit exactly in the mantissa of a double.
+	 */
+	private static final int MAX_FAST_DIGITS = 15;
+
+	/**
+	 * Powers of ten that are exactly representable as doubles.
+	 */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final CharSequence text;
+	private final int length;
+
+	private int position;
+	private int type = END;
+	private int start;
+	private int end;
+
+	/**
+	 *
+	 * @param text
+	 */
+	Lexer(CharSequence text) {
+		this.text = text;
+		this.length = text.length();
+	}
+
+	/**
+	 * Advances to the next token.
+	 * @return The type of the token, or END if there are no more tokens.
+	 */
+	int next() {
+		while (position < length && Character.isWhitespace(text.charAt(position))) {
+			position++;
+		}
+
+		start = position;
+		if (position == length) {
+			type = END;
+			end = position;
+			return type;
+		}
+
+		char c = text.charAt(position);
+		if (Character.isLetter(c)) {
+			type = WORD;
+			do {
+				position++;
+			} while (position < length && Character.isLetter(text.charAt(position)));
+
+		} else if (isNumberChar(c) || isNegativeNumber()) {
+			type = NUMBER;
+			do {
+				position++;
+			} while (position < length && isNumberChar(text.charAt(position)));
+
+		} else {
+			type = SYMBOL;
+			position++;
+		}
+
+		end = position;
+		return type;
+	}
+
+	/**
+	 * A number following a minus sign is a negative, not an operation.
+	 * Only when beginning a expression, or after a left parenthesis.
+	 * @return
+	 */
+	private boolean isNegativeNumber() {
+		return text.charAt(position) == '-'
+				&& position + 1 < length && isNumberChar(text.charAt(position + 1))
+				&& (position == 0 || text.charAt(position - 1) == '(');
+	}
+
+	private static boolean isNumberChar(char c) {
+		return Character.isDigit(c) || c == '.';
+	}
+
+	/**
+	 *
+	 * @return The type of the current token.
+	 */
+	int type() {
+		return type;
+	}
+
+	/**
+	 *
+	 * @return The first character of the current token.
+	 */
+	char firstChar() {
+		return text.charAt(start);
+	}
+
+	/**
+	 *
+	 * @return The length of the current token.
+	 */
+	int length() {
+		return end - start;
+	}
+
+	/**
+	 * Compares the current token with a name, ignoring case.
+	 * @param name
+	 * @return
+	 */
+	boolean matches(String name) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (fold(text.charAt(start + i)) != fold(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return A hash code of the current token, ignoring case.
+	 */
+	int foldedHash() {
+		return foldedHash(text, start, end);
+	}
+
+	/**
+	 * Hash code of a part of a text, ignoring case: names that {@link #matches(String)} 
+	 * considers equal have the same hash code.
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	static int foldedHash(CharSequence text, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + fold(text.charAt(i));
+		}
+		return h;
+	}
+
+	/**
+	 * Same case folding as String.equalsIgnoreCase.
+	 */
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * Parses the current token as a number.
+	 *
+	 * Short numbers (the usual case) are computed directly from the digits, dividing
+	 * the integer mantissa by an exact power of ten: as both operands are exact, the result is
+	 * correctly rounded, the same as given by Double.parseDouble.
+	 * Other numbers are handed to Double.parseDouble.
+	 *
+	 * @return
+	 * @throws ExpressionException If the token is not a valid number.
+	 */
+	double numberValue() throws ExpressionException {
+		int i = start;
+		boolean negative = text.charAt(i) == '-';
+		if (negative) {
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < end; i++) {
+			char c = text.charAt(i);
+			if (c == '.') {
+				if (decimals >= 0) {
+					return parseDouble();
+				}
+				decimals = 0;
+			} else if (c >= '0' && c <= '9' && digits < MAX_FAST_DIGITS) {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (decimals >= 0) {
+					decimals++;
+				}
+			} else {
+				return parseDouble();
+			}
+		}
+
+		if (digits == 0) {
+			return parseDouble();
+		}
+		double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		return negative ? -value : value;
+	}
+
+	private double parseDouble() throws ExpressionException {
+		try {
+			return Double.parseDouble(text());
+		} catch (NumberFormatException e) {
+			throw new ExpressionException("Invalid number: " + text());
+		}
+	}
+
+	/**
+	 * Copies the current token to a String.
+	 * Meant for error messages, and for the (rare) cases where a copy must be kept.
+	 * @return
+	 */
+	String text() {
+		return text.subSequence(start, end).toString();
+	}
+}
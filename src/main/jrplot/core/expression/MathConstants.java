@@ -18,35 +18,6 @@ enum MathConstants implements ExpressionElement {
 		this.value = value;
 	}
 
-	/**
-	 * 
-	 * @param name
-	 * @return
-	 * @throws ExpressionException
-	 */
-	static MathConstants findByName(String name) throws ExpressionException {
-		for (MathConstants fn : values()) {
-			if (name.equalsIgnoreCase(fn.name())) {
-				return fn;
-			}
-		}
-		throw new ExpressionException("Invalid constant: " + name);
-	}
-	
-	/**
-	 * 
-	 * @param name
-	 * @return
-	 */
-	static boolean isValid(String name) {
-		for (MathConstants fn : values()) {
-			if (name.equalsIgnoreCase(fn.name())) {
-				return true;
-			}
-		}
-		return false;
-	}
-	
 	/**
 	 * 
 	 * @return
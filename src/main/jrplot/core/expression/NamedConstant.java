@@ -0,0 +1,24 @@
+package jrplot.core.expression;
+
+import java.util.Locale;
+
+/**
+ * Represents a constant registered by the application (see {@link SymbolRegistry}).
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+class NamedConstant implements ExpressionElement {
+	final String name;
+	final double value;
+
+	public NamedConstant(String name, double value) {
+		this.name = name;
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		return name.toUpperCase(Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,287 @@
+package jrplot.core.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Stack;
+
+/**
+ * Node of an expression tree.
+ * The RPN queue produced by the parser is turned into a tree, which is easier to
+ * analyze and transform before being compiled into a {@link Program}.
+ *
+ * <br /><br />
+ * Nodes are immutable. Operations are identified by the Program opcodes
+ * (ADD, SIN, NEG...), and the leaves use CONST and LOAD_X.
+ * HORNER nodes represent a polynomial, applied to their single child, and CALL nodes
+ * a call to a {@link UserFunction}, with the arguments as children.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+final class Node {
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	final int opcode;
+
+	/**
+	 * Value of a constant node.
+	 */
+	final double value;
+
+	/**
+	 * Name of a variable node.
+	 */
+	final String variable;
+
+	/**
+	 * Operands of an operation node.
+	 */
+	final Node[] children;
+
+	/**
+	 * Coefficients of a HORNER node: coefficients[i] multiplies child^i.
+	 */
+	final double[] coefficients;
+
+	/**
+	 * Function of a CALL node.
+	 */
+	final UserFunction function;
+
+	private final int hash;
+
+	private Node(int opcode, double value, String variable, double[] coefficients, 
+			UserFunction function, Node[] children) {
+		this.opcode = opcode;
+		this.value = value;
+		this.variable = variable;
+		this.coefficients = coefficients;
+		this.function = function;
+		this.children = children;
+		this.hash = computeHash();
+	}
+
+	static Node constant(double value) {
+		return new Node(Program.CONST, value, null, null, null, NO_CHILDREN);
+	}
+
+	static Node variable(String name) {
+		return new Node(Program.LOAD_X, 0.0, name, null, null, NO_CHILDREN);
+	}
+
+	static Node operation(int opcode, Node... children) {
+		return new Node(opcode, 0.0, null, null, null, children);
+	}
+
+	static Node horner(Node argument, double[] coefficients) {
+		return new Node(Program.HORNER, 0.0, null, coefficients, null, new Node[] {argument});
+	}
+
+	static Node call(UserFunction function, Node... arguments) {
+		return new Node(Program.CALL, 0.0, null, null, function, arguments);
+	}
+
+	/**
+	 * 
+	 * @param newChildren
+	 * @return A copy of this node, with other operands.
+	 */
+	Node withChildren(Node[] newChildren) {
+		return new Node(opcode, value, variable, coefficients, function, newChildren);
+	}
+
+	boolean isConstant() {
+		return opcode == Program.CONST;
+	}
+
+	boolean isConstant(double val) {
+		return opcode == Program.CONST && value == val;
+	}
+
+	boolean isVariable() {
+		return opcode == Program.LOAD_X;
+	}
+
+	/**
+	 * 
+	 * @return True for the operations whose operands may be swapped without changing the
+	 * result, including the NaN cases.
+	 */
+	boolean isCommutative() {
+		return opcode == Program.ADD || opcode == Program.MUL 
+				|| opcode == Program.MIN || opcode == Program.MAX;
+	}
+
+	/**
+	 * Lists the nodes of a tree (or DAG) with the children before their parents, each node 
+	 * appearing once. With several roots, the nodes they share are listed once too.
+	 * 
+	 * The tree passes iterate over this list instead of recursing: long expressions make
+	 * deep trees (a sum of n terms is n levels deep), that could overflow the thread stack.
+	 * 
+	 * @param roots
+	 * @return
+	 */
+	static List<Node> postOrder(Node... roots) {
+		List<Node> order = new ArrayList<Node>();
+		Map<Node, Boolean> expanded = new IdentityHashMap<Node, Boolean>();
+		Stack<Node> pending = new Stack<Node>();
+		for (int i = roots.length - 1; i >= 0; i--) {
+			pending.push(roots[i]);
+		}
+		
+		while (!pending.isEmpty()) {
+			Node node = pending.peek();
+			Boolean done = expanded.get(node);
+			if (done == null) {
+				// First visit: its children are handled first
+				expanded.put(node, Boolean.FALSE);
+				for (int i = node.children.length - 1; i >= 0; i--) {
+					if (!expanded.containsKey(node.children[i])) {
+						pending.push(node.children[i]);
+					}
+				}
+			} else {
+				pending.pop();
+				if (!done) {
+					expanded.put(node, Boolean.TRUE);
+					order.add(node);
+				}
+			}
+		}
+		return order;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * Structural equality: same operation over equal operands. Variable names are
+	 * case insensitive, and constants are compared bit by bit (so 0.0 differs from -0.0).
+	 * 
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Node)) {
+			return false;
+		}
+		Node other = (Node) obj;
+		if (hash != other.hash || opcode != other.opcode 
+				|| children.length != other.children.length) {
+			return false;
+		}
+		if (opcode == Program.CONST) {
+			return Double.doubleToLongBits(value) == Double.doubleToLongBits(other.value);
+		}
+		if (opcode == Program.LOAD_X) {
+			return variable.equalsIgnoreCase(other.variable);
+		}
+		if (opcode == Program.HORNER && !Arrays.equals(coefficients, other.coefficients)) {
+			return false;
+		}
+		if (opcode == Program.CALL && function != other.function) {
+			return false;
+		}
+		for (int i = 0; i < children.length; i++) {
+			if (!children[i].equals(other.children[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	private int computeHash() {
+		if (opcode == Program.CONST) {
+			long bits = Double.doubleToLongBits(value);
+			return (int) (bits ^ (bits >>> 32));
+		}
+		if (opcode == Program.LOAD_X) {
+			return variable.toLowerCase(Locale.ENGLISH).hashCode();
+		}
+		int h = opcode;
+		if (coefficients != null) {
+			h = 31 * h + Arrays.hashCode(coefficients);
+		}
+		if (function != null) {
+			h = 31 * h + System.identityHashCode(function);
+		}
+		for (Node child : children) {
+			h = 31 * h + child.hash;
+		}
+		return h;
+	}
+
+	/**
+	 * Builds the tree corresponding to an expression in RPN, checking that it is well formed:
+	 * every operation must find its operands, and a single value must be left at the end.
+	 *
+	 * @param rpn
+	 * @return The root of the tree.
+	 * @throws ExpressionException If the expression is malformed.
+	 */
+	static Node fromRpn(Queue<ExpressionElement> rpn) throws ExpressionException {
+		Stack<Node> nodes = new Stack<Node>();
+
+		for (ExpressionElement el : rpn) {
+			if (el instanceof Value) {
+				nodes.push(constant(((Value)el).innerValue));
+
+			} else if (el instanceof MathConstants) {
+				nodes.push(constant(((MathConstants)el).value));
+
+			} else if (el instanceof NamedConstant) {
+				nodes.push(constant(((NamedConstant)el).value));
+
+			} else if (el instanceof Variable) {
+				nodes.push(variable(((Variable)el).name));
+
+			} else if (el instanceof FunctionCall) {
+				UserFunction function = ((FunctionCall)el).function;
+				nodes.push(call(function, pop(nodes, function.getArity())));
+
+			} else if (el instanceof Evaluable) {
+				Evaluable eval = (Evaluable) el;
+				nodes.push(operation(Program.opcodeOf(eval), pop(nodes, eval.isUnary() ? 1 : 2)));
+
+			} else {
+				throw new ExpressionException("Unexpected at this point: " + el);
+			}
+		}
+
+		if (nodes.size() != 1) {
+			throw new ExpressionException("Malformed expression");
+		}
+		return nodes.pop();
+	}
+
+	/**
+	 * 
+	 * @param nodes
+	 * @param count
+	 * @return The operands of an operation, in order.
+	 * @throws ExpressionException If there are not enough operands.
+	 */
+	private static Node[] pop(Stack<Node> nodes, int count) throws ExpressionException {
+		if (nodes.size() < count) {
+			throw new ExpressionException("Malformed expression");
+		}
+		Node[] operands = new Node[count];
+		for (int i = count - 1; i >= 0; i--) {
+			operands[i] = nodes.pop();
+		}
+		return operands;
+	}
+}
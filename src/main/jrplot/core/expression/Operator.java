@@ -9,37 +9,22 @@ package jrplot.core.expression;
  */
 enum Operator implements Evaluable {
 
-	ADDITION("+", false, 3, false) {
-		@Override
-		public double evaluate(double a, double b) throws ExpressionException {
-			return a + b;
-		}
-	},
-	SUBTRACTION("-", false, 3, false) {
-		@Override
-		public double evaluate(double a, double b) throws ExpressionException {
-			return a - b;
-		}
-	},
-	MULTIPLICATION("*", false, 2, false) {
-		@Override
-		public double evaluate(double a, double b) throws ExpressionException {
-			return a * b;
-		}
-	},
-	DIVISION("/", false, 2, false) {
-		@Override
-		public double evaluate(double a, double b) throws ExpressionException {
-			return a / b;
-		}
-	},
-	EXPONENTIATION("^", false, 1, false) {
-		@Override
-		public double evaluate(double a, double b) throws ExpressionException {
-			return Math.pow(a, b);
+	ADDITION("+", false, 3, false),
+	SUBTRACTION("-", false, 3, false),
+	MULTIPLICATION("*", false, 2, false),
+	DIVISION("/", false, 2, false),
+	EXPONENTIATION("^", false, 1, false)
+	;
+	
+	/**
+	 * Operators indexed by their (ASCII) symbol.
+	 */
+	private static final Operator[] BY_SYMBOL = new Operator[128];
+	static {
+		for (Operator op : values()) {
+			BY_SYMBOL[op.symbol.charAt(0)] = op;
 		}
 	}
-	;
 	
 	private String symbol;
 	private boolean unary;
@@ -71,31 +56,10 @@ enum Operator implements Evaluable {
 	/**
 	 * 
 	 * @param symbol
-	 * @return
-	 * @throws ExpressionException
-	 */
-	static Operator findBySymbol(String symbol) throws ExpressionException {
-		for (Operator fn : values()) {
-			if (symbol.equals(fn.symbol)) {
-				return fn;
-			}
-		}
-		throw new ExpressionException("Invalid operator: " + symbol);
-	}
-	
-	/**
-	 * 
-	 * @param symbol
-	 * @return
+	 * @return The operator represented by the symbol, or null if there is none.
 	 */
-	static boolean isValid(String symbol) {
-		if (symbol == null) return false;
-		for (Operator fn : values()) {
-			if (symbol.equals(fn.symbol)) {
-				return true;
-			}
-		}
-		return false;
+	static Operator find(char symbol) {
+		return symbol < BY_SYMBOL.length ? BY_SYMBOL[symbol] : null;
 	}
 	
 	/*
@@ -106,26 +70,6 @@ enum Operator implements Evaluable {
 		return unary;
 	}
 	
-	/*
-	 * (non-Javadoc)
-	 * Must be ovewriten by instances that represent unary operations.
-	 * 
-	 * @see jrplot.core.expression.Evaluable#evaluate(double)
-	 */
-	public double evaluate(double a) throws ExpressionException {
-		throw new ExpressionException("Function body not implemented");
-	}
-	
-	/*
-	 * (non-Javadoc)
-	 * Must be ovewriten by instances that represent binary operations.
-	 *  
-	 * @see jrplot.core.expression.Evaluable#evaluate(double, double)
-	 */
-	public double evaluate(double a, double b) throws ExpressionException {
-		throw new ExpressionException("Function body not implemented");
-	}
-	
 	@Override
 	public String toString() {
 		return symbol;
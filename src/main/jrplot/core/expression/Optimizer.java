@@ -0,0 +1,190 @@
+package jrplot.core.expression;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Simplifies expression trees before they are compiled.
+ * 
+ * <br /><br />
+ * {@link #optimize(Node)} rewrites the tree:
+ * <ul>
+ * <li>Constant subtrees are folded into a single value, using the same operations as the
+ * interpreter. Ex: 2*PI*x  =>  6.283185307179586*x ; sqrt(2)/2  =>  0.7071067811865476.
+ * This includes the calls to user functions, which are required to be pure.</li>
+ * <li>The multiplications by -1.0 the parser emits for a leading minus sign become 
+ * negations, and double negations cancel out.</li>
+ * <li>Identities: a*1, 1*a, a/1, a+0, 0+a, a-0, a^1  =>  a ; a^0  =>  1 ; x^2  =>  x*x</li>
+ * </ul>
+ * 
+ * Only rewrites that give the same result for every input, including NaN and the
+ * infinities, are applied; so, for example, 0*a and a-a are kept as they are (they are NaN
+ * when a is infinite). The only visible difference is the sign of a zero result on 
+ * a+0 (-0.0 + 0.0 = 0.0). Operations are never reordered, as that could change the rounding.
+ * 
+ * <br /><br />
+ * {@link #shareCommonSubexpressions(Node)} then turns the tree into a DAG, where each 
+ * distinct subexpression is represented by a single node. The compiler evaluates
+ * these shared nodes only once, keeping their result on a register.
+ * 
+ * @author Rodrigo Gomes
+ *
+ */
+final class Optimizer {
+
+	private Optimizer() {
+		
+	}
+	
+	/**
+	 * 
+	 * @param root
+	 * @return The simplified tree.
+	 */
+	static Node optimize(Node root) {
+		Map<Node, Node> optimized = new IdentityHashMap<Node, Node>();
+		for (Node node : Node.postOrder(root)) {
+			optimized.put(node, optimize(node, optimized));
+		}
+		return optimized.get(root);
+	}
+	
+	/**
+	 * 
+	 * @param node
+	 * @param optimized The simplified version of each node already visited.
+	 * @return The simplified version of the node.
+	 */
+	private static Node optimize(Node node, Map<Node, Node> optimized) {
+		if (node.children.length == 0) {
+			return node;
+		}
+		
+		Node[] children = new Node[node.children.length];
+		boolean allConstants = true;
+		for (int i = 0; i < children.length; i++) {
+			children[i] = optimized.get(node.children[i]);
+			allConstants &= children[i].isConstant();
+		}
+		
+		if (allConstants) {
+			double[] args = new double[children.length];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = children[i].value;
+			}
+			if (node.opcode == Program.CALL) {
+				return Node.constant(node.function.apply(args, 0));
+			}
+			return Node.constant(Program.apply(node.opcode, args));
+		}
+		
+		Node a = children[0];
+		Node b = children.length > 1 ? children[1] : null;
+		
+		switch (node.opcode) {
+		case Program.MUL:
+			if (a.isConstant(1.0)) return b;
+			if (b.isConstant(1.0)) return a;
+			if (a.isConstant(-1.0)) return negate(b);
+			if (b.isConstant(-1.0)) return negate(a);
+			break;
+			
+		case Program.DIV:
+			if (b.isConstant(1.0)) return a;
+			if (b.isConstant(-1.0)) return negate(a);
+			break;
+			
+		case Program.ADD:
+			if (a.isConstant(0.0)) return b;
+			if (b.isConstant(0.0)) return a;
+			break;
+			
+		case Program.SUB:
+			if (b.isConstant(0.0)) return a;
+			break;
+			
+		case Program.POW:
+			if (b.isConstant(1.0)) return a;
+			// Math.pow(a, 0) is 1.0 even for NaN
+			if (b.isConstant(0.0)) return Node.constant(1.0);
+			// Only for a variable, so that no subtree is evaluated twice
+			if (b.isConstant(2.0) && a.isVariable()) return Node.operation(Program.MUL, a, a);
+			break;
+			
+		case Program.NEG:
+			return negate(a);
+		}
+		
+		return node.withChildren(children);
+	}
+	
+	/**
+	 * 
+	 * @param node
+	 * @return A node representing -node.
+	 */
+	private static Node negate(Node node) {
+		if (node.opcode == Program.NEG) {
+			return node.children[0];
+		}
+		if (node.isConstant()) {
+			return Node.constant(-node.value);
+		}
+		return Node.operation(Program.NEG, node);
+	}
+
+	/**
+	 * Hash-conses the tree: equal subtrees are replaced by a single instance.
+	 * Operands of commutative operations are matched in both orders, 
+	 * so sin(x)*cos(x) and cos(x)*sin(x) are the same node.
+	 * 
+	 * @param root
+	 * @return The root of the resulting DAG.
+	 */
+	static Node shareCommonSubexpressions(Node root) {
+		return shareCommonSubexpressions(new Node[] {root})[0];
+	}
+	
+	/**
+	 * Shares the common subexpressions of several trees, also between different trees,
+	 * so that a program computing all of them (see {@link Program#compile(Node[], String[])})
+	 * evaluates each subexpression once.
+	 * 
+	 * @param roots
+	 * @return The DAG of each tree, in the same order.
+	 */
+	static Node[] shareCommonSubexpressions(Node[] roots) {
+		Map<Node, Node> table = new HashMap<Node, Node>();
+		Map<Node, Node> shared = new IdentityHashMap<Node, Node>();
+		for (Node node : Node.postOrder(roots)) {
+			shared.put(node, share(node, table, shared));
+		}
+		Node[] result = new Node[roots.length];
+		for (int i = 0; i < roots.length; i++) {
+			result[i] = shared.get(roots[i]);
+		}
+		return result;
+	}
+	
+	private static Node share(Node node, Map<Node, Node> table, Map<Node, Node> shared) {
+		if (node.children.length > 0) {
+			Node[] children = new Node[node.children.length];
+			for (int i = 0; i < children.length; i++) {
+				children[i] = shared.get(node.children[i]);
+			}
+			node = node.withChildren(children);
+		}
+		
+		Node existing = table.get(node);
+		if (existing == null && node.isCommutative()) {
+			existing = table.get(node.withChildren(new Node[] {node.children[1], node.children[0]}));
+		}
+		if (existing != null) {
+			return existing;
+		}
+		
+		table.put(node, node);
+		return node;
+	}
+}
@@ -0,0 +1,307 @@
+package jrplot.core.expression;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Recognizes polynomials in "x" inside expression trees.
+ *
+ * A subtree is considered a polynomial when it is a sum of monomials, such as
+ * 3x^4 - 2x^3 + x - 7 or x*x/2 + 5, possibly multiplied or divided by a constant,
+ * such as 3(x^2 - 1) or (x + 1)/2. Such subtrees are replaced by a HORNER node,
+ * holding the collected coefficients, that the compiler evaluates with Horner's scheme:
+ * one multiplication and one addition per degree, instead of a Math.pow call per term.
+ *
+ * <br /><br />
+ * Products and powers of sums, like (x-1)^10, are deliberately not expanded: the
+ * expanded coefficients could be much larger than the result, and the cancellation between
+ * them would be visible on the plot. Each sum is still compiled as a polynomial on its own.
+ *
+ * <br /><br />
+ * For finite values of x the results are the same as the original expression, up to
+ * rounding; collecting the terms may only change results that overflow (x^2 - x^2 is
+ * always 0, while the original gives NaN beyond 1e154).
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+final class Polynomials {
+
+	/**
+	 * Polynomials of a higher degree are left as they are.
+	 */
+	static final int MAX_DEGREE = 64;
+
+	private Polynomials() {
+
+	}
+
+	/**
+	 * Replaces the polynomial subtrees with HORNER nodes.
+	 * Only polynomials with two or more non-constant terms are replaced: for a single term
+	 * (such as x^3 + 1) the plain operations are already cheaper.
+	 *
+	 * @param root
+	 * @return
+	 */
+	static Node toHornerForm(Node root) {
+		Map<Node, Term> terms = analyze(root);
+		Map<Node, Node> replaced = new IdentityHashMap<Node, Node>();
+		
+		// Bottom-up: when a node is replaced, the replacements made on its subtree are dropped
+		for (Node node : Node.postOrder(root)) {
+			double[] coefficients = terms.get(node).coefficients;
+			if (node.children.length == 0) {
+				replaced.put(node, node);
+				
+			} else if (coefficients != null && nonConstantTerms(coefficients) >= 2) {
+				replaced.put(node, Node.horner(Node.variable("x"), coefficients));
+				
+			} else {
+				Node[] children = new Node[node.children.length];
+				for (int i = 0; i < children.length; i++) {
+					children[i] = replaced.get(node.children[i]);
+				}
+				replaced.put(node, node.withChildren(children));
+			}
+		}
+		return replaced.get(root);
+	}
+
+	/**
+	 * Collects the coefficients of a polynomial.
+	 *
+	 * @param node
+	 * @return The coefficients c[i] of x^i, with no trailing zeros;
+	 * or null if the node is not a polynomial in "x".
+	 */
+	static double[] coefficients(Node node) {
+		return analyze(node).get(node).coefficients;
+	}
+
+	/**
+	 * Finds out, for every node of the tree, whether it is a monomial or a polynomial.
+	 * @param root
+	 * @return
+	 */
+	private static Map<Node, Term> analyze(Node root) {
+		Map<Node, Term> terms = new IdentityHashMap<Node, Term>();
+		for (Node node : Node.postOrder(root)) {
+			Term[] children = new Term[node.children.length];
+			for (int i = 0; i < children.length; i++) {
+				children[i] = terms.get(node.children[i]);
+			}
+			Monomial monomial = monomial(node, children);
+			terms.put(node, new Term(monomial, coefficients(node, monomial, children)));
+		}
+		return terms;
+	}
+
+	/**
+	 *
+	 * @param node
+	 * @param monomial The node as a monomial, or null.
+	 * @param children 
+	 * @return The coefficients of the node, given the ones of its children.
+	 */
+	private static double[] coefficients(Node node, Monomial monomial, Term[] children) {
+		switch (node.opcode) {
+		case Program.ADD:
+		case Program.SUB:
+			double[] a = children[0].coefficients;
+			double[] b = children[1].coefficients;
+			if (a == null || b == null) {
+				return null;
+			}
+			double[] sum = new double[Math.max(a.length, b.length)];
+			for (int i = 0; i < sum.length; i++) {
+				double ai = i < a.length ? a[i] : 0.0;
+				double bi = i < b.length ? b[i] : 0.0;
+				sum[i] = node.opcode == Program.ADD ? ai + bi : ai - bi;
+			}
+			return trim(sum);
+
+		case Program.NEG:
+			double[] p = children[0].coefficients;
+			if (p == null) {
+				return null;
+			}
+			double[] negated = new double[p.length];
+			for (int i = 0; i < p.length; i++) {
+				negated[i] = -p[i];
+			}
+			return negated;
+
+		case Program.MUL:
+			if (monomial == null) {
+				if (isConstant(children[0])) {
+					return scale(children[1].coefficients, children[0].monomial.coefficient, false);
+				}
+				if (isConstant(children[1])) {
+					return scale(children[0].coefficients, children[1].monomial.coefficient, false);
+				}
+			}
+			return coefficients(monomial);
+
+		case Program.DIV:
+			if (monomial == null && isConstant(children[1])) {
+				return scale(children[0].coefficients, children[1].monomial.coefficient, true);
+			}
+			return coefficients(monomial);
+
+		default:
+			return coefficients(monomial);
+		}
+	}
+
+	/**
+	 *
+	 * @param monomial
+	 * @return The coefficients of the monomial, or null if it is null.
+	 */
+	private static double[] coefficients(Monomial monomial) {
+		if (monomial == null) {
+			return null;
+		}
+		double[] coefficients = new double[monomial.degree + 1];
+		coefficients[monomial.degree] = monomial.coefficient;
+		return trim(coefficients);
+	}
+
+	/**
+	 *
+	 * @param p The coefficients of a polynomial, or null.
+	 * @param factor
+	 * @param divide Whether the polynomial is divided by the factor, instead of multiplied.
+	 * @return The coefficients of the polynomial times (or divided by) the factor;
+	 * null if p is null or a coefficient is not finite.
+	 */
+	private static double[] scale(double[] p, double factor, boolean divide) {
+		if (p == null) {
+			return null;
+		}
+		double[] scaled = new double[p.length];
+		for (int i = 0; i < p.length; i++) {
+			scaled[i] = divide ? p[i] / factor : p[i] * factor;
+			if (Double.isNaN(scaled[i]) || Double.isInfinite(scaled[i])) {
+				return null;
+			}
+		}
+		return trim(scaled);
+	}
+
+	private static boolean isConstant(Term term) {
+		return term.monomial != null && term.monomial.degree == 0;
+	}
+
+	/**
+	 *
+	 * @param node
+	 * @param children 
+	 * @return The node as c*x^k, or null if it is not a monomial.
+	 */
+	private static Monomial monomial(Node node, Term[] children) {
+		Monomial a = children.length > 0 ? children[0].monomial : null;
+		Monomial b = children.length > 1 ? children[1].monomial : null;
+
+		switch (node.opcode) {
+		case Program.CONST:
+			return Monomial.of(node.value, 0);
+
+		case Program.LOAD_X:
+			return isX(node) ? Monomial.of(1.0, 1) : null;
+
+		case Program.NEG:
+			return a == null ? null : Monomial.of(-a.coefficient, a.degree);
+
+		case Program.MUL:
+			if (a == null || b == null || a.degree + b.degree > MAX_DEGREE) {
+				return null;
+			}
+			return Monomial.of(a.coefficient * b.coefficient, a.degree + b.degree);
+
+		case Program.DIV:
+			if (a == null || b == null || b.degree != 0) {
+				return null;
+			}
+			return Monomial.of(a.coefficient / b.coefficient, a.degree);
+
+		case Program.POW:
+			Node exponent = node.children[1];
+			if (a == null || !exponent.isConstant() || exponent.value < 0
+					|| exponent.value != Math.rint(exponent.value)
+					|| a.degree * exponent.value > MAX_DEGREE) {
+				return null;
+			}
+			int k = (int) exponent.value;
+			return Monomial.of(Math.pow(a.coefficient, k), a.degree * k);
+
+		default:
+			return null;
+		}
+	}
+
+	private static int nonConstantTerms(double[] coefficients) {
+		int count = 0;
+		for (int i = 1; i < coefficients.length; i++) {
+			if (coefficients[i] != 0.0) count++;
+		}
+		return count;
+	}
+
+	private static boolean isX(Node variable) {
+		return "x".equalsIgnoreCase(variable.variable);
+	}
+
+	private static double[] trim(double[] coefficients) {
+		int length = coefficients.length;
+		while (length > 1 && coefficients[length - 1] == 0.0) {
+			length--;
+		}
+		if (length == coefficients.length) {
+			return coefficients;
+		}
+		double[] trimmed = new double[length];
+		System.arraycopy(coefficients, 0, trimmed, 0, length);
+		return trimmed;
+	}
+
+	/**
+	 * What is known about a node: its form as a monomial and as a polynomial, 
+	 * each of them null if not applicable.
+	 */
+	private static class Term {
+		final Monomial monomial;
+		final double[] coefficients;
+
+		Term(Monomial monomial, double[] coefficients) {
+			this.monomial = monomial;
+			this.coefficients = coefficients;
+		}
+	}
+
+	/**
+	 * A term c*x^k
+	 */
+	private static class Monomial {
+		final double coefficient;
+		final int degree;
+
+		private Monomial(double coefficient, int degree) {
+			this.coefficient = coefficient;
+			this.degree = degree;
+		}
+
+		/**
+		 * 
+		 * @return The monomial, or null if the coefficient is not finite
+		 * (such terms are left to the interpreter, that handles them the IEEE way).
+		 */
+		static Monomial of(double coefficient, int degree) {
+			if (Double.isNaN(coefficient) || Double.isInfinite(coefficient)) {
+				return null;
+			}
+			return new Monomial(coefficient, degree);
+		}
+	}
+}
@@ -0,0 +1,936 @@
+package jrplot.core.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled form of an expression.
+ * The expression tree is flattened into an array of int opcodes (some of them
+ * followed by an operand) and a pool of double constants.
+ *
+ * <br /><br />
+ * The tree is validated when built from the parser output, so every instruction is 
+ * guaranteed to find its operands on the stack and exactly one value is left at the end. 
+ * The maximum stack depth is calculated when compiling, so that the evaluation can run 
+ * over a preallocated array, without allocation and boxing.
+ *
+ * <br /><br />
+ * Programs may be evaluated one value at a time, or over blocks of x values (column
+ * vectors), in which case each instruction runs once per block, in a tight loop.
+ * 
+ * <br /><br />
+ * Instances are immutable and may be shared between threads; the working areas passed
+ * to the execute methods are the only mutable state.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+final class Program {
+
+	/*
+	 * Opcodes. CONST and the *_C operations are followed by an operand: the index on the
+	 * constant pool. POWI is followed by the (integer) exponent.
+	 */
+	static final int CONST = 0;
+	static final int LOAD_X = 1;
+
+	static final int ADD = 2;
+	static final int SUB = 3;
+	static final int MUL = 4;
+	static final int DIV = 5;
+	static final int POW = 6;
+
+	static final int ABS = 7;
+	static final int ACOS = 8;
+	static final int ASIN = 9;
+	static final int ATAN = 10;
+	static final int COS = 11;
+	static final int EXP = 12;
+	static final int LOG = 13;
+	static final int LOGTEN = 14;
+	static final int MIN = 15;
+	static final int MAX = 16;
+	static final int SIN = 17;
+	static final int SQRT = 18;
+	static final int TAN = 19;
+
+	/*
+	 * Operations with a constant operand, produced when compiling the program.
+	 * ADD_C c  :  a + c
+	 * RSUB_C c :  c - a
+	 * RDIV_C c :  c / a
+	 * POWI k   :  a ^ k
+	 */
+	static final int ADD_C = 20;
+	static final int SUB_C = 21;
+	static final int RSUB_C = 22;
+	static final int MUL_C = 23;
+	static final int DIV_C = 24;
+	static final int RDIV_C = 25;
+	static final int POWI = 26;
+
+	/**
+	 * Unary minus. Produced by the {@link Optimizer}, replacing the multiplications by -1.0
+	 * the parser emits for "-x".
+	 */
+	static final int NEG = 27;
+
+	/*
+	 * Registers, holding the values of common subexpressions.
+	 * STORE r copies the top of the stack to the register r; LOAD r pushes its value.
+	 */
+	static final int STORE = 28;
+	static final int LOAD = 29;
+
+	/**
+	 * Polynomial of the top of the stack, evaluated with Horner's scheme.
+	 * Followed by two operands: the position on the constant pool of the coefficient of 
+	 * degree 0 (the others follow it, in increasing degree), and the degree.
+	 */
+	static final int HORNER = 30;
+
+	/**
+	 * Call to a {@link UserFunction}, followed by its position on the functions array.
+	 * Takes as many operands as the arity of the function.
+	 */
+	static final int CALL = 31;
+
+	/**
+	 * Loads a variable other than "x", followed by its slot: the position of its value
+	 * on the bindings array.
+	 */
+	static final int LOAD_VAR = 32;
+
+	/**
+	 * Pops the top of the stack into an output, followed by its position. Only produced
+	 * when several expressions are compiled together (see {@link #compile(Node[], String[])}).
+	 */
+	static final int OUTPUT = 33;
+
+	/**
+	 * Number of x values evaluated at once by the column version of execute.
+	 * Small enough to keep the working columns in the L1/L2 cache.
+	 */
+	static final int BLOCK_SIZE = 256;
+
+	final int[] code;
+	final double[] constants;
+	final UserFunction[] functions;
+	final int maxStackDepth;
+	final int registerCount;
+
+	/**
+	 * Number of results of the program: 1, unless several expressions were compiled together.
+	 */
+	final int outputCount;
+
+	/**
+	 * Name of a variable other than "x" found in the expression, or null.
+	 * Such expressions can only be evaluated with a bindings array.
+	 */
+	final String unboundVariable;
+
+	private Program(int[] code, double[] constants, UserFunction[] functions, 
+			int maxStackDepth, int registerCount, int outputCount, String unboundVariable) {
+		this.code = code;
+		this.constants = constants;
+		this.functions = functions;
+		this.maxStackDepth = maxStackDepth;
+		this.registerCount = registerCount;
+		this.outputCount = outputCount;
+		this.unboundVariable = unboundVariable;
+	}
+
+	/**
+	 * Translates an expression tree into a program.
+	 * 
+	 * Binary operations with a constant operand are compiled into the *_C forms, and 
+	 * powers with a small integer exponent into POWI. 
+	 * 
+	 * The root may also be a DAG (see {@link Optimizer#shareCommonSubexpressions(Node)}):
+	 * nodes with more than one parent are evaluated once, and then read from a register.
+	 * 
+	 * Variables other than "x" are read from the bindings array passed to the execute 
+	 * methods, at the position of their name in the variables array (the slot).
+	 * 
+	 * @param root
+	 * @param variables Names of the variables, in lower case, in slot order. 
+	 * Must contain every variable of the tree.
+	 * @return
+	 */
+	static Program compile(Node root, String[] variables) {
+		Builder builder = new Builder(variables);
+		builder.countReferences(root);
+		builder.emit(root);
+		return builder.build(1);
+	}
+
+	/**
+	 * Translates several expression trees into a single program, that computes all of them
+	 * in one pass: the result of each root is sent to the output with its position, with OUTPUT.
+	 * 
+	 * The roots may share nodes (see {@link Optimizer#shareCommonSubexpressions(Node[])}), 
+	 * and these are evaluated only once for all of them.
+	 * 
+	 * @param roots
+	 * @param variables Names of the variables of all the trees, as in {@link #compile(Node, String[])}.
+	 * @return
+	 */
+	static Program compile(Node[] roots, String[] variables) {
+		Builder builder = new Builder(variables);
+		builder.countReferences(roots);
+		for (int i = 0; i < roots.length; i++) {
+			builder.emit(roots[i]);
+			builder.output(i);
+		}
+		return builder.build(roots.length);
+	}
+
+	/**
+	 * Arity of an operation.
+	 * @param opcode
+	 * @return
+	 */
+	static int arity(int opcode) {
+		switch (opcode) {
+		case CONST:
+		case LOAD_X:
+		case LOAD_VAR:
+			return 0;
+		case ADD:
+		case SUB:
+		case MUL:
+		case DIV:
+		case POW:
+		case MIN:
+		case MAX:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * Applies a single operation, with the same semantics used when running a program.
+	 * @param opcode
+	 * @param args
+	 * @return
+	 */
+	static double apply(int opcode, double[] args) {
+		switch (opcode) {
+		case ADD: return args[0] + args[1];
+		case SUB: return args[0] - args[1];
+		case MUL: return args[0] * args[1];
+		case DIV: return args[0] / args[1];
+		case POW: return Math.pow(args[0], args[1]);
+		case NEG: return -args[0];
+		case ABS: return Math.abs(args[0]);
+		case ACOS: return Math.acos(args[0]);
+		case ASIN: return Math.asin(args[0]);
+		case ATAN: return Math.atan(args[0]);
+		case COS: return Math.cos(args[0]);
+		case EXP: return Math.exp(args[0]);
+		case LOG: return Math.log(args[0]);
+		case LOGTEN: return Math.log10(args[0]);
+		case MIN: return Math.min(args[0], args[1]);
+		case MAX: return Math.max(args[0], args[1]);
+		case SIN: return Math.sin(args[0]);
+		case SQRT: return Math.sqrt(args[0]);
+		case TAN: return Math.tan(args[0]);
+		default:
+			throw new IllegalArgumentException("Not an operation: " + opcode);
+		}
+	}
+
+	/**
+	 *
+	 * @param eval
+	 * @return
+	 * @throws ExpressionException
+	 */
+	static int opcodeOf(Evaluable eval) throws ExpressionException {
+		if (eval instanceof Operator) {
+			switch ((Operator) eval) {
+			case ADDITION: return ADD;
+			case SUBTRACTION: return SUB;
+			case MULTIPLICATION: return MUL;
+			case DIVISION: return DIV;
+			case EXPONENTIATION: return POW;
+			}
+		} else if (eval instanceof Function) {
+			switch ((Function) eval) {
+			case ABS: return ABS;
+			case ACOS: return ACOS;
+			case ASIN: return ASIN;
+			case ATAN: return ATAN;
+			case COS: return COS;
+			case EXP: return EXP;
+			case LOG: return LOG;
+			case LOGTEN: return LOGTEN;
+			case MIN: return MIN;
+			case MAX: return MAX;
+			case SIN: return SIN;
+			case SQRT: return SQRT;
+			case TAN: return TAN;
+			}
+		}
+		throw new ExpressionException("Unsupported operation: " + eval);
+	}
+
+	/**
+	 * Accumulates the instructions while the tree is traversed.
+	 */
+	private static class Builder {
+		private int[] code = new int[16];
+		private int codeLength;
+		private final List<Double> constants = new ArrayList<Double>();
+		private final Map<Long, Integer> constantIndexes = new HashMap<Long, Integer>();
+		private final List<UserFunction> functions = new ArrayList<UserFunction>();
+		private final String[] variables;
+		private String unboundVariable;
+		private int depth;
+		private int maxDepth;
+		
+		private final Map<Node, Integer> references = new IdentityHashMap<Node, Integer>();
+		private final Map<Node, Integer> registers = new IdentityHashMap<Node, Integer>();
+		
+		Builder(String[] variables) {
+			this.variables = variables;
+		}
+		
+		/**
+		 * Counts how many parents each node has, the roots counting as one more.
+		 * @param roots
+		 */
+		void countReferences(Node... roots) {
+			for (Node root : roots) {
+				Integer count = references.get(root);
+				references.put(root, count == null ? 1 : count + 1);
+			}
+			for (Node node : Node.postOrder(roots)) {
+				for (Node child : node.children) {
+					Integer count = references.get(child);
+					references.put(child, count == null ? 1 : count + 1);
+				}
+			}
+		}
+
+		/**
+		 * Emits the instructions of a tree, in post-order. The traversal keeps its own stack,
+		 * so that long expressions (that make deep trees) cannot overflow the thread stack.
+		 * @param root
+		 */
+		void emit(Node root) {
+			List<Frame> frames = new ArrayList<Frame>();
+			enter(root, frames);
+			while (!frames.isEmpty()) {
+				Frame top = frames.get(frames.size() - 1);
+				if (top.next < top.operands.length) {
+					enter(top.operands[top.next++], frames);
+				} else {
+					frames.remove(frames.size() - 1);
+					finish(top.node);
+				}
+			}
+		}
+		
+		/**
+		 * Starts emitting a node: nodes already evaluated are loaded from their register, 
+		 * the others get a frame, to have their operands emitted.
+		 */
+		private void enter(Node node, List<Frame> frames) {
+			Integer register = registers.get(node);
+			if (register != null) {
+				instruction(LOAD, register);
+				push();
+			} else {
+				frames.add(new Frame(node, operands(node)));
+			}
+		}
+		
+		/**
+		 * 
+		 * @param node
+		 * @return The operands that must be on the stack before the instruction of the node.
+		 * Constant operands are not pushed when the operation has a constant form.
+		 */
+		private static Node[] operands(Node node) {
+			if (node.children.length == 2) {
+				Node a = node.children[0];
+				Node b = node.children[1];
+				if (b.isConstant() && (constantForm(node.opcode, false) >= 0 || isIntegerPower(node))) {
+					return new Node[] {a};
+				}
+				if (a.isConstant() && constantForm(node.opcode, true) >= 0) {
+					return new Node[] {b};
+				}
+			}
+			return node.children;
+		}
+		
+		private static boolean isIntegerPower(Node node) {
+			return node.opcode == POW && node.children[1].isConstant() 
+					&& Kernels.isIntegerExponent(node.children[1].value);
+		}
+		
+		/**
+		 * Emits the instruction of a node, once its operands are on the stack.
+		 * Nodes with more than one parent are then stored on a register.
+		 * @param node
+		 */
+		private void finish(Node node) {
+			emitInstruction(node);
+			
+			if (node.children.length > 0 && references.get(node) > 1) {
+				int register = registers.size();
+				registers.put(node, register);
+				instruction(STORE, register);
+			}
+		}
+		
+		private void emitInstruction(Node node) {
+			switch (node.opcode) {
+			case CONST:
+				instruction(CONST, constantIndex(node.value));
+				push();
+				return;
+
+			case LOAD_X:
+				if ("x".equalsIgnoreCase(node.variable)) {
+					instruction(LOAD_X);
+				} else {
+					if (unboundVariable == null) {
+						unboundVariable = node.variable;
+					}
+					instruction(LOAD_VAR, slotOf(node.variable));
+				}
+				push();
+				return;
+				
+			case HORNER:
+				int first = constants.size();
+				for (double c : node.coefficients) {
+					constants.add(c);
+				}
+				instruction(HORNER, first, node.coefficients.length - 1);
+				// The polynomial kernel uses the column above the top of the stack
+				if (depth + 1 > maxDepth) maxDepth = depth + 1;
+				return;
+				
+			case CALL:
+				instruction(CALL, functionIndex(node.function));
+				depth = depth - node.children.length + 1;
+				return;
+			}
+
+			if (node.children.length == 2) {
+				Node a = node.children[0];
+				Node b = node.children[1];
+				
+				// "a op c" => "a op_c(c)"
+				int fused = constantForm(node.opcode, false);
+				if (b.isConstant() && fused >= 0) {
+					instruction(fused, constantIndex(b.value));
+					return;
+				}
+				if (isIntegerPower(node)) {
+					instruction(POWI, (int) b.value);
+					// The power kernel uses the column above the top of the stack
+					if (depth + 1 > maxDepth) maxDepth = depth + 1;
+					return;
+				}
+
+				// "c op b" => "b op_c(c)"
+				fused = constantForm(node.opcode, true);
+				if (a.isConstant() && fused >= 0) {
+					instruction(fused, constantIndex(a.value));
+					return;
+				}
+			}
+
+			instruction(node.opcode);
+			depth = depth - node.children.length + 1;
+		}
+
+		/**
+		 * 
+		 * @param opcode
+		 * @param constantOnLeft
+		 * @return The opcode of the operation with a constant operand, or -1 if there is none.
+		 */
+		private static int constantForm(int opcode, boolean constantOnLeft) {
+			switch (opcode) {
+			case ADD: return ADD_C;
+			case SUB: return constantOnLeft ? RSUB_C : SUB_C;
+			case MUL: return MUL_C;
+			case DIV: return constantOnLeft ? RDIV_C : DIV_C;
+			default:
+				return -1;
+			}
+		}
+
+		/**
+		 * Sends the value on the top of the stack to an output.
+		 * @param output
+		 */
+		void output(int output) {
+			instruction(OUTPUT, output);
+			depth--;
+		}
+
+		private void push() {
+			depth++;
+			if (depth > maxDepth) maxDepth = depth;
+		}
+
+		private void instruction(int... words) {
+			if (codeLength + words.length > code.length) {
+				code = Arrays.copyOf(code, code.length * 2);
+			}
+			for (int w : words) {
+				code[codeLength++] = w;
+			}
+		}
+
+		private int constantIndex(double value) {
+			Long key = Double.doubleToRawLongBits(value);
+			Integer idx = constantIndexes.get(key);
+			if (idx == null) {
+				idx = constants.size();
+				constants.add(value);
+				constantIndexes.put(key, idx);
+			}
+			return idx;
+		}
+
+		private int slotOf(String variable) {
+			for (int i = 0; i < variables.length; i++) {
+				if (variables[i].equalsIgnoreCase(variable)) {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException("Variable without a slot: " + variable);
+		}
+
+		private int functionIndex(UserFunction function) {
+			for (int i = 0; i < functions.size(); i++) {
+				if (functions.get(i) == function) {
+					return i;
+				}
+			}
+			functions.add(function);
+			return functions.size() - 1;
+		}
+
+		Program build(int outputCount) {
+			double[] pool = new double[constants.size()];
+			for (int i = 0; i < pool.length; i++) {
+				pool[i] = constants.get(i);
+			}
+			return new Program(Arrays.copyOf(code, codeLength), pool, 
+					functions.toArray(new UserFunction[functions.size()]), maxDepth, registers.size(),
+					outputCount, unboundVariable);
+		}
+	}
+
+	/**
+	 * A node being emitted, with the position of its next operand.
+	 */
+	private static final class Frame {
+		final Node node;
+		final Node[] operands;
+		int next;
+		
+		Frame(Node node, Node[] operands) {
+			this.node = node;
+			this.operands = operands;
+		}
+	}
+
+	/**
+	 * Runs the program.
+	 *
+	 * @param x Value of the "x" variable.
+	 * @param bindings Values of the other variables, by slot. May be null if there are none.
+	 * @param stack Working area, as returned by {@link #newStack()}.
+	 * @return
+	 */
+	double execute(double x, double[] bindings, double[] stack) {
+		return execute(x, bindings, stack, null);
+	}
+
+	/**
+	 * Runs the program, storing each one of its results on an output.
+	 *
+	 * @param x Value of the "x" variable.
+	 * @param bindings Values of the other variables, by slot. May be null if there are none.
+	 * @param stack Working area, as returned by {@link #newStack()}.
+	 * @param outs Receives the results, by position (see {@link #outputCount}). 
+	 * May be null if the program has a single result.
+	 * @return The first result.
+	 */
+	double execute(double x, double[] bindings, double[] stack, double[] outs) {
+		final int[] code = this.code;
+		final double[] constants = this.constants;
+		// The registers are stored right after the stack
+		final int registers = maxStackDepth;
+		int sp = -1;
+
+		for (int pc = 0; pc < code.length; pc++) {
+			switch (code[pc]) {
+			case CONST:
+				stack[++sp] = constants[code[++pc]];
+				break;
+			case LOAD_X:
+				stack[++sp] = x;
+				break;
+			case LOAD_VAR:
+				stack[++sp] = bindings[code[++pc]];
+				break;
+			case ADD:
+				sp--;
+				stack[sp] = stack[sp] + stack[sp + 1];
+				break;
+			case SUB:
+				sp--;
+				stack[sp] = stack[sp] - stack[sp + 1];
+				break;
+			case MUL:
+				sp--;
+				stack[sp] = stack[sp] * stack[sp + 1];
+				break;
+			case DIV:
+				sp--;
+				stack[sp] = stack[sp] / stack[sp + 1];
+				break;
+			case POW:
+				sp--;
+				stack[sp] = Math.pow(stack[sp], stack[sp + 1]);
+				break;
+			case ABS:
+				stack[sp] = Math.abs(stack[sp]);
+				break;
+			case ACOS:
+				stack[sp] = Math.acos(stack[sp]);
+				break;
+			case ASIN:
+				stack[sp] = Math.asin(stack[sp]);
+				break;
+			case ATAN:
+				stack[sp] = Math.atan(stack[sp]);
+				break;
+			case COS:
+				stack[sp] = Math.cos(stack[sp]);
+				break;
+			case EXP:
+				stack[sp] = Math.exp(stack[sp]);
+				break;
+			case LOG:
+				stack[sp] = Math.log(stack[sp]);
+				break;
+			case LOGTEN:
+				stack[sp] = Math.log10(stack[sp]);
+				break;
+			case MIN:
+				sp--;
+				stack[sp] = Math.min(stack[sp], stack[sp + 1]);
+				break;
+			case MAX:
+				sp--;
+				stack[sp] = Math.max(stack[sp], stack[sp + 1]);
+				break;
+			case SIN:
+				stack[sp] = Math.sin(stack[sp]);
+				break;
+			case SQRT:
+				stack[sp] = Math.sqrt(stack[sp]);
+				break;
+			case TAN:
+				stack[sp] = Math.tan(stack[sp]);
+				break;
+			case ADD_C:
+				stack[sp] = stack[sp] + constants[code[++pc]];
+				break;
+			case SUB_C:
+				stack[sp] = stack[sp] - constants[code[++pc]];
+				break;
+			case RSUB_C:
+				stack[sp] = constants[code[++pc]] - stack[sp];
+				break;
+			case MUL_C:
+				stack[sp] = stack[sp] * constants[code[++pc]];
+				break;
+			case DIV_C:
+				stack[sp] = stack[sp] / constants[code[++pc]];
+				break;
+			case RDIV_C:
+				stack[sp] = constants[code[++pc]] / stack[sp];
+				break;
+			case POWI:
+				stack[sp] = Kernels.power(stack[sp], code[++pc]);
+				break;
+			case NEG:
+				stack[sp] = -stack[sp];
+				break;
+			case STORE:
+				stack[registers + code[++pc]] = stack[sp];
+				break;
+			case LOAD:
+				stack[++sp] = stack[registers + code[++pc]];
+				break;
+			case HORNER:
+				int first = code[++pc];
+				int degree = code[++pc];
+				double t = stack[sp];
+				double r = constants[first + degree];
+				for (int i = first + degree - 1; i >= first; i--) {
+					r = r * t + constants[i];
+				}
+				stack[sp] = r;
+				break;
+			case CALL:
+				UserFunction f = functions[code[++pc]];
+				int arity = f.getArity();
+				sp -= arity - 1;
+				if (arity == 1) {
+					stack[sp] = f.apply(stack[sp]);
+				} else if (arity == 2) {
+					stack[sp] = f.apply(stack[sp], stack[sp + 1]);
+				} else {
+					stack[sp] = f.apply(stack, sp);
+				}
+				break;
+			case OUTPUT:
+				outs[code[++pc]] = stack[sp--];
+				break;
+			}
+		}
+
+		return outs == null ? stack[0] : outs[0];
+	}
+
+	/**
+	 * Allocates the working area for {@link #execute(double, double[], double[])}.
+	 * @return
+	 */
+	double[] newStack() {
+		return new double[maxStackDepth + registerCount];
+	}
+
+	/**
+	 * Allocates the working area for {@link #execute(double[], double[], double[], int, double[][])}.
+	 * @return
+	 */
+	double[][] newColumns() {
+		return new double[maxStackDepth + registerCount][BLOCK_SIZE];
+	}
+
+	/**
+	 * Runs the program for each one of the supplied x values.
+	 *
+	 * @param xs Values of the "x" variable.
+	 * @param bindings Values of the other variables, by slot. May be null if there are none.
+	 * @param out Receives the results. May be the same array as xs.
+	 * @param length Number of values to be evaluated.
+	 * @param columns Working area, as returned by {@link #newColumns()}.
+	 */
+	void execute(double[] xs, double[] bindings, double[] out, int length, double[][] columns) {
+		for (int start = 0; start < length; start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, length - start);
+			executeBlock(xs, bindings, start, n, columns, null);
+			System.arraycopy(columns[0], 0, out, start, n);
+		}
+	}
+
+	/**
+	 * Runs the program for each one of the supplied x values, storing each one of its 
+	 * results on an output.
+	 *
+	 * @param xs Values of the "x" variable.
+	 * @param bindings Values of the other variables, by slot. May be null if there are none.
+	 * @param outs Receive the results, by position (see {@link #outputCount}).
+	 * @param length Number of values to be evaluated.
+	 * @param columns Working area, as returned by {@link #newColumns()}.
+	 */
+	void execute(double[] xs, double[] bindings, double[][] outs, int length, double[][] columns) {
+		for (int start = 0; start < length; start += BLOCK_SIZE) {
+			executeBlock(xs, bindings, start, Math.min(BLOCK_SIZE, length - start), columns, outs);
+		}
+	}
+
+	/**
+	 * Runs the program over a single block. The results of OUTPUT go to the same positions
+	 * of the outputs; the result of a program without OUTPUT is left on columns[0].
+	 */
+	private void executeBlock(double[] xs, double[] bindings, int offset, int n, double[][] columns,
+			double[][] outs) {
+		final int[] code = this.code;
+		final double[] constants = this.constants;
+		final int registers = maxStackDepth;
+		int sp = -1;
+
+		for (int pc = 0; pc < code.length; pc++) {
+			double[] a;
+			double[] b;
+
+			switch (code[pc]) {
+			case CONST:
+				Kernels.fill(columns[++sp], constants[code[++pc]], n);
+				break;
+			case LOAD_X:
+				System.arraycopy(xs, offset, columns[++sp], 0, n);
+				break;
+			case LOAD_VAR:
+				Kernels.fill(columns[++sp], bindings[code[++pc]], n);
+				break;
+			case ADD:
+				b = columns[sp--];
+				Kernels.add(columns[sp], b, n);
+				break;
+			case SUB:
+				b = columns[sp--];
+				Kernels.subtract(columns[sp], b, n);
+				break;
+			case MUL:
+				b = columns[sp--];
+				Kernels.multiply(columns[sp], b, n);
+				break;
+			case DIV:
+				b = columns[sp--];
+				Kernels.divide(columns[sp], b, n);
+				break;
+			case POW:
+				b = columns[sp--];
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.pow(a[i], b[i]);
+				break;
+			case ABS:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.abs(a[i]);
+				break;
+			case ACOS:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.acos(a[i]);
+				break;
+			case ASIN:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.asin(a[i]);
+				break;
+			case ATAN:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.atan(a[i]);
+				break;
+			case COS:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.cos(a[i]);
+				break;
+			case EXP:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.exp(a[i]);
+				break;
+			case LOG:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.log(a[i]);
+				break;
+			case LOGTEN:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.log10(a[i]);
+				break;
+			case MIN:
+				b = columns[sp--];
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.min(a[i], b[i]);
+				break;
+			case MAX:
+				b = columns[sp--];
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.max(a[i], b[i]);
+				break;
+			case SIN:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.sin(a[i]);
+				break;
+			case SQRT:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.sqrt(a[i]);
+				break;
+			case TAN:
+				a = columns[sp];
+				for (int i = 0; i < n; i++) a[i] = Math.tan(a[i]);
+				break;
+			case ADD_C:
+				Kernels.add(columns[sp], constants[code[++pc]], n);
+				break;
+			case SUB_C:
+				Kernels.subtract(columns[sp], constants[code[++pc]], n);
+				break;
+			case RSUB_C:
+				Kernels.subtractFrom(constants[code[++pc]], columns[sp], n);
+				break;
+			case MUL_C:
+				Kernels.multiply(columns[sp], constants[code[++pc]], n);
+				break;
+			case DIV_C:
+				Kernels.divide(columns[sp], constants[code[++pc]], n);
+				break;
+			case RDIV_C:
+				Kernels.divideFrom(constants[code[++pc]], columns[sp], n);
+				break;
+			case POWI:
+				// The compiler reserves the column above the top of the stack for this kernel
+				Kernels.power(columns[sp], columns[sp + 1], code[++pc], n);
+				break;
+			case NEG:
+				Kernels.negate(columns[sp], n);
+				break;
+			case STORE:
+				System.arraycopy(columns[sp], 0, columns[registers + code[++pc]], 0, n);
+				break;
+			case LOAD:
+				System.arraycopy(columns[registers + code[++pc]], 0, columns[++sp], 0, n);
+				break;
+			case HORNER:
+				int first = code[++pc];
+				Kernels.polynomial(columns[sp], columns[sp + 1], constants, first, code[++pc], n);
+				break;
+			case CALL:
+				UserFunction f = functions[code[++pc]];
+				sp -= f.getArity() - 1;
+				call(f, columns, sp, n);
+				break;
+			case OUTPUT:
+				System.arraycopy(columns[sp--], 0, outs[code[++pc]], offset, n);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Applies a user function over a block. The arguments are on the columns first, 
+	 * first + 1, ..., and the results are stored on the column first.
+	 */
+	private static void call(UserFunction f, double[][] columns, int first, int n) {
+		double[] a = columns[first];
+		switch (f.getArity()) {
+		case 1:
+			for (int i = 0; i < n; i++) a[i] = f.apply(a[i]);
+			break;
+		case 2:
+			double[] b = columns[first + 1];
+			for (int i = 0; i < n; i++) a[i] = f.apply(a[i], b[i]);
+			break;
+		default:
+			double[] args = new double[f.getArity()];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < args.length; j++) {
+					args[j] = columns[first + j][i];
+				}
+				a[i] = f.apply(args, 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package jrplot.core.expression;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Names known by the expression parser: the built-in functions and constants, plus the
+ * ones registered by the application.
+ *
+ * <br /><br />
+ * Names are case insensitive, and are made of letters only. Single letters are reserved for
+ * variables (except for the built-in constant E).
+ *
+ * <br /><br />
+ * Lookups go through an open-addressing hash table, probed directly with the token
+ * found by the {@link Lexer}, so no string is created while parsing. The table is
+ * immutable: registrations build a new one, which is then published to the parsers,
+ * so lookups need no locking. Expressions already parsed are not affected by later
+ * registrations.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class SymbolRegistry {
+
+	/**
+	 * Every symbol, by lower case name.
+	 * Guarded by the class lock.
+	 */
+	private static final Map<String, ExpressionElement> symbols =
+			new LinkedHashMap<String, ExpressionElement>();
+
+	private static volatile Table table;
+
+	/**
+	 * Incremented on every change.
+	 */
+	private static volatile int generation;
+
+	static {
+		for (Function fn : Function.values()) {
+			symbols.put(fold(fn.name()), fn);
+		}
+		for (MathConstants c : MathConstants.values()) {
+			symbols.put(fold(c.name()), c);
+		}
+		table = new Table(symbols);
+	}
+
+	private SymbolRegistry() {
+
+	}
+
+	/**
+	 * Makes a function available to the expressions parsed from now on.
+	 * A function or constant previously registered with the same name is replaced.
+	 *
+	 * @param name
+	 * @param function
+	 * @throws IllegalArgumentException If the name is not valid, or is a built-in name;
+	 * or if the function does not override the apply method matching its arity.
+	 */
+	public static synchronized void registerFunction(String name, UserFunction function) {
+		if (function == null) {
+			throw new IllegalArgumentException("Function must not be null");
+		}
+		if (!function.isImplemented()) {
+			throw new IllegalArgumentException("Function body not implemented for "
+					+ function.getArity() + " argument(s): " + name);
+		}
+		register(name, new FunctionCall(name, function));
+	}
+
+	/**
+	 * Makes a constant available to the expressions parsed from now on.
+	 * A function or constant previously registered with the same name is replaced.
+	 *
+	 * @param name
+	 * @param value
+	 * @throws IllegalArgumentException If the name is not valid, or is a built-in name.
+	 */
+	public static synchronized void registerConstant(String name, double value) {
+		register(name, new NamedConstant(name, value));
+	}
+
+	/**
+	 * Removes a function or constant registered by the application.
+	 *
+	 * @param name
+	 * @return True if the name was registered.
+	 * @throws IllegalArgumentException If it is a built-in name.
+	 */
+	public static synchronized boolean unregister(String name) {
+		String key = fold(name);
+		if (isBuiltIn(symbols.get(key))) {
+			throw new IllegalArgumentException("Built-in names cannot be removed: " + name);
+		}
+		if (symbols.remove(key) == null) {
+			return false;
+		}
+		table = new Table(symbols);
+		generation++;
+		return true;
+	}
+
+	private static void register(String name, ExpressionElement symbol) {
+		if (name == null || name.length() < 2) {
+			throw new IllegalArgumentException("Names must have at least two letters: " + name);
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (!Character.isLetter(name.charAt(i))) {
+				throw new IllegalArgumentException("Names must have only letters: " + name);
+			}
+		}
+		String key = fold(name);
+		if (isBuiltIn(symbols.get(key))) {
+			throw new IllegalArgumentException("Built-in names cannot be redefined: " + name);
+		}
+		symbols.put(key, symbol);
+		table = new Table(symbols);
+		generation++;
+	}
+
+	private static boolean isBuiltIn(ExpressionElement symbol) {
+		return symbol instanceof Function || symbol instanceof MathConstants;
+	}
+
+	private static String fold(String name) {
+		return name.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * 
+	 * @return A number that changes whenever a name is registered or removed, so that
+	 * the results of the previous parsing can be told apart.
+	 */
+	static int generation() {
+		return generation;
+	}
+
+	/**
+	 *
+	 * @param token
+	 * @return The symbol named by the current token of the lexer: a {@link Function},
+	 * {@link MathConstants}, {@link FunctionCall} or {@link NamedConstant}; or null if the
+	 * name is not known.
+	 */
+	static ExpressionElement lookup(Lexer token) {
+		return table.get(token);
+	}
+
+	/**
+	 * Immutable hash table, with linear probing.
+	 */
+	private static final class Table {
+		private final String[] names;
+		private final ExpressionElement[] elements;
+		private final int mask;
+
+		Table(Map<String, ExpressionElement> symbols) {
+			// At most half full, so that most lookups end on the first probe
+			int capacity = Integer.highestOneBit(Math.max(symbols.size(), 4) * 4 - 1);
+			names = new String[capacity];
+			elements = new ExpressionElement[capacity];
+			mask = capacity - 1;
+
+			for (Map.Entry<String, ExpressionElement> e : symbols.entrySet()) {
+				String name = e.getKey();
+				int i = spread(Lexer.foldedHash(name, 0, name.length())) & mask;
+				while (names[i] != null) {
+					i = (i + 1) & mask;
+				}
+				names[i] = name;
+				elements[i] = e.getValue();
+			}
+		}
+
+		ExpressionElement get(Lexer token) {
+			int i = spread(token.foldedHash()) & mask;
+			while (names[i] != null) {
+				if (token.matches(names[i])) {
+					return elements[i];
+				}
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+
+		private static int spread(int h) {
+			return h ^ (h >>> 16);
+		}
+	}
+}
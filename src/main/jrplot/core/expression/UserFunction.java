@@ -0,0 +1,124 @@
+package jrplot.core.expression;
+
+/**
+ * A function defined by the application, that can be used in expressions once
+ * registered on the {@link SymbolRegistry}.
+ *
+ * <br /><br />
+ * Implementations override the apply method matching their arity: apply(a) for unary
+ * functions, apply(a, b) for binary ones, and apply(args, offset) for the others.
+ * This is checked by {@link SymbolRegistry#registerFunction(String, UserFunction)}, so
+ * a missing body is reported when the function is registered, not when it is called.
+ *
+ * <br /><br />
+ * Usage:
+ * <br />
+ * <code>
+ * SymbolRegistry.registerFunction("sinc", new UserFunction(1) {
+ * <br />&nbsp;&nbsp;public double apply(double a) { return a == 0 ? 1 : Math.sin(a) / a; }
+ * <br />});
+ * <br />
+ * Expression exp = Expression.parse("sinc(2x)");
+ * </code>
+ *
+ * <br /><br />
+ * Functions must be pure: the result must depend only on the arguments, and calls must have
+ * no side effects. The optimizer relies on it to evaluate calls with constant arguments
+ * while parsing, and to call the function once for repeated subexpressions.
+ * They may also be called by several threads at the same time.
+ *
+ * <br /><br />
+ * Compiled expressions call the function directly (see {@link Expression#toFunction()}),
+ * so HotSpot can inline it into the rest of the formula.
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public abstract class UserFunction {
+
+	private final int arity;
+
+	/**
+	 *
+	 * @param arity Number of arguments. Must be at least one.
+	 */
+	protected UserFunction(int arity) {
+		if (arity < 1) {
+			throw new IllegalArgumentException("Invalid arity: " + arity);
+		}
+		this.arity = arity;
+	}
+
+	/**
+	 *
+	 * @return Number of arguments of the function.
+	 */
+	public final int getArity() {
+		return arity;
+	}
+
+	/**
+	 * Must be overwritten by unary functions.
+	 * @param a
+	 * @return
+	 */
+	public double apply(double a) {
+		throw new UnsupportedOperationException("Function body not implemented");
+	}
+
+	/**
+	 * Must be overwritten by binary functions.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public double apply(double a, double b) {
+		throw new UnsupportedOperationException("Function body not implemented");
+	}
+
+	/**
+	 * Must be overwritten by functions with three or more arguments.
+	 * For the others, calls the unary or binary version.
+	 *
+	 * @param args Array holding the arguments. Must not be modified, nor kept after the call.
+	 * @param offset Position of the first argument on the array.
+	 * @return
+	 */
+	public double apply(double[] args, int offset) {
+		switch (arity) {
+		case 1:
+			return apply(args[offset]);
+		case 2:
+			return apply(args[offset], args[offset + 1]);
+		default:
+			throw new UnsupportedOperationException("Function body not implemented");
+		}
+	}
+
+	/**
+	 *
+	 * @return True if the class of the function overrides the apply method matching its arity.
+	 */
+	final boolean isImplemented() {
+		Class<?>[] parameters;
+		switch (arity) {
+		case 1:
+			parameters = new Class<?>[] {double.class};
+			break;
+		case 2:
+			parameters = new Class<?>[] {double.class, double.class};
+			break;
+		default:
+			parameters = new Class<?>[] {double[].class, int.class};
+		}
+		for (Class<?> cls = getClass(); cls != UserFunction.class; cls = cls.getSuperclass()) {
+			try {
+				cls.getDeclaredMethod("apply", parameters);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// Not on this class, look at the superclass
+			}
+		}
+		return false;
+	}
+}
@@ -1,6 +1,7 @@
 package jrplot.core.geometry;
 
 import jrplot.core.Pair;
+import jrplot.core.PlotSeries;
 
 
 
@@ -96,8 +97,41 @@ public class CoordinatesConverter {
 		return this;
 	}
 
-	public Pair toScreenCoordinate(Pair p) {
+	/**
+	 * 
+	 * @return A converter with the same bounds and screen size, that is not affected
+	 * by later changes to this one.
+	 */
+	public CoordinatesConverter copy() {
+		return new CoordinatesConverter()
+			.logicalBounds(logicalXBoundMin, logicalXBoundMax, logicalYBoundMin, logicalYBoundMax)
+			.screenSize(screenWidth, screenHeigth, screenPadding);
+	}
 	
+	/**
+	 * 
+	 * @param other
+	 * @return True if both converters have the same bounds and screen size, and so
+	 * give the same results.
+	 */
+	public boolean hasSameMapping(CoordinatesConverter other) {
+		return other != null
+			&& logicalXBoundMin == other.logicalXBoundMin && logicalXBoundMax == other.logicalXBoundMax
+			&& logicalYBoundMin == other.logicalYBoundMin && logicalYBoundMax == other.logicalYBoundMax
+			&& screenWidth == other.screenWidth && screenHeigth == other.screenHeigth
+			&& screenPadding == other.screenPadding;
+	}
+
+	public Pair toScreenCoordinate(Pair p) {
+		return new Pair(toScreenX(p.x), toScreenY(p.y));
+	}
+
+	/**
+	 * 
+	 * @param x
+	 * @return The horizontal screen coordinate of a cartesian x.
+	 */
+	public double toScreenX(double x) {
 		/* 
 		 * distances are calculated from the "beginning of the axis" to the specified coordinate
 		 * 
@@ -106,19 +140,58 @@ public class CoordinatesConverter {
 		 *      |---------------- 0 --------|-------| 
 		 *   -xBound                        x       +xBound
 		 */
-		double xDist = p.x - logicalXBoundMin;
-		double yDist = logicalYBoundMax - p.y;
-		
-		double cartAxisWidth = logicalXBoundMax - logicalXBoundMin;
-		double cartAxisHeigth = logicalYBoundMax - logicalYBoundMin;
+		double xDist = x - logicalXBoundMin;
 		
-		// Gets the proportional screen distances
+		// Gets the proportional screen distance
+		return (xDist * xScale()) + screenPadding;
+	}
+
+	/**
+	 * 
+	 * @param y
+	 * @return The vertical screen coordinate of a cartesian y.
+	 */
+	public double toScreenY(double y) {
+		double yDist = logicalYBoundMax - y;
+		return (yDist * yScale()) + screenPadding;
+	}
+
+	/**
+	 * Screen pixels per cartesian unit, shared by the single and the batch conversions
+	 * so that both give exactly the same coordinates.
+	 * @return
+	 */
+	private double xScale() {
 		double drawableWidth = screenWidth - (2 * screenPadding);
+		return drawableWidth / (logicalXBoundMax - logicalXBoundMin);
+	}
+
+	private double yScale() {
 		double drawableHeigth = screenHeigth - (2 * screenPadding);
-		double xScreenDist = ((xDist * drawableWidth) / cartAxisWidth) + screenPadding;
-		double yScreenDist = ((yDist * drawableHeigth) / cartAxisHeigth) + screenPadding;
+		return drawableHeigth / (logicalYBoundMax - logicalYBoundMin);
+	}
+
+	/**
+	 * Converts a range of samples of a series, without creating objects. 
+	 * Gaps (NaN y) stay NaN.
+	 * 
+	 * @param series
+	 * @param from First sample.
+	 * @param screenXs Receives the screen coordinates, from the position 0.
+	 * @param screenYs
+	 * @param length Number of samples.
+	 */
+	public void toScreenCoordinates(PlotSeries series, int from, 
+			double[] screenXs, double[] screenYs, int length) {
+		series.getXs(from, screenXs, 0, length);
+		series.getYs(from, screenYs, 0, length);
 		
-		return new Pair(xScreenDist, yScreenDist);
+		double xScale = xScale();
+		double yScale = yScale();
+		for (int i = 0; i < length; i++) {
+			screenXs[i] = (screenXs[i] - logicalXBoundMin) * xScale + screenPadding;
+			screenYs[i] = (logicalYBoundMax - screenYs[i]) * yScale + screenPadding;
+		}
 	}
 
 	
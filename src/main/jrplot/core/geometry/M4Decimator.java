@@ -0,0 +1,158 @@
+package jrplot.core.geometry;
+
+import java.util.Arrays;
+
+import jrplot.core.PlotSeries;
+
+/**
+ * Reduces a series to the points that make a difference on screen (M4 decimation).
+ *
+ * The samples are converted to integer screen coordinates, as they are drawn, and each run
+ * of consecutive samples falling on the same pixel column is replaced by four points:
+ * the first, the minimum, the maximum and the last. The lines between the samples of a
+ * column are vertical, so together they cover exactly the span between the minimum and
+ * the maximum, which the four points still cover; the lines to the neighbor columns start
+ * and end at the same points as before. Drawing the result connecting consecutive points
+ * produces the same pixels as drawing the whole series, with at most about four points
+ * per column of the screen.
+ *
+ * <br /><br />
+ * The gaps of the series become breaks ({@link #BREAK}) on the result. The result is kept
+ * until the series or the mapping of the converter change.
+ *
+ * <br /><br />
+ * Thread safety: instances must be confined to one thread (usually, the one painting).
+ *
+ * @author Rodrigo Gomes
+ *
+ */
+public final class M4Decimator {
+
+	/**
+	 * Screen y of the points where the line must be broken: they are not connected
+	 * to the previous point.
+	 */
+	public static final int BREAK = Integer.MIN_VALUE;
+
+	private static final int BLOCK_SIZE = 1024;
+
+	private PlotSeries series;
+	private CoordinatesConverter mapping;
+
+	private int[] xs = new int[BLOCK_SIZE];
+	private int[] ys = new int[BLOCK_SIZE];
+	private int size;
+
+	private final double[] blockXs = new double[BLOCK_SIZE];
+	private final double[] blockYs = new double[BLOCK_SIZE];
+
+	/*
+	 * The run of samples being reduced: its column, and its first, min, max and last y.
+	 */
+	private boolean runOpen;
+	private int runX;
+	private int runFirst;
+	private int runMin;
+	private int runMax;
+	private int runLast;
+
+	/**
+	 * Decimates a series, unless the result for the same series and mapping is already kept.
+	 *
+	 * @param series
+	 * @param converter Its mapping is copied.
+	 * @return True if the series was decimated, false if the previous result was kept.
+	 */
+	public boolean update(PlotSeries series, CoordinatesConverter converter) {
+		if (series == this.series && converter.hasSameMapping(mapping)) {
+			return false;
+		}
+		this.series = series;
+		this.mapping = converter.copy();
+
+		size = 0;
+		runOpen = false;
+		for (int start = 0; start < series.size(); start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, series.size() - start);
+			converter.toScreenCoordinates(series, start, blockXs, blockYs, n);
+
+			for (int i = 0; i < n; i++) {
+				if (Double.isNaN(blockYs[i])) {
+					closeRun();
+					if (size > 0 && ys[size - 1] != BREAK) {
+						add(0, BREAK);
+					}
+					continue;
+				}
+
+				int x = (int) blockXs[i];
+				int y = (int) blockYs[i];
+				if (runOpen && x == runX) {
+					if (y < runMin) runMin = y;
+					if (y > runMax) runMax = y;
+					runLast = y;
+				} else {
+					closeRun();
+					runOpen = true;
+					runX = x;
+					runFirst = y;
+					runMin = y;
+					runMax = y;
+					runLast = y;
+				}
+			}
+		}
+		closeRun();
+		return true;
+	}
+
+	/**
+	 * Emits the points of the current run, skipping repetitions.
+	 */
+	private void closeRun() {
+		if (!runOpen) {
+			return;
+		}
+		runOpen = false;
+		add(runX, runFirst);
+		if (runMin != runFirst) add(runX, runMin);
+		if (runMax != runMin) add(runX, runMax);
+		if (runLast != runMax) add(runX, runLast);
+	}
+
+	private void add(int x, int y) {
+		if (size == xs.length) {
+			xs = Arrays.copyOf(xs, size * 2);
+			ys = Arrays.copyOf(ys, size * 2);
+		}
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	/**
+	 *
+	 * @return Number of points of the result.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @return The screen x of the point i.
+	 */
+	public int getX(int i) {
+		return xs[i];
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @return The screen y of the point i, or {@link #BREAK}.
+	 */
+	public int getY(int i) {
+		return ys[i];
+	}
+}
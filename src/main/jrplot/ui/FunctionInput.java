@@ -11,6 +11,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
@@ -18,6 +22,8 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
 import jrplot.core.PlotEngine;
 import jrplot.core.expression.ExpressionException;
@@ -34,6 +40,8 @@ public class FunctionInput extends JPanel {
 	private static final String DEFAULT_X_MIN = "-5.0";
 	private static final String DEFAULT_X_MAX = "5.0";
 	
+	private static final int PROGRESS_INTERVAL_MILLIS = 100;
+	
 	private PlotEngine engine;
 	private JPlotUI controller;
 
@@ -45,6 +53,12 @@ public class FunctionInput extends JPanel {
 	private JButton btOk;
 	private JButton btCancel;
 	
+	/**
+	 * The plot running on the background, if any. Only accessed on the event dispatch thread.
+	 */
+	private SwingWorker<Void, Void> plotWorker;
+	private final Timer progressTimer = createProgressTimer();
+	
 	public FunctionInput(PlotEngine engine, JPlotUI controller) {
 		this.engine = engine;
 		this.controller = controller;
@@ -133,15 +147,19 @@ public class FunctionInput extends JPanel {
 				String functionText = FunctionInput.this.txtFunction.getText();
 				String minXtext = FunctionInput.this.txtMinX.getText();
 				String maxXtext = FunctionInput.this.txtMaxX.getText();
+				double minX;
+				double maxX;
 				try {
-					FunctionInput.this.engine.updateFunction(functionText, 
-							PlotEngine.toNumber(minXtext), PlotEngine.toNumber(maxXtext));
+					minX = PlotEngine.toNumber(minXtext);
+					maxX = PlotEngine.toNumber(maxXtext);
 				} catch (ExpressionException e1) {
 					lbErros.setText(e1.getMessage());
 					return;
 				}
 				
-				FunctionInput.this.controller.notifyFunctionInputClosed();
+				// This panel has the same size as the plotting area (they are cards of the same layout)
+				startPlot(functionText, minX, maxX, 
+						FunctionInput.this.getWidth(), FunctionInput.this.getHeight());
 			}
 		});
 		container.add(btOk, constr);
@@ -157,6 +175,7 @@ public class FunctionInput extends JPanel {
 		btCancel.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				FunctionInput.this.engine.cancel();
 				FunctionInput.this.controller.notifyFunctionInputClosed();
 			}
 		});
@@ -176,6 +195,97 @@ public class FunctionInput extends JPanel {
 		return container;
 	}
 
+	/**
+	 * Plots the function on a background thread, showing the progress meanwhile.
+	 * A plot still in progress is cancelled by the engine.
+	 * Several functions, separated by ";", are plotted together, at fixed steps.
+	 * This is so whenever the text has a ";", even if a single function is left.
+	 */
+	private void startPlot(final String functionText, final double minX, final double maxX,
+			final int width, final int height) {
+		final SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws ExpressionException {
+				if (functionText.indexOf(';') >= 0) {
+					engine.updateFunctions(splitFunctions(functionText), minX, maxX);
+				} else {
+					engine.updateFunction(functionText, minX, maxX, width, height);
+				}
+				return null;
+			}
+			
+			@Override
+			protected void done() {
+				if (plotWorker != this) {
+					return; // A newer plot took its place
+				}
+				plotWorker = null;
+				progressTimer.stop();
+				lbErros.setForeground(Color.RED);
+				lbErros.setText("");
+				try {
+					get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof CancellationException) {
+						return; // Cancelled by the user, or by a newer plot
+					}
+					// The plotting area may be showing a preview of the plot
+					controller.notifyNewFunctionDialogRequested();
+					lbErros.setText(e.getCause().getMessage());
+					return;
+				} catch (CancellationException e) {
+					return;
+				} catch (InterruptedException e) {
+					// Not possible: the worker is done
+					Thread.currentThread().interrupt();
+					return;
+				}
+				controller.notifyFunctionInputClosed();
+			}
+		};
+		plotWorker = worker;
+		lbErros.setForeground(Color.GRAY);
+		lbErros.setText("Plotting...");
+		progressTimer.restart();
+		worker.execute();
+	}
+
+	/**
+	 * 
+	 * @param functionText Functions separated by ";". Blank ones, such as the one 
+	 * after a trailing ";", are ignored.
+	 * @return
+	 * @throws ExpressionException If there is no function.
+	 */
+	static String[] splitFunctions(String functionText) throws ExpressionException {
+		List<String> functions = new ArrayList<String>();
+		for (String function : functionText.split(";")) {
+			if (!function.trim().equals("")) {
+				functions.add(function);
+			}
+		}
+		if (functions.isEmpty()) {
+			throw new ExpressionException("Expression cannot be empty");
+		}
+		return functions.toArray(new String[functions.size()]);
+	}
+
+	/**
+	 * Shows the progress of the plot in progress.
+	 */
+	private Timer createProgressTimer() {
+		Timer timer = new Timer(PROGRESS_INTERVAL_MILLIS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (plotWorker != null) {
+					lbErros.setText("Plotting... " + engine.getProgress() + "%");
+				}
+			}
+		});
+		timer.setInitialDelay(0);
+		return timer;
+	}
+
 	private JTextArea createHelpArea() {
 		JTextArea textArea = new JTextArea();
 		
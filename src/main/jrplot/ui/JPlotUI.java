@@ -2,10 +2,15 @@ package jrplot.ui;
 
 import java.awt.CardLayout;
 import java.awt.Dimension;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import jrplot.core.PlotEngine;
+import jrplot.core.PlotListener;
 
 
 
@@ -31,7 +36,19 @@ public class JPlotUI extends JPanel {
 
 	
 	public JPlotUI() {
-		engine = new PlotEngine();
+		int threads = Runtime.getRuntime().availableProcessors();
+		engine = new PlotEngine(newSamplingExecutor(threads), threads);
+		engine.setPlotListener(new PlotListener() {
+			@Override
+			public void plotUpdated(final boolean complete) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						notifyPlotUpdated(complete);
+					}
+				});
+			}
+		});
 
 		this.setLayout(new CardLayout());
 
@@ -44,12 +61,38 @@ public class JPlotUI extends JPanel {
 		this.add(functionInputDialog, FUNCTIONINPUT_LAYOUT_KEY);
 	}
 	
+	/**
+	 * The sampling threads are daemons, so that they do not keep the application alive
+	 * after the window is closed.
+	 */
+	private static ExecutorService newSamplingExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "plot-sampler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
 	void notifyNewFunctionDialogRequested() {
 		CardLayout layout = (CardLayout) this.getLayout();
 		layout.show(this, FUNCTIONINPUT_LAYOUT_KEY);
 		functionInputDialog.notifyFrameActivated();
 	}
 
+	/**
+	 * Shows the new plot, as soon as its first preview is ready.
+	 * @param complete
+	 */
+	void notifyPlotUpdated(boolean complete) {
+		if (!complete) {
+			notifyFunctionInputClosed();
+		}
+		plottingArea.repaint();
+	}
+
 	void notifyFunctionInputClosed() {
 		CardLayout layout = (CardLayout) this.getLayout();
 		layout.show(this, PLOTAREA_LAYOUT_KEY);
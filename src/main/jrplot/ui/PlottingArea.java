@@ -9,12 +9,18 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JComponent;
 
 import jrplot.core.Pair;
 import jrplot.core.PlotEngine;
+import jrplot.core.PlotSeries;
+import jrplot.core.PlotSnapshot;
+import jrplot.core.SeriesPyramid;
 import jrplot.core.geometry.CoordinatesConverter;
+import jrplot.core.geometry.M4Decimator;
 
 
 /**
@@ -33,10 +39,23 @@ public class PlottingArea extends JComponent {
 	 */
 	private static final int LABELED_SCALE_INTERVAL = 5;
 	
+	/**
+	 * Colors of the functions plotted together, repeated if there are more functions.
+	 */
+	private static final Color[] FUNCTION_COLORS = {
+		Color.BLUE, Color.RED, new Color(0, 128, 0), Color.MAGENTA, Color.ORANGE
+	};
+	
 	private PlotEngine engine;
 	private JPlotUI controller;
 	private CoordinatesConverter converter;
 	
+	/**
+	 * The points of each function that are actually drawn; recalculated only when the function,
+	 * the bounds or the size of the component change.
+	 */
+	private final List<M4Decimator> decimators = new ArrayList<M4Decimator>();
+	
 	public PlottingArea(PlotEngine engine, JPlotUI controller) {
 		this.engine = engine;
 		this.controller = controller;
@@ -52,8 +71,11 @@ public class PlottingArea extends JComponent {
 		super.paintComponent(g);
 		paintBackground(g2d);
 		renderButton(g2d);
-		drawAxis(g2d);
-		drawFunction(g2d);
+		
+		// The engine may publish a new plot meanwhile; everything is drawn from the same one
+		PlotSnapshot plot = engine.getSnapshot();
+		drawAxis(g2d, plot);
+		drawFunction(g2d, plot);
 	}
 	
 	/**
@@ -76,11 +98,11 @@ public class PlottingArea extends JComponent {
 		g2d.fillRect(0, 0, this.getWidth(), this.getHeight());
 	}
 
-	private void drawAxis(Graphics2D g2d) {
+	private void drawAxis(Graphics2D g2d, PlotSnapshot plot) {
 		g2d.setColor(Color.GRAY);
 		
-		converter.logicalBounds(engine.currentMinX(), engine.currentMaxX(), 
-								engine.currentMinY(), engine.currentMaxY());
+		converter.logicalBounds(plot.getMinX(), plot.getMaxX(), 
+								plot.getMinY(), plot.getMaxY());
 		converter.screenSize(this.getWidth(), this.getHeight(), PLOTTING_AREA_PADDING);
 		
 		Pair origin = converter.toScreenCoordinate(
@@ -92,7 +114,7 @@ public class PlottingArea extends JComponent {
 		/*
 		 * Scale marks and labels
 		 */
-		if (engine.getCurrentFunctionPairs() == null || engine.getCurrentFunctionPairs().isEmpty()) {
+		if (plot.getSeries().isEmpty()) {
 			return;
 		}
 		
@@ -104,23 +126,23 @@ public class PlottingArea extends JComponent {
 		 * That shouldn't harm performance, as this iteraction is pretty short.
 		 *  
 		 */
-		BigDecimal startingX = BigDecimal.valueOf(engine.scaleIntervalX());
+		BigDecimal startingX = BigDecimal.valueOf(plot.getScaleIntervalX());
 		// Adding a small offset so that the double imprecision does not "drop" the end of scale
-		BigDecimal xBound = BigDecimal.valueOf(engine.currentMaxX() + 0.001);
-		BigDecimal xStep = BigDecimal.valueOf(engine.scaleIntervalX());
+		BigDecimal xBound = BigDecimal.valueOf(plot.getMaxX() + 0.001);
+		BigDecimal xStep = BigDecimal.valueOf(plot.getScaleIntervalX());
 		drawScaleMarksX(g2d, startingX, xBound, xStep, false);
 		
-		startingX = BigDecimal.valueOf(engine.scaleIntervalX()).negate();
-		xBound = BigDecimal.valueOf(engine.currentMinX() - 0.001);
+		startingX = BigDecimal.valueOf(plot.getScaleIntervalX()).negate();
+		xBound = BigDecimal.valueOf(plot.getMinX() - 0.001);
 		drawScaleMarksX(g2d, startingX, xBound, xStep, true);
 		
-		BigDecimal startingY = BigDecimal.valueOf(engine.scaleIntervalY());
-		BigDecimal yBound = BigDecimal.valueOf(engine.currentMaxY() + 0.001);
-		BigDecimal yStep = BigDecimal.valueOf(engine.scaleIntervalY());
+		BigDecimal startingY = BigDecimal.valueOf(plot.getScaleIntervalY());
+		BigDecimal yBound = BigDecimal.valueOf(plot.getMaxY() + 0.001);
+		BigDecimal yStep = BigDecimal.valueOf(plot.getScaleIntervalY());
 		drawScaleMarksY(g2d, startingY, yBound, yStep, false);
 		
-		startingY = BigDecimal.valueOf(engine.scaleIntervalY()).negate();
-		yBound = BigDecimal.valueOf(engine.currentMinY() - 0.001);
+		startingY = BigDecimal.valueOf(plot.getScaleIntervalY()).negate();
+		yBound = BigDecimal.valueOf(plot.getMinY() - 0.001);
 		drawScaleMarksY(g2d, startingY, yBound, yStep, true);
 	}
 
@@ -203,10 +225,10 @@ public class PlottingArea extends JComponent {
 		}
 	}
 
-	private void drawFunction(Graphics2D g2d) {
-		g2d.setColor(Color.BLUE);
+	private void drawFunction(Graphics2D g2d, PlotSnapshot plot) {
+		g2d.setColor(FUNCTION_COLORS[0]);
 		
-		if (engine.getCurrentFunctionPairs() == null || engine.getCurrentFunctionPairs().isEmpty()) {
+		if (plot.getSeries().isEmpty()) {
 			g2d.drawString("Use the button to insert a function", 56, 40);
 			g2d.drawOval(-7, -7, 34, 34);
 			g2d.drawLine(10, 27, 10, 37);
@@ -214,14 +236,46 @@ public class PlottingArea extends JComponent {
 			return;
 		}
 		
-		converter.logicalBounds(engine.currentMinX(), engine.currentMaxX(), 
-								engine.currentMinY(), engine.currentMaxY());
+		converter.logicalBounds(plot.getMinX(), plot.getMaxX(), 
+								plot.getMinY(), plot.getMaxY());
 		converter.screenSize(this.getWidth(), this.getHeight(), PLOTTING_AREA_PADDING);
 		
-		for (Pair p : engine.getCurrentFunctionPairs()) {
-			Pair point = converter.toScreenCoordinate(p);
-			// A point is represented by a "zero-sized line"
-			g2d.drawLine((int)point.x, (int)point.y, (int)point.x, (int)point.y);
+		while (decimators.size() < plot.getFunctionCount()) {
+			decimators.add(new M4Decimator());
+		}
+		for (int f = 0; f < plot.getFunctionCount(); f++) {
+			g2d.setColor(FUNCTION_COLORS[f % FUNCTION_COLORS.length]);
+			
+			// Only the samples that matter at the current scale
+			SeriesPyramid pyramid = plot.getPyramid(f);
+			PlotSeries series = pyramid.select(plot.getMinX(), plot.getMaxX(), converter);
+			M4Decimator decimator = decimators.get(f);
+			decimator.update(series, converter);
+			drawPoints(g2d, decimator);
+		}
+	}
+	
+	private void drawPoints(Graphics2D g2d, M4Decimator decimator) {
+		// Consecutive points are connected, except across the gaps of the function.
+		// An isolated point is represented by a "zero-sized line"
+		boolean connected = false;
+		int previousX = 0;
+		int previousY = 0;
+		for (int i = 0; i < decimator.size(); i++) {
+			int x = decimator.getX(i);
+			int y = decimator.getY(i);
+			if (y == M4Decimator.BREAK) {
+				connected = false;
+				continue;
+			}
+			if (!connected) {
+				previousX = x;
+				previousY = y;
+				connected = true;
+			}
+			g2d.drawLine(previousX, previousY, x, y);
+			previousX = x;
+			previousY = y;
 		}
 
 	}
@@ -0,0 +1,84 @@
+package jrplot.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jrplot.core.expression.CompiledFunction;
+import jrplot.core.expression.Expression;
+import jrplot.core.expression.ExpressionException;
+
+import org.junit.Test;
+
+
+public class AdaptiveSamplerTest {
+
+	private static final int WIDTH = 500;
+	private static final int HEIGHT = 400;
+
+	private static AdaptiveSampler sample(String text, double minX, double maxX) throws ExpressionException {
+		CompiledFunction function = Expression.parse(text).toFunction();
+		AdaptiveSampler sampler = new AdaptiveSampler(function, 100000.0);
+		sampler.sample(minX, maxX, (maxX - minX) / WIDTH, HEIGHT);
+		return sampler;
+	}
+
+	@Test
+	public void smooth_functions_need_few_samples() throws ExpressionException {
+		AdaptiveSampler sampler = sample("sin(x)", -5.0, 5.0);
+		// The fixed step would take 100001 samples
+		assertTrue(String.valueOf(sampler.evaluations()), sampler.evaluations() < 2 * WIDTH);
+
+		double[] xs = sampler.xs();
+		double[] ys = sampler.ys();
+		assertEquals(-5.0, xs[0], 0.0);
+		assertEquals(5.0, xs[sampler.size() - 1], 0.0);
+		for (int i = 1; i < sampler.size(); i++) {
+			assertTrue(xs[i] > xs[i - 1]);
+			assertEquals(Math.sin(xs[i]), ys[i], 0.0);
+		}
+	}
+
+	@Test
+	public void straight_segments_stay_within_tolerance() throws ExpressionException {
+		AdaptiveSampler sampler = sample("sin(3x) + x^2/10", -5.0, 5.0);
+		double yPerPixel = 4.0 / HEIGHT; // about the range of the function
+		double[] xs = sampler.xs();
+		double[] ys = sampler.ys();
+		for (int i = 1; i < sampler.size(); i++) {
+			double xm = 0.5 * (xs[i - 1] + xs[i]);
+			double ym = Math.sin(3 * xm) + xm * xm / 10;
+			assertEquals(0.5 * (ys[i - 1] + ys[i]), ym, yPerPixel);
+		}
+	}
+
+	@Test
+	public void domain_boundaries_are_resolved_below_a_pixel() throws ExpressionException {
+		AdaptiveSampler sampler = sample("sqrt(x)", -1.0, 1.0);
+		double[] xs = sampler.xs();
+		double[] ys = sampler.ys();
+		int firstDefined = 0;
+		while (Double.isNaN(ys[firstDefined])) {
+			firstDefined++;
+		}
+		double xPerPixel = 2.0 / WIDTH;
+		assertTrue(xs[firstDefined] >= 0.0);
+		assertTrue(xs[firstDefined] <= xPerPixel * AdaptiveSampler.MIN_STEP_PIXELS);
+	}
+
+	@Test
+	public void discontinuities_are_not_connected() throws ExpressionException {
+		AdaptiveSampler sampler = sample("1/(x - 0.3)", -1.0, 1.0);
+		double[] xs = sampler.xs();
+		double[] ys = sampler.ys();
+		boolean gapAtPole = false;
+		for (int i = 1; i < sampler.size(); i++) {
+			if (Double.isNaN(ys[i])) {
+				// Only where the curve is nearly vertical
+				assertEquals(0.3, xs[i], 2.0 / WIDTH);
+				gapAtPole |= xs[i - 1] < 0.3 && xs[i + 1] > 0.3;
+			} else if (!Double.isNaN(ys[i - 1])) {
+				assertTrue(xs[i - 1] > 0.3 || xs[i] < 0.3);
+			}
+		}
+		assertTrue(gapAtPole);
+	}
+}
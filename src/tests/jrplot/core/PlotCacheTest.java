@@ -0,0 +1,86 @@
+package jrplot.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import jrplot.core.expression.Expression;
+
+import org.junit.Test;
+
+
+public class PlotCacheTest {
+
+	/**
+	 * A plot of 1000 float samples: 4000 bytes, plus 8000 for its levels of detail.
+	 */
+	private static final long PLOT_BYTES = 12000;
+
+	@Test
+	public void least_recently_used_plots_are_evicted_by_size() {
+		PlotCache cache = new PlotCache(3 * PLOT_BYTES, false);
+		PlotSnapshot a = plot(1.0);
+		PlotSnapshot b = plot(2.0);
+		PlotSnapshot c = plot(3.0);
+		cache.put("a", a);
+		cache.put("b", b);
+		cache.put("c", c);
+		assertEquals(3 * PLOT_BYTES, cache.getBytes());
+
+		assertSame(a, cache.get("a"));
+		cache.put("d", plot(4.0));
+		assertNull(cache.get("b"));
+		assertSame(a, cache.get("a"));
+		assertSame(c, cache.get("c"));
+		assertEquals(3, cache.size());
+		assertEquals(0, cache.demotedSize());
+
+		cache.setMaxBytes(PLOT_BYTES);
+		assertEquals(1, cache.size());
+		assertSame(c, cache.get("c"));
+	}
+
+	@Test
+	public void evicted_plots_are_demoted_to_soft_references() {
+		PlotCache cache = new PlotCache(PLOT_BYTES, true);
+		PlotSnapshot a = plot(1.0);
+		PlotSnapshot b = plot(2.0);
+		cache.put("a", a);
+		cache.put("b", b);
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.demotedSize());
+
+		// Still reachable, so not reclaimed: found, and promoted back
+		assertSame(a, cache.get("a"));
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.demotedSize());
+		assertSame(b, cache.get("b"));
+
+		cache.clear();
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void hit_rate_counts_the_lookups() {
+		PlotCache cache = new PlotCache(PLOT_BYTES, false);
+		assertEquals(0.0, cache.getHitRate(), 0.0);
+		cache.get("a");
+		cache.put("a", plot(1.0));
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0.0);
+	}
+
+	private static PlotSnapshot plot(double y) {
+		PlotSeries series = PlotSeries.uniform(0.0, 0.01, 1000, true);
+		for (int i = 0; i < 1000; i++) {
+			series.add(y);
+		}
+		return new PlotSnapshot(new String[] {String.valueOf(y)}, new Expression[1], 0.01, 
+				new PlotSeries[] {series}, 0.0, 9.99, true);
+	}
+}
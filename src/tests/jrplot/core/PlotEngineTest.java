@@ -0,0 +1,502 @@
+package jrplot.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jrplot.core.expression.ExpressionException;
+import jrplot.core.expression.SymbolRegistry;
+import jrplot.core.expression.UserFunction;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+public class PlotEngineTest {
+
+	private static final String[] EXPRESSIONS = {
+		"sin(x)",
+		"1/(x - 0.3) + sqrt(x + 2)",
+		"x^3 - 2x + exp(-x^2)",
+	};
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+	@After
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void parallel_fixed_step_matches_sequential() throws ExpressionException {
+		PlotEngine sequential = new PlotEngine();
+		PlotEngine parallel = new PlotEngine(executor, 3);
+		for (String text : EXPRESSIONS) {
+			sequential.updateFunction(text, -4.0, 3.0);
+			parallel.updateFunction(text, -4.0, 3.0);
+			assertSamePlot(text, sequential, parallel);
+		}
+	}
+
+	@Test
+	public void parallel_adaptive_sampling_matches_sequential() throws ExpressionException {
+		PlotEngine sequential = new PlotEngine();
+		PlotEngine parallel = new PlotEngine(executor, 3);
+		for (String text : EXPRESSIONS) {
+			sequential.updateFunction(text, -4.0, 3.0, 700, 400);
+			parallel.updateFunction(text, -4.0, 3.0, 700, 400);
+			assertSamePlot(text, sequential, parallel);
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void errors_of_the_workers_are_propagated() throws ExpressionException {
+		SymbolRegistry.registerFunction("failing", new UserFunction(1) {
+			@Override
+			public double apply(double a) {
+				throw new ArithmeticException();
+			}
+		});
+		try {
+			new PlotEngine(executor, 3).updateFunction("failing(x)", -4.0, 3.0);
+		} finally {
+			SymbolRegistry.unregister("failing");
+		}
+	}
+
+	@Test
+	public void panning_evaluates_only_the_exposed_samples() throws ExpressionException {
+		PlotEngine engine = new PlotEngine(executor, 3);
+		engine.updateFunction("sin(x)", -5.0, 5.0);
+		int evaluated = engine.updateViewport(-4.0, 6.0);
+		assertEquals(10000, evaluated);
+
+		PlotEngine fresh = new PlotEngine();
+		fresh.updateFunction("sin(x)", -4.0, 6.0);
+		assertSimilarPlot(fresh.getCurrentSeries(), engine.getCurrentSeries());
+	}
+
+	@Test
+	public void zooming_decimates_or_refines_the_samples() throws ExpressionException {
+		PlotEngine engine = new PlotEngine();
+		engine.updateFunction("x^3 - 2x + exp(-x^2)", -5.0, 5.0);
+
+		// Step from 0.0001 to 0.0005: the samples of [-5, 5] are kept, one in five
+		int evaluated = engine.updateViewport(-20.0, 20.0);
+		assertEquals(80001 - 20001, evaluated);
+		PlotEngine fresh = new PlotEngine();
+		fresh.updateFunction("x^3 - 2x + exp(-x^2)", -20.0, 20.0);
+		assertSimilarPlot(fresh.getCurrentSeries(), engine.getCurrentSeries());
+
+		// And back: only the samples between the kept ones are evaluated
+		evaluated = engine.updateViewport(-1.0, 1.0);
+		assertEquals(20001 - 4001, evaluated);
+		fresh.updateFunction("x^3 - 2x + exp(-x^2)", -1.0, 1.0);
+		assertSimilarPlot(fresh.getCurrentSeries(), engine.getCurrentSeries());
+	}
+
+	@Test
+	public void functions_plotted_together_match_the_single_plots() throws ExpressionException {
+		PlotEngine engine = new PlotEngine(executor, 3);
+		engine.updateFunctions(EXPRESSIONS, -2.0, 3.0);
+		PlotSnapshot plot = engine.getSnapshot();
+		assertEquals(EXPRESSIONS.length, plot.getFunctionCount());
+		
+		double minY = 0.0;
+		double maxY = 0.0;
+		PlotEngine single = new PlotEngine();
+		for (int f = 0; f < EXPRESSIONS.length; f++) {
+			single.updateFunction(EXPRESSIONS[f], -2.0, 3.0);
+			assertSimilarPlot(single.getCurrentSeries(), plot.getSeries(f));
+			minY = Math.min(minY, single.currentMinY());
+			maxY = Math.max(maxY, single.currentMaxY());
+		}
+		assertEquals(minY, plot.getMinY(), 0.0);
+		assertEquals(maxY, plot.getMaxY(), 0.0);
+		
+		// The samples kept when the interval moves are kept for every function
+		int evaluated = engine.updateViewport(-1.0, 4.0);
+		assertEquals(10000, evaluated);
+		for (int f = 0; f < EXPRESSIONS.length; f++) {
+			single.updateFunction(EXPRESSIONS[f], -1.0, 4.0);
+			assertSimilarPlot(single.getCurrentSeries(), engine.getSnapshot().getSeries(f));
+		}
+	}
+	
+	@Test
+	public void going_back_to_a_plot_takes_it_from_the_cache() throws ExpressionException {
+		PlotEngine engine = new PlotEngine();
+		engine.updateFunction("x^3 - 2x", -5.0, 5.0);
+		PlotSeries first = engine.getCurrentSeries();
+		assertEquals(80001 - 20001, engine.updateViewport(-20.0, 20.0));
+		
+		// Back to the previous view, and forward again: nothing is sampled
+		assertEquals(0, engine.updateViewport(-5.0, 5.0));
+		assertSame(first, engine.getCurrentSeries());
+		assertEquals(0, engine.updateViewport(-20.0, 20.0));
+		
+		// An equivalent text shares the samples, but keeps its own text
+		engine.updateFunction("x ^ 3 - 2 * x", -5.0, 5.0);
+		assertSame(first, engine.getCurrentSeries());
+		assertEquals("x ^ 3 - 2 * x", engine.getCurrentFunctionText());
+		assertEquals(3, engine.getPlotCache().getHits());
+		assertEquals(2, engine.getPlotCache().getMisses());
+		
+		engine.setPlotCache(null);
+		engine.updateFunction("x^3 - 2x", -5.0, 5.0);
+		assertTrue(first != engine.getCurrentSeries());
+	}
+	
+	@Test
+	public void plots_off_the_lattice_of_the_interval_are_cached_apart() throws ExpressionException {
+		PlotEngine engine = new PlotEngine();
+		engine.updateFunction("x^2", -5.0, 5.0);
+		
+		// Half a step off the current samples: they stay on their lattice
+		engine.updateViewport(-4.99995, 4.99995);
+		assertEquals(-4.9999, engine.getCurrentSeries().getX(0), 1e-9);
+		
+		// A new plot of the same interval starts at its bound
+		engine.updateFunction("x^2", -4.99995, 4.99995);
+		assertEquals(-4.99995, engine.getCurrentSeries().getX(0), 0.0);
+		assertEquals(0, engine.getPlotCache().getHits());
+		
+		// Each one is found again from the same lattice
+		engine.updateFunction("x^2", -5.0, 5.0);
+		assertEquals(0, engine.updateViewport(-4.99995, 4.99995));
+		assertEquals(-4.9999, engine.getCurrentSeries().getX(0), 1e-9);
+		assertEquals(2, engine.getPlotCache().getHits());
+	}
+	
+	@Test
+	public void streamed_samples_match_the_function() throws ExpressionException {
+		final double[] expected = new double[50001];
+		for (int i = 0; i < expected.length; i++) {
+			double x = -1e6 + i * 40.0;
+			expected[i] = 1.0 / (x - 0.3) + Math.sqrt(x + 2.0);
+		}
+		for (PlotEngine engine : new PlotEngine[] {new PlotEngine(), new PlotEngine(executor, 3)}) {
+			final int[] count = new int[1];
+			long delivered = engine.stream("1/(x - 0.3) + sqrt(x + 2)", -1e6, 1e6, expected.length, new SampleSink() {
+				@Override
+				public boolean accept(double[] xs, double[] ys, int length) {
+					for (int i = 0; i < length; i++) {
+						assertEquals(-1e6 + count[0] * 40.0, xs[i], 1e-6);
+						assertEquals(expected[count[0]], ys[i], Math.abs(expected[count[0]]) * 1e-12);
+						count[0]++;
+					}
+					return true;
+				}
+			});
+			assertEquals(expected.length, delivered);
+			assertEquals(expected.length, count[0]);
+		}
+	}
+	
+	@Test
+	public void a_slow_sink_holds_back_the_sampling() throws ExpressionException {
+		final AtomicLong evaluated = new AtomicLong();
+		SymbolRegistry.registerFunction("counted", new UserFunction(1) {
+			@Override
+			public double apply(double a) {
+				evaluated.incrementAndGet();
+				return a;
+			}
+		});
+		try {
+			PlotEngine engine = new PlotEngine(executor, 3);
+			final long[] seen = new long[1];
+			final long[] maxAhead = new long[1];
+			long delivered = engine.stream("counted(x)", 0.0, 1.0, 1000000, new SampleSink() {
+				@Override
+				public boolean accept(double[] xs, double[] ys, int length) {
+					seen[0] += length;
+					maxAhead[0] = Math.max(maxAhead[0], evaluated.get() - seen[0]);
+					Thread.yield();
+					// Stops halfway
+					return seen[0] < 500000;
+				}
+			});
+			assertTrue(delivered >= 500000 && delivered < 510000);
+			// At most a few blocks per thread are evaluated ahead of the sink
+			assertTrue(String.valueOf(maxAhead[0]), maxAhead[0] <= 3 * 2 * 4096);
+		} finally {
+			SymbolRegistry.unregister("counted");
+		}
+	}
+	
+	@Test
+	public void streams_are_independent_of_the_plots() throws ExpressionException {
+		for (final PlotEngine engine : new PlotEngine[] {new PlotEngine(), new PlotEngine(executor, 3)}) {
+			final int[] blocks = new int[1];
+			long delivered = engine.stream("x^2", 0.0, 1.0, 100001, new SampleSink() {
+				@Override
+				public boolean accept(double[] xs, double[] ys, int length) {
+					if (blocks[0]++ == 0) {
+						// A plot started meanwhile
+						try {
+							engine.updateFunction("sin(x)", -1.0, 1.0);
+						} catch (ExpressionException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+					assertEquals(100, engine.getProgress());
+					return true;
+				}
+			});
+			assertEquals(100001, delivered);
+			assertEquals("sin(x)", engine.getCurrentFunctionText());
+			
+			// Cancelled by the caller
+			final PlotRequest request = new PlotRequest();
+			try {
+				engine.stream("x^2", 0.0, 1.0, 1000001, new SampleSink() {
+					@Override
+					public boolean accept(double[] xs, double[] ys, int length) {
+						request.cancel();
+						return true;
+					}
+				}, request);
+				fail("The stream should have been cancelled");
+			} catch (CancellationException e) {
+				assertTrue(request.getProgress() < 100);
+			}
+		}
+	}
+	
+	@Test
+	public void a_newer_plot_cancels_the_one_in_progress() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean first = new AtomicBoolean(true);
+		// Only the first call waits, keeping the other threads free for the newer plot
+		SymbolRegistry.registerFunction("slow", new UserFunction(1) {
+			@Override
+			public double apply(double a) {
+				if (first.getAndSet(false)) {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return a;
+			}
+		});
+		ExecutorService plotter = Executors.newSingleThreadExecutor();
+		try {
+			final PlotEngine engine = new PlotEngine(executor, 3);
+			assertEquals(100, engine.getProgress());
+			Future<?> slowPlot = plotter.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws ExpressionException {
+					engine.updateFunction("slow(x)", -4.0, 3.0);
+					return null;
+				}
+			});
+			started.await();
+			assertTrue(engine.getProgress() < 100);
+
+			engine.updateFunction("sin(x)", -4.0, 3.0);
+			release.countDown();
+			try {
+				slowPlot.get();
+				fail("The slow plot should have been cancelled");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof CancellationException);
+			}
+			assertEquals("sin(x)", engine.getCurrentFunctionText());
+			assertEquals(100, engine.getProgress());
+		} finally {
+			release.countDown();
+			plotter.shutdown();
+			SymbolRegistry.unregister("slow");
+		}
+	}
+
+	@Test
+	public void a_cancelled_plot_keeps_the_last_one() throws ExpressionException {
+		PlotEngine engine = new PlotEngine();
+		engine.updateFunction("sin(x)", -4.0, 3.0);
+		PlotSeries series = engine.getCurrentSeries();
+		final PlotEngine cancelling = engine;
+		SymbolRegistry.registerFunction("cancelling", new UserFunction(1) {
+			@Override
+			public double apply(double a) {
+				cancelling.cancel();
+				return a;
+			}
+		});
+		try {
+			engine.updateFunction("cancelling(x)", -4.0, 3.0);
+			fail("The plot should have been cancelled");
+		} catch (CancellationException e) {
+			assertSame(series, engine.getCurrentSeries());
+			assertEquals("sin(x)", engine.getCurrentFunctionText());
+		} finally {
+			SymbolRegistry.unregister("cancelling");
+		}
+	}
+
+	@Test
+	public void progressive_plots_end_like_the_full_ones() throws ExpressionException {
+		PlotEngine full = new PlotEngine();
+		final PlotEngine progressive = new PlotEngine(executor, 3);
+		final List<Integer> sizes = new ArrayList<Integer>();
+		final List<Boolean> completes = new ArrayList<Boolean>();
+		progressive.setPlotListener(new PlotListener() {
+			@Override
+			public void plotUpdated(boolean complete) {
+				sizes.add(progressive.getCurrentSeries().size());
+				completes.add(complete);
+			}
+		});
+
+		full.updateFunction("sin(x) + x^2/7", -5.0, 5.0);
+		progressive.updateFunction("sin(x) + x^2/7", -5.0, 5.0);
+		assertSamePlot("fixed step", full, progressive);
+		// Each pass doubles the samples, from about one per pixel
+		assertTrue(sizes.get(0) <= 1024);
+		for (int i = 1; i < sizes.size(); i++) {
+			assertEquals(2.0 * sizes.get(i - 1), sizes.get(i), 1.0);
+			assertEquals(i == sizes.size() - 1, completes.get(i));
+		}
+
+		sizes.clear();
+		completes.clear();
+		full.updateFunction("1/(x - 0.3) + sqrt(x + 2)", -4.0, 3.0, 700, 400);
+		progressive.updateFunction("1/(x - 0.3) + sqrt(x + 2)", -4.0, 3.0, 700, 400);
+		assertSamePlot("adaptive", full, progressive);
+		assertEquals(Arrays.asList(false, true), completes);
+	}
+
+	@Test
+	public void short_intervals_are_plotted_in_a_single_pass() throws ExpressionException {
+		PlotEngine full = new PlotEngine();
+		PlotEngine progressive = new PlotEngine();
+		final List<Boolean> completes = new ArrayList<Boolean>();
+		progressive.setPlotListener(new PlotListener() {
+			@Override
+			public void plotUpdated(boolean complete) {
+				completes.add(complete);
+			}
+		});
+
+		// Fewer samples than two previews: there is nothing to refine
+		double[][] intervals = {{0.0, 0.05}, {0.0, 0.0002}, {-0.05, 0.05}};
+		for (double[] interval : intervals) {
+			completes.clear();
+			full.updateFunction("x^2", interval[0], interval[1]);
+			progressive.updateFunction("x^2", interval[0], interval[1]);
+			assertSamePlot(interval[0] + ", " + interval[1], full, progressive);
+			assertEquals(Arrays.asList(true), completes);
+		}
+	}
+
+	@Test
+	public void a_cancelled_progressive_plot_restores_the_last_one() throws ExpressionException {
+		final PlotEngine engine = new PlotEngine();
+		engine.updateFunction("sin(x)", -4.0, 3.0);
+		PlotSeries series = engine.getCurrentSeries();
+		engine.setPlotListener(new PlotListener() {
+			@Override
+			public void plotUpdated(boolean complete) {
+				if (!complete) {
+					engine.cancel();
+				}
+			}
+		});
+		try {
+			engine.updateFunction("cos(x)", -4.0, 3.0);
+			fail("The plot should have been cancelled");
+		} catch (CancellationException e) {
+			assertSame(series, engine.getCurrentSeries());
+			assertEquals("sin(x)", engine.getCurrentFunctionText());
+		}
+	}
+
+	@Test
+	public void snapshots_are_consistent_while_plotting() throws Exception {
+		final PlotEngine engine = new PlotEngine(executor, 2);
+		final AtomicBoolean done = new AtomicBoolean();
+		ExecutorService reader = Executors.newSingleThreadExecutor();
+		try {
+			Future<Integer> reads = reader.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int count = 0;
+					while (!done.get()) {
+						PlotSnapshot plot = engine.getSnapshot();
+						if ("x".equals(plot.getFunctionText())) {
+							assertEquals(1.0, plot.getMaxX(), 0.0);
+							assertEquals(1.0, plot.getMaxY(), 1e-6);
+							assertEquals(20001, plot.getSeries().size());
+						} else if ("2x".equals(plot.getFunctionText())) {
+							assertEquals(5.0, plot.getMaxX(), 0.0);
+							assertEquals(10.0, plot.getMaxY(), 1e-6);
+							assertEquals(100001, plot.getSeries().size());
+						}
+						count++;
+					}
+					return count;
+				}
+			});
+
+			PlotSnapshot first = null;
+			for (int i = 0; i < 20; i++) {
+				engine.updateFunction(i % 2 == 0 ? "x" : "2x", i % 2 == 0 ? -1.0 : -5.0, i % 2 == 0 ? 1.0 : 5.0);
+				if (first == null) {
+					first = engine.getSnapshot();
+				}
+			}
+			done.set(true);
+			assertTrue(reads.get() > 0);
+
+			// Published snapshots do not change
+			assertEquals("x", first.getFunctionText());
+			assertEquals(20001, first.getSeries().size());
+			assertTrue(first.isComplete());
+		} finally {
+			done.set(true);
+			reader.shutdown();
+		}
+	}
+
+	/**
+	 * Same samples, except for the rounding of the x on the lattice.
+	 */
+	private static void assertSimilarPlot(PlotSeries expected, PlotSeries actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getX(i), actual.getX(i), 1e-9);
+			assertEquals(expected.getY(i), actual.getY(i), 1e-5);
+		}
+	}
+
+	private static void assertSamePlot(String text, PlotEngine expected, PlotEngine actual) {
+		PlotSeries expectedSeries = expected.getCurrentSeries();
+		PlotSeries actualSeries = actual.getCurrentSeries();
+		assertEquals(text, expectedSeries.size(), actualSeries.size());
+		for (int i = 0; i < expectedSeries.size(); i++) {
+			assertEquals(text, expectedSeries.getX(i), actualSeries.getX(i), 0.0);
+			assertEquals(text, expectedSeries.getY(i), actualSeries.getY(i), 0.0);
+		}
+		assertEquals(text, expected.currentMinY(), actual.currentMinY(), 0.0);
+		assertEquals(text, expected.currentMaxY(), actual.currentMaxY(), 0.0);
+	}
+}
@@ -0,0 +1,96 @@
+package jrplot.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class PlotSeriesTest {
+
+	@Test
+	public void samples_are_kept_in_order_while_growing() {
+		PlotSeries series = new PlotSeries(2);
+		for (int i = 0; i < 5000; i++) {
+			series.add(i, -i);
+		}
+		series.trimToSize();
+		
+		assertEquals(5000, series.size());
+		assertEquals(4321.0, series.getX(4321), 0.0);
+		assertEquals(-4321.0, series.getY(4321), 0.0);
+	}
+
+	@Test
+	public void gaps_are_only_kept_between_samples() {
+		PlotSeries series = new PlotSeries();
+		series.addGap(0.0);
+		series.add(1.0, 1.0);
+		series.addGap(2.0);
+		series.addGap(3.0);
+		series.add(4.0, 4.0);
+		
+		assertEquals(3, series.size());
+		assertFalse(series.isGap(0));
+		assertTrue(series.isGap(1));
+		assertEquals(2.0, series.getX(1), 0.0);
+	}
+
+	@Test
+	public void views_do_not_see_later_samples() {
+		PlotSeries series = new PlotSeries();
+		series.add(1.0, 1.0);
+		PlotSeries view = series.readOnlyView();
+		series.add(2.0, 2.0);
+		
+		assertEquals(1, view.size());
+		assertEquals(2, series.size());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void views_cannot_be_modified() {
+		new PlotSeries().readOnlyView().add(1.0, 1.0);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void access_is_limited_to_the_samples() {
+		PlotSeries series = new PlotSeries();
+		series.add(1.0, 1.0);
+		series.getY(1);
+	}
+
+	@Test
+	public void uniform_series_compute_the_x() {
+		PlotSeries series = PlotSeries.uniform(-5.0, 0.0001, 0, true);
+		for (int i = 0; i < 100001; i++) {
+			series.add(Math.sin(-5.0 + i * 0.0001));
+		}
+		
+		assertEquals(100001, series.size());
+		assertEquals(-5.0 + 12345 * 0.0001, series.getX(12345), 0.0);
+		assertEquals((float) Math.sin(-5.0 + 12345 * 0.0001), series.getY(12345), 0.0);
+		
+		double[] xs = new double[2];
+		double[] ys = new double[2];
+		series.getXs(12345, xs, 0, 2);
+		series.getYs(12345, ys, 0, 2);
+		assertEquals(series.getX(12346), xs[1], 0.0);
+		assertEquals(series.getY(12346), ys[1], 0.0);
+	}
+
+	@Test
+	public void single_precision_is_below_a_pixel_within_the_plot_bounds() {
+		PlotSeries series = PlotSeries.uniform(0.0, 1.0, 1, true);
+		double y = 99999.99;
+		series.add(y);
+		// A plot including the origin and this value is at least 100000 units high,
+		// so even 10000 pixels would be 10 units each
+		assertEquals(y, series.getY(0), 0.01);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void uniform_series_do_not_take_the_x() {
+		PlotSeries.uniform(0.0, 1.0, 10, false).add(1.0, 1.0);
+	}
+}
@@ -0,0 +1,207 @@
+package jrplot.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jrplot.core.expression.ExpressionException;
+import jrplot.core.expression.SymbolRegistry;
+import jrplot.core.expression.UserFunction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class SampleStoreTest {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("samples", ".jrps");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void samples_survive_reopening_across_segments() throws IOException {
+		// Small segments, so that the samples and the appended blocks cross many of them
+		SampleStore store = SampleStore.create(file, -1.0, 0.01, false, 64);
+		double[] ys = new double[37];
+		for (int block = 0; block < 10; block++) {
+			for (int i = 0; i < ys.length; i++) {
+				ys[i] = (i % 11 == 0) ? Double.NaN : Math.sin(block * ys.length + i);
+			}
+			store.append(ys, 0, ys.length);
+		}
+		store.close();
+
+		SampleStore opened = SampleStore.open(file);
+		assertEquals(370, opened.size());
+		assertEquals(370 * 8 / 64 + 1, opened.segmentCount());
+		assertTrue(opened.verify());
+		for (long i = 0; i < opened.size(); i++) {
+			double expected = (i % ys.length) % 11 == 0 ? Double.NaN : Math.sin(i);
+			assertEquals(expected, opened.getY(i), 0.0);
+			assertEquals(-1.0 + i * 0.01, opened.getX(i), 1e-12);
+		}
+
+		// The segments and the transfer give the stored bytes as they are
+		ByteBuffer segment = opened.segment(3);
+		assertEquals(64, segment.remaining());
+		assertEquals(opened.getY(24), segment.getDouble(0), 0.0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(370 * 8, opened.transferTo(Channels.newChannel(out)));
+		assertEquals(opened.getY(369), ByteBuffer.wrap(out.toByteArray()).getDouble(369 * 8), 0.0);
+		opened.close();
+	}
+
+	@Test
+	public void corruption_is_detected() throws IOException {
+		SampleStore store = SampleStore.create(file, 0.0, 1.0, true);
+		store.append(new double[] {1.0, 2.0, 3.0}, 0, 3);
+		store.close();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(SampleStore.HEADER_BYTES + 5);
+		raf.write(0x7F);
+		raf.close();
+		SampleStore opened = SampleStore.open(file);
+		assertFalse(opened.verify());
+		opened.close();
+
+		raf = new RandomAccessFile(file, "rw");
+		raf.seek(33);
+		raf.write(0x7F);
+		raf.close();
+		try {
+			SampleStore.open(file);
+			fail("The header was corrupted");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void selection_keeps_the_shape_with_few_samples() throws IOException {
+		SampleStore store = SampleStore.create(file, 0.0, 0.001, true, 4096);
+		double[] ys = new double[1000];
+		for (int block = 0; block < 100; block++) {
+			for (int i = 0; i < ys.length; i++) {
+				ys[i] = Math.sin((block * ys.length + i) * 0.001);
+			}
+			store.append(ys, 0, ys.length);
+		}
+		store.close();
+
+		PlotSeries selection = store.select(0.0, 100.0, 0.1);
+		assertTrue(selection.size() <= 4 * 1001);
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = 0; i < selection.size(); i++) {
+			min = Math.min(min, selection.getY(i));
+			max = Math.max(max, selection.getY(i));
+		}
+		assertEquals(-1.0, min, 1e-6);
+		assertEquals(1.0, max, 1e-6);
+	}
+
+	@Test
+	public void the_file_holds_only_the_samples() throws IOException {
+		SampleStore store = SampleStore.create(file, 0.0, 1.0, false);
+		store.append(new double[] {1.0, 2.0, 3.0}, 0, 3);
+		store.close();
+		assertEquals(SampleStore.HEADER_BYTES + 3 * 8, file.length());
+		assertEquals(2.0, store.getY(1), 0.0);
+
+		// Across segments, mapped again as they grow
+		store = SampleStore.create(file, 0.0, 1.0, true, 1 << 20);
+		double[] ys = new double[100000];
+		for (int i = 0; i < ys.length; i++) {
+			ys[i] = i;
+		}
+		for (int block = 0; block < 7; block++) {
+			store.append(ys, 0, ys.length);
+		}
+		store.close();
+		assertEquals(SampleStore.HEADER_BYTES + 700000 * 4, file.length());
+
+		SampleStore opened = SampleStore.open(file);
+		assertEquals(700000, opened.size());
+		assertTrue(opened.verify());
+		for (long i = 0; i < opened.size(); i += 1009) {
+			assertEquals(i % ys.length, opened.getY(i), 0.0);
+		}
+		opened.close();
+	}
+
+	@Test
+	public void engine_samples_to_file_beyond_the_plot_bounds() throws ExpressionException, IOException {
+		PlotEngine engine = new PlotEngine();
+		SampleStore store = engine.sampleToFile("x^2", -1e6, 1e6, 300001, file, false);
+		assertEquals(300001, store.size());
+		assertTrue(store.verify());
+		for (long i = 0; i < store.size(); i += 997) {
+			double x = store.getX(i);
+			assertEquals(x * x, store.getY(i), 1e-6 * x * x);
+		}
+		assertEquals(1e12, store.getY(0), 1.0);
+		assertEquals(100, engine.getProgress());
+		store.close();
+	}
+
+	@Test
+	public void sampling_to_file_is_independent_of_the_plots() throws ExpressionException, IOException {
+		final PlotEngine engine = new PlotEngine();
+		final PlotRequest request = new PlotRequest();
+		final AtomicLong calls = new AtomicLong();
+		SymbolRegistry.registerFunction("exported", new UserFunction(1) {
+			@Override
+			public double apply(double a) {
+				long call = calls.incrementAndGet();
+				if (call == 1) {
+					// A plot started meanwhile
+					try {
+						engine.updateFunction("sin(x)", -1.0, 1.0);
+					} catch (ExpressionException e) {
+						throw new IllegalStateException(e);
+					}
+				} else if (call == 150000) {
+					request.cancel();
+				}
+				return a;
+			}
+		});
+		try {
+			SampleStore store = engine.sampleToFile("exported(x)", 0.0, 1.0, 100001, file, false, new PlotRequest());
+			assertEquals(100001, store.size());
+			store.close();
+			assertEquals("sin(x)", engine.getCurrentFunctionText());
+			
+			// Cancelled by the caller
+			try {
+				engine.sampleToFile("exported(x)", 0.0, 1.0, 100001, file, false, request);
+				fail("The sampling should have been cancelled");
+			} catch (CancellationException e) {
+				assertTrue(request.getProgress() < 100);
+				assertFalse(file.exists());
+			}
+		} finally {
+			SymbolRegistry.unregister("exported");
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package jrplot.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jrplot.core.geometry.CoordinatesConverter;
+import jrplot.core.geometry.M4Decimator;
+
+import org.junit.Test;
+
+
+public class SeriesPyramidTest {
+
+	private static final int SAMPLES = 100001;
+	private static final double STEP = 0.0001;
+
+	private static PlotSeries series() {
+		PlotSeries series = PlotSeries.uniform(-5.0, STEP, SAMPLES, false);
+		for (int i = 0; i < SAMPLES; i++) {
+			double x = -5.0 + i * STEP;
+			series.add(x > 1.0 && x < 1.5 ? Double.NaN : Math.sin(40 * x) + x / 10);
+		}
+		return series.readOnlyView();
+	}
+
+	@Test
+	public void levels_are_built_on_first_use() {
+		PlotSeries series = series();
+		SeriesPyramid pyramid = new SeriesPyramid(series);
+		assertEquals(0, pyramid.builtLevels());
+
+		// Samples wider than the pixels: nothing to aggregate
+		assertSame(series, pyramid.select(-5.0, 5.0, STEP / 2));
+		assertEquals(0, pyramid.builtLevels());
+
+		assertEquals(3, pyramid.levelFor(STEP * 64));
+		pyramid.select(-5.0, 5.0, STEP * 64);
+		assertEquals(3, pyramid.builtLevels());
+	}
+
+	@Test
+	public void selection_depends_on_the_pixels() {
+		SeriesPyramid pyramid = new SeriesPyramid(series());
+		int width = 500;
+		PlotSeries selection = pyramid.select(-5.0, 5.0, 10.0 / width);
+		// At most 6 samples per bucket, buckets being wider than a quarter of a pixel
+		assertTrue(String.valueOf(selection.size()), selection.size() <= 6 * SeriesPyramid.FANOUT * width);
+		assertSame(selection, pyramid.select(-5.0, 5.0, 10.0 / width));
+
+		// Zooming in: fewer samples on the visible interval, at a finer level
+		PlotSeries zoomed = pyramid.select(0.0, 1.0, 1.0 / width);
+		assertTrue(zoomed.getX(0) <= 0.0);
+		assertTrue(zoomed.getX(zoomed.size() - 1) >= 1.0);
+		assertTrue(zoomed.getX(zoomed.size() - 1) < 1.1);
+	}
+
+	@Test
+	public void selection_keeps_the_shape_of_the_series() {
+		PlotSeries series = series();
+		PlotSeries selection = new SeriesPyramid(series).select(-5.0, 5.0, 0.02);
+
+		assertEquals(series.getX(0), selection.getX(0), 0.0);
+		assertEquals(series.getX(series.size() - 1), selection.getX(selection.size() - 1), 0.0);
+		assertEquals(extreme(series, true), extreme(selection, true), 0.0);
+		assertEquals(extreme(series, false), extreme(selection, false), 0.0);
+
+		int gaps = 0;
+		for (int i = 0; i < selection.size(); i++) {
+			if (selection.isGap(i)) {
+				gaps++;
+				assertTrue(selection.getX(i) > 1.0 && selection.getX(i) < 1.5);
+			}
+		}
+		assertTrue(gaps > 0);
+	}
+
+	@Test
+	public void selection_is_decimated_like_the_series() {
+		PlotSeries series = series();
+		SeriesPyramid pyramid = new SeriesPyramid(series);
+		for (int width : new int[] {97, 500, 1013}) {
+			CoordinatesConverter converter = new CoordinatesConverter()
+				.logicalBounds(-5.0, 5.0, -2.0, 2.0)
+				.screenSize(width, 400, 10.0);
+			PlotSeries selection = pyramid.select(-5.0, 5.0, converter);
+			assertTrue(selection.size() < series.size());
+			assertArrayEquals(points(series, converter, Integer.MIN_VALUE, Integer.MAX_VALUE),
+					points(selection, converter, Integer.MIN_VALUE, Integer.MAX_VALUE));
+		}
+
+		// Zoomed in, across the gap: the same points on the visible columns
+		double minX = 0.3;
+		double maxX = 1.7;
+		CoordinatesConverter converter = new CoordinatesConverter()
+			.logicalBounds(minX, maxX, -2.0, 2.0)
+			.screenSize(733, 400, 10.0);
+		PlotSeries selection = pyramid.select(minX, maxX, converter);
+		assertTrue(selection.size() < series.size() / 10);
+		int minColumn = (int) converter.toScreenX(minX);
+		int maxColumn = (int) converter.toScreenX(maxX);
+		assertArrayEquals(points(series, converter, minColumn, maxColumn),
+				points(selection, converter, minColumn, maxColumn));
+	}
+
+	/**
+	 * 
+	 * @return The points given by the decimator for a range of columns, with the breaks
+	 * between them.
+	 */
+	private static String[] points(PlotSeries series, CoordinatesConverter converter, 
+			int minColumn, int maxColumn) {
+		M4Decimator decimator = new M4Decimator();
+		decimator.update(series, converter);
+		List<String> points = new ArrayList<String>();
+		for (int i = 0; i < decimator.size(); i++) {
+			if (decimator.getY(i) == M4Decimator.BREAK) {
+				if (!points.isEmpty() && !points.get(points.size() - 1).equals("break")) {
+					points.add("break");
+				}
+			} else if (decimator.getX(i) >= minColumn && decimator.getX(i) <= maxColumn) {
+				points.add(decimator.getX(i) + "," + decimator.getY(i));
+			}
+		}
+		if (!points.isEmpty() && points.get(points.size() - 1).equals("break")) {
+			points.remove(points.size() - 1);
+		}
+		return points.toArray(new String[points.size()]);
+	}
+
+	private static double extreme(PlotSeries series, boolean max) {
+		double result = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		for (int i = 0; i < series.size(); i++) {
+			if (!series.isGap(i)) {
+				result = max ? Math.max(result, series.getY(i)) : Math.min(result, series.getY(i));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,211 @@
+package jrplot.core.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class CompiledFunctionTest {
+
+	private static final double DBL_COMPARE_DELTA = 0.000001;
+	
+	private static final String[] EXPRESSIONS = {
+		"1+2",
+		"x",
+		"-x^3 + 2x^2 - x/7",
+		"exp( cos(x^2 + 1) )",
+		"5min(x^2, x^3)*x(7+x/2)",
+		"max(sin(x), cos(x)) - abs(x) + sqrt(x) + log(x) + logten(x)",
+		"tan(x) + atan(x) + asin(x/10) + acos(x/10) - 0 * PI",
+		"1/x",
+		"2 - x + 3/x - x/4 + 5*x",
+		"(x+1)^5 * 2 + x^(-3) + x^0 + 2^x + x^0.5 + x^70",
+		"3x^4 - 2x^3 + x - 7 + sin(x^2/2 - x*x*x)",
+		"(x^2 + 1)/(2x^3 - 3x)",
+	};
+	
+	@Test
+	public void generated_function_matches_interpreter() throws ExpressionException {
+		for (String text : EXPRESSIONS) {
+			Expression exp = Expression.parse(text);
+			CompiledFunction fn = exp.toFunction();
+			assertTrue(text, !(fn instanceof InterpretedFunction));
+			
+			for (double x = -3.0; x <= 3.0; x += 0.25) {
+				assertEquals(text + " @ " + x, exp.evaluate(x), fn.applyAsDouble(x), DBL_COMPARE_DELTA);
+			}
+		}
+	}
+	
+	@Test
+	public void batch_evaluation_matches_scalar() throws ExpressionException {
+		// More values than a single block, to cover the block boundaries
+		double[] xs = new double[1000];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = -3.0 + i * 0.006;
+		}
+		
+		for (String text : EXPRESSIONS) {
+			Expression exp = Expression.parse(text);
+			double[] out = new double[xs.length];
+			exp.evaluate(xs, out);
+			
+			double[] generatedOut = new double[xs.length];
+			exp.toFunction().applyAsDouble(xs, generatedOut, xs.length);
+			
+			double[] interpretedOut = new double[xs.length];
+			new InterpretedFunction(exp.program()).applyAsDouble(xs, interpretedOut, xs.length);
+			
+			for (int i = 0; i < xs.length; i++) {
+				double expected = exp.evaluate(xs[i]);
+				assertEquals(text + " @ " + xs[i], expected, out[i], DBL_COMPARE_DELTA);
+				assertEquals(text + " @ " + xs[i], expected, generatedOut[i], DBL_COMPARE_DELTA);
+				assertEquals(text + " @ " + xs[i], expected, interpretedOut[i], DBL_COMPARE_DELTA);
+			}
+		}
+	}
+	
+	@Test
+	public void integer_powers_match_math_pow() throws ExpressionException {
+		for (int k = -12; k <= 12; k++) {
+			Expression exp = Expression.parse("(x)^(" + k + ")");
+			CompiledFunction fn = exp.toFunction();
+			double[] xs = {-2.5, -1.0, -0.0, 0.0, 0.3, 1.0, 7.0, Double.NaN, Double.POSITIVE_INFINITY};
+			double[] out = new double[xs.length];
+			exp.evaluate(xs, out);
+			
+			for (int i = 0; i < xs.length; i++) {
+				double expected = Math.pow(xs[i], k);
+				double delta = Math.abs(expected) * 1e-14;
+				assertEquals(k + " @ " + xs[i], expected, exp.evaluate(xs[i]), delta);
+				assertEquals(k + " @ " + xs[i], expected, fn.applyAsDouble(xs[i]), delta);
+				assertEquals(k + " @ " + xs[i], expected, out[i], delta);
+			}
+		}
+	}
+	
+	@Test
+	public void generated_function_keeps_nan_and_infinity() throws ExpressionException {
+		CompiledFunction fn = Expression.parse("1/x").toFunction();
+		assertEquals(Double.POSITIVE_INFINITY, fn.applyAsDouble(0.0), 0.0);
+		
+		fn = Expression.parse("sqrt(x)").toFunction();
+		assertTrue(Double.isNaN(fn.applyAsDouble(-1.0)));
+	}
+	
+	@Test
+	public void large_expression_falls_back_to_interpreter() throws ExpressionException {
+		StringBuilder text = new StringBuilder("x");
+		for (int i = 1; i <= 3000; i++) {
+			text.append("+").append(i).append(".5");
+		}
+		
+		Expression exp = Expression.parse(text.toString());
+		CompiledFunction fn = exp.toFunction();
+		assertTrue(fn instanceof InterpretedFunction);
+		assertEquals(exp.evaluate(2.0), fn.applyAsDouble(2.0), DBL_COMPARE_DELTA);
+	}
+	
+	@Test(expected = ExpressionException.class)
+	public void unknown_variable_cannot_be_compiled() throws ExpressionException {
+		Expression.parse("2y + 1").toFunction();
+	}
+	
+	@Test
+	public void variables_have_sorted_slots() throws ExpressionException {
+		Expression exp = Expression.parse("b*X + A*a^2");
+		assertArrayEquals(new String[] {"a", "b", "x"}, exp.getVariables());
+		assertEquals(1, exp.getVariableSlot("B"));
+		assertEquals(2, exp.getVariableSlot("x"));
+		assertEquals(-1, exp.getVariableSlot("y"));
+		
+		assertEquals(5.0 * 3.0 + 2.0 * 2.0 * 2.0, exp.evaluate(new double[] {2.0, 5.0, 3.0}), 0.0);
+	}
+	
+	@Test
+	public void bound_functions_match_bindings() throws ExpressionException {
+		Expression exp = Expression.parse("a*sin(b*x) + a");
+		double[] xs = {-1.0, 0.0, 0.5, 2.0};
+		
+		for (double a = -1.0; a <= 1.0; a += 0.5) {
+			double[] bindings = {a, 2.0 * a, 0.0};
+			CompiledFunction fn = exp.toFunction(bindings);
+			assertTrue(!(fn instanceof InterpretedFunction));
+			CompiledFunction interpreted = new InterpretedFunction(exp.program(), bindings);
+			
+			double[] out = new double[xs.length];
+			fn.applyAsDouble(xs, out, xs.length);
+			double[] interpretedOut = new double[xs.length];
+			interpreted.applyAsDouble(xs, interpretedOut, xs.length);
+			
+			for (int i = 0; i < xs.length; i++) {
+				double expected = a * Math.sin(2.0 * a * xs[i]) + a;
+				bindings[2] = xs[i];
+				assertEquals(expected, exp.evaluate(bindings), DBL_COMPARE_DELTA);
+				assertEquals(expected, fn.applyAsDouble(xs[i]), DBL_COMPARE_DELTA);
+				assertEquals(expected, interpreted.applyAsDouble(xs[i]), DBL_COMPARE_DELTA);
+				assertEquals(expected, out[i], DBL_COMPARE_DELTA);
+				assertEquals(expected, interpretedOut[i], DBL_COMPARE_DELTA);
+			}
+		}
+	}
+	
+	@Test
+	public void function_set_matches_the_single_functions() throws ExpressionException {
+		Expression[] exps = new Expression[EXPRESSIONS.length];
+		for (int i = 0; i < exps.length; i++) {
+			exps[i] = Expression.parse(EXPRESSIONS[i]);
+		}
+		CompiledFunctionSet set = CompiledFunctionSet.of(exps);
+		assertEquals(EXPRESSIONS.length, set.size());
+		
+		double[] xs = new double[1000];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = -3.0 + i * 0.006;
+		}
+		double[][] outs = new double[exps.length][xs.length];
+		set.copy().applyAsDouble(xs, outs, xs.length);
+		double[] out = new double[exps.length];
+		
+		for (int i = 0; i < xs.length; i++) {
+			set.applyAsDouble(xs[i], out);
+			for (int e = 0; e < exps.length; e++) {
+				double expected = exps[e].evaluate(xs[i]);
+				assertEquals(EXPRESSIONS[e] + " @ " + xs[i], expected, outs[e][i], DBL_COMPARE_DELTA);
+				assertEquals(EXPRESSIONS[e] + " @ " + xs[i], expected, out[e], DBL_COMPARE_DELTA);
+			}
+		}
+	}
+	
+	@Test
+	public void function_set_shares_subexpressions_across_functions() throws ExpressionException {
+		String[] texts = {"sin(x)*exp(-x)", "cos(x)*exp(-x)", "sin(x)*exp(-x) - cos(x)*exp(-x)", "x", "sin(x)"};
+		Node[] roots = new Node[texts.length];
+		for (int i = 0; i < texts.length; i++) {
+			roots[i] = Expression.parse(texts[i]).compiled().tree;
+		}
+		Program program = Program.compile(Optimizer.shareCommonSubexpressions(roots), new String[] {"x"});
+		assertEquals(texts.length, program.outputCount);
+		
+		int sines = 0;
+		int exps = 0;
+		for (int op : program.code) {
+			if (op == Program.SIN) sines++;
+			if (op == Program.EXP) exps++;
+		}
+		assertEquals(1, sines);
+		assertEquals(1, exps);
+	}
+	
+	@Test(expected = ExpressionException.class)
+	public void function_set_rejects_unknown_variables() throws ExpressionException {
+		CompiledFunctionSet.of(Expression.parse("x"), Expression.parse("2y + 1"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void missing_bindings_are_rejected() throws ExpressionException {
+		Expression.parse("a*x").evaluate(new double[] {1.0});
+	}
+}
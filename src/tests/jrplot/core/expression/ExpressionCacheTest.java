@@ -0,0 +1,96 @@
+package jrplot.core.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class ExpressionCacheTest {
+
+	private static final double DBL_COMPARE_DELTA = 0.000001;
+	
+	@Test
+	public void equivalent_texts_share_one_entry() throws ExpressionException {
+		ExpressionCache cache = new ExpressionCache(10);
+		Expression a = cache.parse("2x");
+		Expression b = cache.parse("2*x");
+		Expression c = cache.parse(" 2 * x ");
+		
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getMisses());
+		assertEquals(2, cache.getHits());
+		assertSame(a.compiled(), b.compiled());
+		assertSame(a.compiled(), c.compiled());
+		assertNotSame(a, b);
+		assertEquals(6.0, c.evaluate(3.0), DBL_COMPARE_DELTA);
+		
+		cache.parse("2x + 1");
+		assertEquals(2, cache.size());
+	}
+	
+	@Test
+	public void variable_names_are_not_case_sensitive() throws ExpressionException {
+		ExpressionCache cache = new ExpressionCache(10);
+		Expression a = cache.parse("2X");
+		Expression b = cache.parse("2*x");
+		
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getHits());
+		assertSame(a.compiled(), b.compiled());
+		assertEquals(6.0, a.evaluate(3.0), DBL_COMPARE_DELTA);
+	}
+	
+	@Test
+	public void compiled_function_is_shared() throws ExpressionException {
+		ExpressionCache cache = new ExpressionCache(10);
+		CompiledFunction fn = cache.parse("sin(x)^2").toFunction();
+		assertTrue(!(fn instanceof InterpretedFunction));
+		assertSame(fn, cache.parse("sin(x) ^ 2").toFunction());
+	}
+	
+	@Test
+	public void least_recently_used_entry_is_evicted() throws ExpressionException {
+		ExpressionCache cache = new ExpressionCache(2);
+		Expression a = cache.parse("x + 1");
+		cache.parse("x + 2");
+		cache.parse("x + 1");
+		cache.parse("x + 3");
+		
+		assertEquals(2, cache.size());
+		assertSame(a.compiled(), cache.parse("x+1").compiled());
+		assertEquals(3, cache.getMisses());
+		cache.parse("x+2");
+		assertEquals(4, cache.getMisses());
+		
+		cache.setMaxEntries(1);
+		assertEquals(1, cache.size());
+		cache.parse("x+2");
+		assertEquals(4, cache.getMisses());
+	}
+	
+	@Test
+	public void registry_changes_are_seen() throws ExpressionException {
+		ExpressionCache cache = new ExpressionCache(10);
+		try {
+			SymbolRegistry.registerConstant("cachek", 2.0);
+			assertEquals(6.0, cache.parse("3cachek").evaluate(), 0.0);
+			SymbolRegistry.registerConstant("cachek", 5.0);
+			assertEquals(15.0, cache.parse("3cachek").evaluate(), 0.0);
+		} finally {
+			SymbolRegistry.unregister("cachek");
+		}
+	}
+	
+	@Test(expected = ExpressionException.class)
+	public void errors_are_not_cached() throws ExpressionException {
+		ExpressionCache cache = new ExpressionCache(10);
+		try {
+			cache.parse("2*x+");
+		} finally {
+			assertEquals(0, cache.size());
+		}
+	}
+}
@@ -161,4 +161,47 @@ public class ExpressionParseTest {
 		assertEquals("2.0 -1.0 x * 1.0 + * ", exp.toString());
 		assertEquals(-18.0, exp.evaluate(10.0), DBL_COMPARE_DELTA);
 	}
+	
+	@Test(expected = ExpressionException.class)
+	public void missing_operand_rejected_on_parse() throws ExpressionException {
+		Expression.parse("2*x+");
+	}
+	
+	@Test(expected = ExpressionException.class)
+	public void missing_operator_rejected_on_parse() throws ExpressionException {
+		Expression.parse("min(x, 2, 3)");
+	}
+	
+	@Test
+	public void numbers_are_parsed_exactly() throws ExpressionException {
+		String[] numbers = {"0", "7", "0.1", "1.", "3.14159265358979", "123456789012345", 
+				"1234567890123456789", "0.000000000000000000000000001", "9007199254740993",
+				"2.2250738585072014", "179769313486231570000000000000000000000000"};
+		for (String number : numbers) {
+			assertEquals(number, Double.parseDouble(number), Expression.parse(number).evaluate(), 0.0);
+			assertEquals(number, -Double.parseDouble(number), 
+					Expression.parse("-" + number).evaluate(), 0.0);
+		}
+	}
+	
+	@Test(expected = ExpressionException.class)
+	public void invalid_number_rejected_on_parse() throws ExpressionException {
+		Expression.parse("1.2.3 + x");
+	}
+	
+	@Test(expected = ExpressionException.class)
+	public void whitespace_separates_tokens() throws ExpressionException {
+		Expression.parse("1 2");
+	}
+	
+	@Test
+	public void long_expressions_are_parsed() throws ExpressionException {
+		StringBuilder text = new StringBuilder("0");
+		double expected = 0.0;
+		for (int i = 1; i <= 1000; i++) {
+			text.append(" + ").append(i).append("x^").append(i % 7);
+			expected += i * Math.pow(0.5, i % 7);
+		}
+		assertEquals(expected, Expression.parse(text).evaluate(0.5), DBL_COMPARE_DELTA);
+	}
 }
@@ -0,0 +1,125 @@
+package jrplot.core.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class OptimizerTest {
+
+	private static final double DBL_COMPARE_DELTA = 0.000001;
+	
+	@Test
+	public void constant_subtrees_are_folded() throws ExpressionException {
+		Program p = Expression.parse("2*PI*x").program();
+		assertArrayEquals(new int[] {Program.LOAD_X, Program.MUL_C, 0}, p.code);
+		assertEquals(2 * Math.PI, p.constants[0], 0.0);
+		
+		p = Expression.parse("sqrt(2)/2 + max(1, 3)^2").program();
+		assertArrayEquals(new int[] {Program.CONST, 0}, p.code);
+		assertEquals(Math.sqrt(2) / 2 + 9.0, p.constants[0], 0.0);
+	}
+	
+	@Test
+	public void negation_replaces_multiplication_by_minus_one() throws ExpressionException {
+		Program p = Expression.parse("-sin(x)").program();
+		assertArrayEquals(new int[] {Program.LOAD_X, Program.SIN, Program.NEG}, p.code);
+		
+		p = Expression.parse("-(-x)").program();
+		assertArrayEquals(new int[] {Program.LOAD_X}, p.code);
+		
+		p = Expression.parse("-PI").program();
+		assertArrayEquals(new int[] {Program.CONST, 0}, p.code);
+		assertEquals(-Math.PI, p.constants[0], 0.0);
+	}
+	
+	@Test
+	public void identities_are_simplified() throws ExpressionException {
+		int[] onlyX = {Program.LOAD_X};
+		assertArrayEquals(onlyX, Expression.parse("x*1").program().code);
+		assertArrayEquals(onlyX, Expression.parse("1*x").program().code);
+		assertArrayEquals(onlyX, Expression.parse("x/1").program().code);
+		assertArrayEquals(onlyX, Expression.parse("x+0").program().code);
+		assertArrayEquals(onlyX, Expression.parse("0+x").program().code);
+		assertArrayEquals(onlyX, Expression.parse("x-0").program().code);
+		assertArrayEquals(onlyX, Expression.parse("x^1").program().code);
+		assertArrayEquals(new int[] {Program.LOAD_X, Program.LOAD_X, Program.MUL}, 
+				Expression.parse("x^2").program().code);
+		assertEquals(1.0, Expression.parse("(x+1)^0").evaluate(Double.NaN), 0.0);
+	}
+	
+	@Test
+	public void nan_and_infinity_are_preserved() throws ExpressionException {
+		Expression exp = Expression.parse("0*x + x - x");
+		assertTrue(Double.isNaN(exp.evaluate(Double.POSITIVE_INFINITY)));
+		assertEquals(0.0, exp.evaluate(5.0), DBL_COMPARE_DELTA);
+		
+		exp = Expression.parse("1/(x*1)");
+		assertEquals(Double.POSITIVE_INFINITY, exp.evaluate(0.0), 0.0);
+		
+		exp = Expression.parse("log(2 - 3)*x");
+		assertTrue(Double.isNaN(exp.evaluate(1.0)));
+	}
+	
+	@Test
+	public void common_subexpressions_are_evaluated_once() throws ExpressionException {
+		Program p = Expression.parse("sin(x)^2 + cos(x)*sin(x)").program();
+		assertEquals(1, p.registerCount);
+		assertEquals(1, count(p.code, Program.SIN));
+		
+		// Commutative operations match in any order
+		p = Expression.parse("exp(-x^2)*(1-exp(-(x*x))) + (x+1)*(1+x)").program();
+		assertEquals(2, p.registerCount);
+		assertEquals(1, count(p.code, Program.EXP));
+	}
+	
+	@Test
+	public void shared_results_match_unshared_evaluation() throws ExpressionException {
+		StringBuilder text = new StringBuilder("0");
+		StringBuilder reference = new StringBuilder("0");
+		for (int i = 1; i <= 150; i++) {
+			text.append("+sin(x+").append(i).append(")*sin(").append(i).append("+x)");
+			reference.append("+sin(x+").append(i).append(")*sin(x+").append(i + 0.0000001).append(")");
+		}
+		Expression exp = Expression.parse(text.toString());
+		Expression ref = Expression.parse(reference.toString());
+		assertEquals(150, exp.program().registerCount);
+		
+		CompiledFunction fn = exp.toFunction();
+		assertTrue(!(fn instanceof InterpretedFunction));
+		double[] xs = {-1.0, 0.0, 0.5, 2.0};
+		double[] out = new double[xs.length];
+		exp.evaluate(xs, out);
+		for (int i = 0; i < xs.length; i++) {
+			assertEquals(ref.evaluate(xs[i]), exp.evaluate(xs[i]), 0.0001);
+			assertEquals(exp.evaluate(xs[i]), fn.applyAsDouble(xs[i]), 0.0);
+			assertEquals(exp.evaluate(xs[i]), out[i], 0.0);
+		}
+	}
+	
+	@Test
+	public void deep_trees_are_handled_without_recursion() throws ExpressionException {
+		StringBuilder text = new StringBuilder("x");
+		for (int i = 1; i <= 50000; i++) {
+			text.append(i % 2 == 0 ? "+sin(x)" : "-x/2");
+		}
+		Expression exp = Expression.parse(text);
+		assertEquals(1, count(exp.program().code, Program.SIN));
+		
+		double expected = 0.5;
+		for (int i = 1; i <= 50000; i++) {
+			expected = i % 2 == 0 ? expected + Math.sin(0.5) : expected - 0.5/2;
+		}
+		assertEquals(expected, exp.evaluate(0.5), 0.0);
+	}
+	
+	private static int count(int[] code, int opcode) {
+		int count = 0;
+		for (int c : code) {
+			if (c == opcode) count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,99 @@
+package jrplot.core.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+
+public class PolynomialsTest {
+
+	private static final double DBL_COMPARE_DELTA = 0.000001;
+	
+	@Test
+	public void polynomial_coefficients_are_collected() throws ExpressionException {
+		assertArrayEquals(new double[] {-7.0, 1.0, 0.0, -2.0, 3.0}, 
+				Expression.parse("3x^4 - 2x^3 + x - 7").getPolynomialCoefficients(), 0.0);
+		assertArrayEquals(new double[] {5.0, 0.0, 0.5}, 
+				Expression.parse("x*x/2 + 5").getPolynomialCoefficients(), 0.0);
+		assertArrayEquals(new double[] {0.0, -1.0}, 
+				Expression.parse("x^2 - (x^2 + x)").getPolynomialCoefficients(), 0.0);
+		assertArrayEquals(new double[] {4.0}, 
+				Expression.parse("2+2").getPolynomialCoefficients(), 0.0);
+		
+		assertNull(Expression.parse("sin(x) + x").getPolynomialCoefficients());
+		assertNull(Expression.parse("x^(-1) + x").getPolynomialCoefficients());
+		assertNull(Expression.parse("1/x").getPolynomialCoefficients());
+	}
+	
+	@Test
+	public void rational_coefficients_are_collected() throws ExpressionException {
+		double[][] r = Expression.parse("(x^2 + 1)/(2x - 3)").getRationalCoefficients();
+		assertArrayEquals(new double[] {1.0, 0.0, 1.0}, r[0], 0.0);
+		assertArrayEquals(new double[] {-3.0, 2.0}, r[1], 0.0);
+		assertNull(Expression.parse("(x^2 + 1)/(2x - 3)").getPolynomialCoefficients());
+		
+		r = Expression.parse("x^2 - 1").getRationalCoefficients();
+		assertArrayEquals(new double[] {-1.0, 0.0, 1.0}, r[0], 0.0);
+		assertArrayEquals(new double[] {1.0}, r[1], 0.0);
+		
+		assertNull(Expression.parse("(x+1)/sin(x)").getRationalCoefficients());
+	}
+	
+	@Test
+	public void polynomials_are_evaluated_with_horner_scheme() throws ExpressionException {
+		Expression exp = Expression.parse("3x^4 - 2x^3 + x - 7");
+		assertArrayEquals(new int[] {Program.LOAD_X, Program.HORNER, 0, 4}, exp.program().code);
+		
+		double[] xs = new double[41];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = -5.0 + i * 0.25;
+		}
+		double[] out = new double[xs.length];
+		exp.evaluate(xs, out);
+		CompiledFunction fn = exp.toFunction();
+		for (int i = 0; i < xs.length; i++) {
+			double x = xs[i];
+			double expected = 3*Math.pow(x, 4) - 2*Math.pow(x, 3) + x - 7;
+			assertEquals(expected, exp.evaluate(x), DBL_COMPARE_DELTA);
+			assertEquals(exp.evaluate(x), out[i], 0.0);
+			assertEquals(exp.evaluate(x), fn.applyAsDouble(x), 0.0);
+		}
+	}
+	
+	@Test
+	public void powers_of_sums_are_not_expanded() throws ExpressionException {
+		assertNull(Expression.parse("(x-1)^10").getPolynomialCoefficients());
+		
+		// Expanded, the coefficients of (x-1)^10 would cancel each other near x=1
+		Expression exp = Expression.parse("(x-1)^10");
+		assertEquals(1e-20, exp.evaluate(1.01), 1e-30);
+	}
+	
+	@Test
+	public void constant_factors_are_folded_into_the_coefficients() throws ExpressionException {
+		assertArrayEquals(new double[] {-3.0, 0.0, 3.0}, 
+				Expression.parse("3(x^2-1)").getPolynomialCoefficients(), 0.0);
+		assertArrayEquals(new double[] {0.5, 0.5}, 
+				Expression.parse("(x+1)/2").getPolynomialCoefficients(), 0.0);
+		assertArrayEquals(new double[] {-1.0, 1.0, -0.5}, 
+				Expression.parse("-(x^2 - 2x + 2)/2").getPolynomialCoefficients(), 0.0);
+		assertNull(Expression.parse("(x+1)/0").getPolynomialCoefficients());
+		
+		double[][] r = Expression.parse("3(x^2-1)/(x+2)").getRationalCoefficients();
+		assertArrayEquals(new double[] {-3.0, 0.0, 3.0}, r[0], 0.0);
+		assertArrayEquals(new double[] {2.0, 1.0}, r[1], 0.0);
+		
+		Expression exp = Expression.parse("2(x^2 + x)/4");
+		for (double x = -3.0; x <= 3.0; x += 0.5) {
+			assertEquals((x*x + x) / 2, exp.evaluate(x), DBL_COMPARE_DELTA);
+		}
+	}
+	
+	@Test
+	public void single_terms_are_left_as_they_are() throws ExpressionException {
+		assertArrayEquals(new int[] {Program.LOAD_X, Program.POWI, 3, Program.ADD_C, 0}, 
+				Expression.parse("x^3 + 1").program().code);
+	}
+}
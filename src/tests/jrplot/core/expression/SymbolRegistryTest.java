@@ -0,0 +1,149 @@
+package jrplot.core.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class SymbolRegistryTest {
+
+	private static final double DBL_COMPARE_DELTA = 0.000001;
+	
+	private int calls;
+	
+	@Before
+	public void register() {
+		SymbolRegistry.registerFunction("sinc", new UserFunction(1) {
+			@Override
+			public double apply(double a) {
+				calls++;
+				return a == 0 ? 1.0 : Math.sin(a) / a;
+			}
+		});
+		SymbolRegistry.registerFunction("hypot", new UserFunction(2) {
+			@Override
+			public double apply(double a, double b) {
+				return Math.sqrt(a*a + b*b);
+			}
+		});
+		SymbolRegistry.registerFunction("clamp", new UserFunction(3) {
+			@Override
+			public double apply(double[] args, int offset) {
+				return Math.max(args[offset + 1], Math.min(args[offset], args[offset + 2]));
+			}
+		});
+		SymbolRegistry.registerConstant("tau", 2 * Math.PI);
+	}
+	
+	@After
+	public void unregister() {
+		SymbolRegistry.unregister("sinc");
+		SymbolRegistry.unregister("hypot");
+		SymbolRegistry.unregister("clamp");
+		SymbolRegistry.unregister("tau");
+	}
+	
+	@Test
+	public void registered_symbols_are_parsed() throws ExpressionException {
+		Expression exp = Expression.parse("SINC(x) + hypot(x, 4) * clamp(x, -1, 1) + 2Tau");
+		assertEquals("x SINC x 4.0 HYPOT x -1.0 1.0 * 1.0 CLAMP * + 2.0 TAU * + ", exp.toString());
+		assertEquals(Math.sin(3.0)/3.0 + 5.0 + 4 * Math.PI, exp.evaluate(3.0), DBL_COMPARE_DELTA);
+		assertEquals(1.0 + 4.0 * 0.0 + 4 * Math.PI, exp.evaluate(0.0), DBL_COMPARE_DELTA);
+	}
+	
+	@Test
+	public void registered_functions_are_compiled() throws ExpressionException {
+		Expression exp = Expression.parse("sinc(x) + hypot(x, 4) * clamp(x^2, -1, 1) - tau");
+		CompiledFunction fn = exp.toFunction();
+		assertTrue(!(fn instanceof InterpretedFunction));
+		
+		double[] xs = new double[300];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = -3.0 + i * 0.02;
+		}
+		double[] out = new double[xs.length];
+		double[] generatedOut = new double[xs.length];
+		exp.evaluate(xs, out);
+		fn.applyAsDouble(xs, generatedOut, xs.length);
+		for (int i = 0; i < xs.length; i++) {
+			assertEquals(exp.evaluate(xs[i]), out[i], 0.0);
+			assertEquals(exp.evaluate(xs[i]), fn.applyAsDouble(xs[i]), 0.0);
+			assertEquals(exp.evaluate(xs[i]), generatedOut[i], 0.0);
+		}
+	}
+	
+	@Test
+	public void calls_are_folded_and_shared() throws ExpressionException {
+		Expression exp = Expression.parse("sinc(2) * x");
+		assertEquals(1, calls);
+		assertEquals(0, exp.program().functions.length);
+		
+		exp = Expression.parse("sinc(x)^2 + 1/sinc(x)");
+		assertEquals(Math.pow(Math.sin(2.0)/2.0, 2) + 2.0/Math.sin(2.0), exp.evaluate(2.0), DBL_COMPARE_DELTA);
+		assertEquals(2, calls);
+	}
+	
+	@Test(expected = ExpressionException.class)
+	public void wrong_number_of_arguments_rejected_on_parse() throws ExpressionException {
+		Expression.parse("clamp(x, 1)");
+	}
+	
+	@Test
+	public void unregistered_names_are_unknown() throws ExpressionException {
+		assertTrue(SymbolRegistry.unregister("tau"));
+		assertFalse(SymbolRegistry.unregister("tau"));
+		try {
+			Expression.parse("tau * x");
+			assertTrue("Expected an exception", false);
+		} catch (ExpressionException e) {
+			// expected
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void built_in_names_cannot_be_redefined() {
+		SymbolRegistry.registerConstant("Pi", 3.0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void single_letters_are_reserved_for_variables() {
+		SymbolRegistry.registerConstant("k", 3.0);
+	}
+	
+	@Test
+	public void functions_without_a_body_are_rejected() throws ExpressionException {
+		try {
+			SymbolRegistry.registerFunction("hypot", new UserFunction(2) {
+				@Override
+				public double apply(double a) {
+					return a;
+				}
+			});
+			assertTrue("Expected an exception", false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		// The previous definition is kept
+		assertEquals(5.0, Expression.parse("hypot(x, 4)").evaluate(3.0), DBL_COMPARE_DELTA);
+		
+		// The body may be inherited
+		SymbolRegistry.registerFunction("sinc", new Doubling() { });
+		assertEquals(6.0, Expression.parse("sinc(x)").evaluate(3.0), DBL_COMPARE_DELTA);
+	}
+	
+	private static class Doubling extends UserFunction {
+		Doubling() {
+			super(1);
+		}
+		
+		@Override
+		public double apply(double a) {
+			return 2 * a;
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package jrplot.core.geometry;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import jrplot.core.Pair;
+import jrplot.core.PlotSeries;
 import jrplot.core.geometry.CoordinatesConverter;
 
 import org.junit.Test;
@@ -137,4 +139,52 @@ public class CoordinateConverterTests {
 		assertEquals(7.8181818181818181818181818181818, p2.x, DBL_COMPARE_DELTA);
 		assertEquals(18.666666666666666666666666666667, p2.y, DBL_COMPARE_DELTA);
 	}
+	
+	/**
+	 * Converts the samples of a series at once, keeping the gaps.
+	 */
+	@Test
+	public void series_asymmetric_axis_withpadding() {
+		PlotSeries series = new PlotSeries();
+		series.add(-5.0, 40.0);
+		series.add(0.0, 0.0);
+		series.add(1.0, Double.NaN);
+		series.add(50.0, -20.0);
+		
+		CoordinatesConverter conv = new CoordinatesConverter();
+		conv.logicalBounds(-5, 50, -20, 40).screenSize(50.0, 30.0, 4.0);
+		double[] xs = new double[3];
+		double[] ys = new double[3];
+		conv.toScreenCoordinates(series, 1, xs, ys, 3);
+		
+		assertEquals(7.8181818181818181818181818181818, xs[0], DBL_COMPARE_DELTA);
+		assertEquals(18.666666666666666666666666666667, ys[0], DBL_COMPARE_DELTA);
+		assertTrue(Double.isNaN(ys[1]));
+		assertEquals(46.0, xs[2], DBL_COMPARE_DELTA);
+		assertEquals(26.0, ys[2], DBL_COMPARE_DELTA);
+	}
+	
+	/**
+	 * The batch conversion must give exactly the same coordinates as the single one.
+	 */
+	@Test
+	public void series_conversion_matches_single_conversion() {
+		PlotSeries series = new PlotSeries();
+		for (int i = 0; i < 1000; i++) {
+			double x = -7.3 + i * 0.0137;
+			series.add(x, Math.sin(x) * 3.1);
+		}
+		
+		CoordinatesConverter conv = new CoordinatesConverter();
+		conv.logicalBounds(-7.3, 6.4, -3.3, 2.9).screenSize(977.0, 613.0, 7.0);
+		double[] xs = new double[series.size()];
+		double[] ys = new double[series.size()];
+		conv.toScreenCoordinates(series, 0, xs, ys, series.size());
+		
+		for (int i = 0; i < series.size(); i++) {
+			double x = -7.3 + i * 0.0137;
+			assertEquals(conv.toScreenX(x), xs[i], 0.0);
+			assertEquals(conv.toScreenY(Math.sin(x) * 3.1), ys[i], 0.0);
+		}
+	}
 }
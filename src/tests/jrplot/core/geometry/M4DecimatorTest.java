@@ -0,0 +1,117 @@
+package jrplot.core.geometry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import jrplot.core.PlotSeries;
+
+import org.junit.Test;
+
+
+public class M4DecimatorTest {
+
+	private static final int WIDTH = 500;
+	private static final int HEIGHT = 400;
+
+	private static PlotSeries series() {
+		PlotSeries series = PlotSeries.uniform(-5.0, 0.0001, 100001, false);
+		for (int i = 0; i < 100001; i++) {
+			double x = -5.0 + i * 0.0001;
+			// Fast oscillations, a pole and an undefined interval
+			series.add(x > 1.0 && x < 1.5 ? Double.NaN : Math.sin(40 * x) + 0.1 / (x + 2.0));
+		}
+		return series;
+	}
+
+	private static CoordinatesConverter converter() {
+		return new CoordinatesConverter()
+			.logicalBounds(-5.0, 5.0, -3.0, 3.0)
+			.screenSize(WIDTH, HEIGHT, 10.0);
+	}
+
+	@Test
+	public void decimated_series_draws_the_same_pixels() {
+		PlotSeries series = series();
+		CoordinatesConverter converter = converter();
+
+		// Every sample, connected as the plotting area used to
+		BufferedImage expected = newImage();
+		Graphics2D g = expected.createGraphics();
+		boolean connected = false;
+		int previousX = 0;
+		int previousY = 0;
+		for (int i = 0; i < series.size(); i++) {
+			if (series.isGap(i)) {
+				connected = false;
+				continue;
+			}
+			int x = (int) converter.toScreenX(series.getX(i));
+			int y = (int) converter.toScreenY(series.getY(i));
+			if (!connected) {
+				previousX = x;
+				previousY = y;
+				connected = true;
+			}
+			g.drawLine(previousX, previousY, x, y);
+			previousX = x;
+			previousY = y;
+		}
+
+		M4Decimator decimator = new M4Decimator();
+		decimator.update(series, converter);
+		assertTrue(String.valueOf(decimator.size()), decimator.size() <= 4 * WIDTH + 2);
+
+		BufferedImage actual = newImage();
+		g = actual.createGraphics();
+		connected = false;
+		for (int i = 0; i < decimator.size(); i++) {
+			if (decimator.getY(i) == M4Decimator.BREAK) {
+				connected = false;
+				continue;
+			}
+			if (!connected) {
+				previousX = decimator.getX(i);
+				previousY = decimator.getY(i);
+				connected = true;
+			}
+			g.drawLine(previousX, previousY, decimator.getX(i), decimator.getY(i));
+			previousX = decimator.getX(i);
+			previousY = decimator.getY(i);
+		}
+
+		assertArrayEquals(pixels(expected), pixels(actual));
+	}
+
+	@Test
+	public void result_is_kept_until_the_mapping_changes() {
+		PlotSeries series = series();
+		CoordinatesConverter converter = converter();
+		M4Decimator decimator = new M4Decimator();
+
+		assertTrue(decimator.update(series, converter));
+		assertFalse(decimator.update(series, converter));
+		int size = decimator.size();
+
+		converter.screenSize(WIDTH / 2, HEIGHT, 10.0);
+		assertTrue(decimator.update(series, converter));
+		assertTrue(decimator.size() < size);
+		assertFalse(decimator.update(series, converter.copy()));
+	}
+
+	private static BufferedImage newImage() {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, WIDTH, HEIGHT);
+		return image;
+	}
+
+	private static int[] pixels(BufferedImage image) {
+		return image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+	}
+}
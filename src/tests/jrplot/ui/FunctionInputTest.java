@@ -0,0 +1,197 @@
+package jrplot.ui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+
+import jrplot.core.PlotEngine;
+import jrplot.core.expression.ExpressionException;
+import jrplot.core.expression.SymbolRegistry;
+import jrplot.core.expression.UserFunction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class FunctionInputTest {
+
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger reopened = new AtomicInteger();
+
+	private PlotEngine engine;
+	private FunctionInput form;
+	private JLabel messages;
+
+	@Before
+	public void createForm() throws Exception {
+		final AtomicBoolean first = new AtomicBoolean(true);
+		// Only the first call waits, until the plot is cancelled
+		SymbolRegistry.registerFunction("blocking", new UserFunction(1) {
+			@Override
+			public double apply(double a) {
+				if (first.getAndSet(false)) {
+					started.countDown();
+					try {
+						release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return a;
+			}
+		});
+		engine = new PlotEngine();
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				JPlotUI controller = new JPlotUI() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					void notifyNewFunctionDialogRequested() {
+						reopened.incrementAndGet();
+					}
+				};
+				form = new FunctionInput(engine, controller);
+				// The plot takes the size of the form
+				form.setSize(400, 300);
+			}
+		});
+	}
+
+	@After
+	public void unregister() {
+		release.countDown();
+		SymbolRegistry.unregister("blocking");
+	}
+
+	@Test
+	public void cancel_button_closes_the_form_quietly() throws Exception {
+		startPlot();
+		click("Cancel");
+		release.countDown();
+
+		awaitMessage("");
+		assertEquals(0, reopened.get());
+	}
+
+	@Test
+	public void a_plot_cancelled_by_a_newer_one_is_not_an_error() throws Exception {
+		startPlot();
+		// As done when a newer plot is started
+		engine.cancel();
+		release.countDown();
+
+		awaitMessage("");
+		assertEquals(0, reopened.get());
+	}
+
+	@Test
+	public void errors_reopen_the_form() throws Exception {
+		startPlot("unknown(x)");
+		awaitMessage("Unrecognized token: unknown");
+		assertEquals(1, reopened.get());
+	}
+
+	@Test
+	public void blank_functions_are_ignored() throws Exception {
+		assertArrayEquals(new String[] {"sin(x)"}, FunctionInput.splitFunctions("sin(x);"));
+		assertArrayEquals(new String[] {"x", " 2x"}, FunctionInput.splitFunctions("x;; 2x; "));
+	}
+
+	@Test(expected = ExpressionException.class)
+	public void at_least_one_function_is_needed() throws Exception {
+		FunctionInput.splitFunctions(" ; ;");
+	}
+
+	/**
+	 * Plots a function that blocks until it is released.
+	 */
+	private void startPlot() throws Exception {
+		startPlot("blocking(x)");
+		assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	private void startPlot(final String functionText) throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				components(form, JTextField.class).get(0).setText(functionText);
+				click(form, "OK");
+				for (JLabel label : components(form, JLabel.class)) {
+					if (label.getText().startsWith("Plotting")) {
+						messages = label;
+					}
+				}
+			}
+		});
+		assertNotNull(messages);
+	}
+
+	private void click(final String text) throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				click(form, text);
+			}
+		});
+	}
+
+	private static void click(Container container, String text) {
+		for (JButton button : components(container, JButton.class)) {
+			if (button.getText().equals(text)) {
+				button.doClick();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the form shows the message, once the plot is done.
+	 */
+	private void awaitMessage(String expected) throws Exception {
+		final String[] text = new String[1];
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		do {
+			Thread.sleep(10);
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					text[0] = messages.getText();
+				}
+			});
+		} while (!text[0].equals(expected) && System.currentTimeMillis() < deadline);
+		assertEquals(expected, text[0]);
+	}
+
+	private static <T extends Component> List<T> components(Container container, Class<T> type) {
+		List<T> found = new ArrayList<T>();
+		for (Component c : container.getComponents()) {
+			if (type.isInstance(c)) {
+				found.add(type.cast(c));
+			}
+			if (c instanceof Container) {
+				found.addAll(components((Container) c, type));
+			}
+		}
+		return found;
+	}
+}